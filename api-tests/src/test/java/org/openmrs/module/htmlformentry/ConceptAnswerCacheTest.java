@@ -0,0 +1,66 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class ConceptAnswerCacheTest extends BaseModuleContextSensitiveTest {
+
+	private List<String> classNames = Arrays.asList("Diagnosis", "Misc");
+
+	@Before
+	public void before() {
+		ConceptAnswerCache.setEnabled(true);
+	}
+
+	@After
+	public void after() {
+		ConceptAnswerCache.setEnabled(false);
+	}
+
+	@Test
+	public void getAnswersByClass_shouldReturnTheConceptsOfTheClassesSortedByName() throws Exception {
+		ConceptAnswerCache.Answers answers = ConceptAnswerCache.getAnswersByClass(classNames, Locale.ENGLISH);
+
+		List<Concept> concepts = answers.loadConcepts();
+		List<Option> options = answers.getOptions().getOptions();
+		assertTrue(concepts.size() > 1);
+		assertEquals(answers.getConceptIds().size(), concepts.size());
+		assertEquals(concepts.size(), options.size());
+		for (int i = 0; i < concepts.size(); i++) {
+			assertEquals(answers.getConceptIds().get(i), concepts.get(i).getConceptId());
+			assertEquals(concepts.get(i).getConceptId().toString(), options.get(i).getValue());
+			assertEquals(concepts.get(i).getBestName(Locale.ENGLISH).getName(), options.get(i).getLabel());
+			if (i > 0) {
+				assertTrue(options.get(i - 1).getLabel().compareTo(options.get(i).getLabel()) <= 0);
+			}
+		}
+	}
+
+	@Test
+	public void getAnswersByClass_shouldShareTheListUntilCleared() throws Exception {
+		ConceptAnswerCache.Answers first = ConceptAnswerCache.getAnswersByClass(classNames, Locale.ENGLISH);
+		assertSame(first, ConceptAnswerCache.getAnswersByClass(classNames, Locale.ENGLISH));
+
+		// what the advice does when a concept is saved
+		ConceptAnswerCache.clear();
+		assertNotSame(first, ConceptAnswerCache.getAnswersByClass(classNames, Locale.ENGLISH));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void getAnswersByClass_shouldFailForAnUnknownClass() throws Exception {
+		ConceptAnswerCache.getAnswersByClass(Arrays.asList("No such class"), Locale.ENGLISH);
+	}
+}
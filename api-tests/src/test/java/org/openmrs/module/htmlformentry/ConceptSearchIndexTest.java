@@ -0,0 +1,48 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class ConceptSearchIndexTest extends BaseModuleContextSensitiveTest {
+
+	@Test
+	public void search_shouldFindTheConceptsHavingANameStartingWithTheQuery() throws Exception {
+		ConceptSearchIndex index = ConceptSearchIndex.getIndexForConcepts(Arrays.asList(5089, 5497), Locale.ENGLISH);
+		String name = Context.getConceptService().getConcept(5089).getName(Locale.ENGLISH).getName();
+
+		List<ConceptSearchIndex.Match> matches = index.search(name.substring(0, 3).toLowerCase(), 10);
+		assertEquals(1, matches.size());
+		assertEquals(Integer.valueOf(5089), matches.get(0).getConceptId());
+		assertEquals(name, matches.get(0).getLabel());
+	}
+
+	@Test
+	public void search_shouldRequireEveryWordOfTheQueryToMatch() throws Exception {
+		ConceptSearchIndex index = ConceptSearchIndex.getIndexForConcepts(Arrays.asList(5089, 5497), Locale.ENGLISH);
+		String name = Context.getConceptService().getConcept(5089).getName(Locale.ENGLISH).getName();
+
+		assertTrue(index.search(name.substring(0, 3) + " zzz", 10).isEmpty());
+		assertTrue(index.search("", 10).isEmpty());
+	}
+
+	@Test
+	public void getIndexForConcepts_shouldBuildTheIndexOnceWhenEnabled() throws Exception {
+		ConceptSearchIndex.setEnabled(true);
+		try {
+			ConceptSearchIndex index = ConceptSearchIndex.getIndexForConcepts(Arrays.asList(5089, 5497), Locale.ENGLISH);
+			assertSame(index, ConceptSearchIndex.getIndexForConcepts(Arrays.asList(5497, 5089), Locale.ENGLISH));
+		}
+		finally {
+			ConceptSearchIndex.setEnabled(false);
+		}
+	}
+}
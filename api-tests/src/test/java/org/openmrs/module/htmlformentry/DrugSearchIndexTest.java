@@ -0,0 +1,38 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openmrs.Drug;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class DrugSearchIndexTest extends BaseModuleContextSensitiveTest {
+
+	@Test
+	public void search_shouldFindTheDrugsWhoseNameContainsTheQueryIgnoringCase() throws Exception {
+		Drug drug = Context.getConceptService().getAllDrugs(false).get(0);
+		String query = drug.getName().substring(1, drug.getName().length() - 1).toUpperCase();
+
+		List<Map<String, Object>> results = DrugSearchIndex.getIndex(Locale.ENGLISH).search(query, 100);
+		boolean found = false;
+		for (Map<String, Object> result : results) {
+			assertTrue(((String) result.get("name")).toUpperCase().contains(query));
+			if (drug.getId().equals(result.get("id"))) {
+				assertEquals(DrugSearchIndex.simplify(drug, Locale.ENGLISH), result);
+				found = true;
+			}
+		}
+		assertTrue(found);
+	}
+
+	@Test
+	public void search_shouldReturnAtMostTheGivenNumberOfResults() throws Exception {
+		assertTrue(DrugSearchIndex.getIndex(Locale.ENGLISH).search("", 1).size() <= 1);
+	}
+}
@@ -0,0 +1,48 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class FormEntrySessionStoreListenerTest extends BaseModuleContextSensitiveTest {
+
+	@Before
+	public void before() {
+		HtmlFormEntryGlobalProperties.setCacheEnabled(true);
+	}
+
+	@After
+	public void after() {
+		HtmlFormEntryGlobalProperties.setCacheEnabled(false);
+		FormEntrySessionStore.getInstance().configure(FormEntrySessionStore.DEFAULT_MAX_SESSIONS,
+		    FormEntrySessionStore.DEFAULT_MAX_RETAINED_BYTES, FormEntrySessionStore.DEFAULT_TIME_TO_LIVE);
+	}
+
+	@Test
+	public void globalPropertyChanged_shouldApplyTheNewBoundsToTheStore() throws Exception {
+		FormEntrySessionStoreListener listener = new FormEntrySessionStoreListener();
+		listener.configure();
+		assertEquals(FormEntrySessionStore.DEFAULT_MAX_SESSIONS, FormEntrySessionStore.getInstance().getMaxSessions());
+
+		// the snapshot of the global properties is loaded before the change, and must not be used afterwards
+		GlobalProperty gp = new GlobalProperty(HtmlFormEntryConstants.GP_FORM_SESSION_STORE_MAX_SESSIONS, "10");
+		Context.getAdministrationService().saveGlobalProperty(gp);
+		listener.globalPropertyChanged(gp);
+		assertEquals(10, FormEntrySessionStore.getInstance().getMaxSessions());
+	}
+
+	@Test
+	public void supportsPropertyName_shouldOnlySupportTheStoresProperties() throws Exception {
+		FormEntrySessionStoreListener listener = new FormEntrySessionStoreListener();
+		assertTrue(listener.supportsPropertyName(HtmlFormEntryConstants.GP_FORM_SESSION_STORE_TIME_TO_LIVE_MINUTES));
+		assertFalse(listener.supportsPropertyName(HtmlFormEntryConstants.GP_DRUG_SEARCH_INDEX));
+		assertFalse(listener.supportsPropertyName(null));
+	}
+}
@@ -0,0 +1,94 @@
+package org.openmrs.module.htmlformentry;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class FormEntrySessionStoreTest extends BaseModuleContextSensitiveTest {
+	
+	protected static final String XML_DATASET_PATH = "org/openmrs/module/htmlformentry/include/";
+	
+	protected static final String XML_HTML_FORM_ENTRY_TEST_DATASET = "htmlFormEntryTestDataSet";
+	
+	private static final String FORM_XML = "<htmlform><encounterDate/><encounterLocation/><encounterProvider/></htmlform>";
+	
+	private Patient patient;
+	
+	@Before
+	public void setupDatabase() throws Exception {
+		executeDataSet(XML_DATASET_PATH + new TestUtil().getTestDatasetFilename(XML_HTML_FORM_ENTRY_TEST_DATASET));
+		patient = Context.getPatientService().getPatient(2);
+	}
+	
+	private FormEntrySession newSession() throws Exception {
+		FormEntrySession session = new FormEntrySession(patient, FORM_XML, null);
+		session.getHtmlToDisplay();
+		return session;
+	}
+	
+	@Test
+	public void put_shouldKeepACompactSnapshotOfTheSession() throws Exception {
+		FormEntrySessionStore store = new FormEntrySessionStore(2, Long.MAX_VALUE, Long.MAX_VALUE / 2);
+		FormEntrySession session = newSession();
+		store.put("a", session);
+		
+		Assert.assertEquals(1, store.getSnapshotCount());
+		Assert.assertTrue(store.getRetainedBytes() > 0);
+		FormEntrySessionState state = store.getState("a");
+		Assert.assertNotNull(state);
+		Assert.assertTrue(state.matches(session));
+	}
+	
+	@Test
+	public void put_shouldDropTheLeastRecentlyUsedSnapshotsBeyondTheMaximumNumber() throws Exception {
+		FormEntrySessionStore store = new FormEntrySessionStore(2, Long.MAX_VALUE, Long.MAX_VALUE / 2);
+		store.put("a", newSession());
+		store.put("b", newSession());
+		Assert.assertNotNull(store.getState("a"));
+		store.put("c", newSession());
+		
+		Assert.assertEquals(2, store.getSnapshotCount());
+		Assert.assertEquals(1, store.getEvictionCount());
+		Assert.assertNotNull(store.getState("a"));
+		Assert.assertNull(store.getState("b"));
+		Assert.assertNotNull(store.getState("c"));
+	}
+	
+	@Test
+	public void put_shouldDropTheLeastRecentlyUsedSnapshotsBeyondTheMaximumRetainedBytes() throws Exception {
+		FormEntrySession session = newSession();
+		long bytes = FormEntrySessionStore.estimateRetainedBytes(new FormEntrySessionState(session));
+		FormEntrySessionStore store = new FormEntrySessionStore(10, 2 * bytes, Long.MAX_VALUE / 2);
+		store.put("a", session);
+		store.put("b", newSession());
+		store.put("c", newSession());
+		
+		Assert.assertEquals(2, store.getSnapshotCount());
+		Assert.assertEquals(1, store.getEvictionCount());
+		Assert.assertEquals(2 * bytes, store.getRetainedBytes());
+		Assert.assertNull(store.getState("a"));
+	}
+	
+	@Test
+	public void getState_shouldDropSnapshotsWhoseTimeToLiveHasPassed() throws Exception {
+		FormEntrySessionStore store = new FormEntrySessionStore(10, Long.MAX_VALUE, -1);
+		store.put("a", newSession());
+		
+		Assert.assertNull(store.getState("a"));
+		Assert.assertEquals(1, store.getExpiryCount());
+		Assert.assertEquals(0, store.getRetainedBytes());
+	}
+	
+	@Test
+	public void remove_shouldReleaseTheRetainedBytesOfASnapshot() throws Exception {
+		FormEntrySessionStore store = new FormEntrySessionStore(10, Long.MAX_VALUE, Long.MAX_VALUE / 2);
+		store.put("a", newSession());
+		store.remove("a");
+		Assert.assertEquals(0, store.getSnapshotCount());
+		Assert.assertEquals(0, store.getRetainedBytes());
+		Assert.assertNull(store.getState("a"));
+	}
+}
@@ -13,15 +13,28 @@
  */
 package org.openmrs.module.htmlformentry;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.Map;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Location;
 import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext.LastSubmissionType;
+import org.openmrs.module.htmlformentry.handler.SectionTagHandler;
+import org.openmrs.module.htmlformentry.widget.Widget;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
 import org.openmrs.test.Verifies;
+import org.springframework.mock.web.MockHttpServletRequest;
 
 public class FormEntrySessionTest extends BaseModuleContextSensitiveTest {
 	
@@ -92,4 +105,104 @@ public class FormEntrySessionTest extends BaseModuleContextSensitiveTest {
 		FormEntrySession session = new FormEntrySession(patient, htmlform, null);
 		Assert.assertEquals("<div class=\"htmlform\"></div>", session.getHtmlToDisplay());
 	}
+	
+	/**
+	 * @see {@link FormEntrySessionState#matches(FormEntrySession)}
+	 */
+	@Test
+	@Verifies(value = "should match an equivalent session after being serialized", method = "matches(FormEntrySession)")
+	public void matches_shouldMatchAnEquivalentSessionAfterBeingSerialized() throws Exception {
+		String htmlform = "<htmlform><encounterDate/><encounterLocation/><encounterProvider/></htmlform>";
+		FormEntrySession session = new FormEntrySession(patient, htmlform, null);
+		session.getHtmlToDisplay();
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(new FormEntrySessionState(session));
+		out.close();
+		FormEntrySessionState state = (FormEntrySessionState) new ObjectInputStream(new ByteArrayInputStream(bytes
+		        .toByteArray())).readObject();
+		
+		Assert.assertEquals(patient.getPatientId(), state.getPatientId());
+		Assert.assertEquals(session.getContext().getFieldNames().size(), state.getWidgetRegistry().size());
+		FormEntrySession rebuilt = new FormEntrySession(patient, htmlform, null);
+		rebuilt.getHtmlToDisplay();
+		Assert.assertTrue(state.matches(rebuilt));
+	}
+	
+	/**
+	 * @see {@link FormEntrySession#writeSetLastSubmissionFieldsJavascript(java.io.Writer)}
+	 */
+	@Test
+	@Verifies(value = "should resolve autocomplete values submitted by uuid as well as by id", method = "writeSetLastSubmissionFieldsJavascript(Writer)")
+	public void writeSetLastSubmissionFieldsJavascript_shouldResolveAutocompleteValuesSubmittedByUuidAsWellAsById()
+	        throws Exception {
+		String htmlform = "<htmlform><encounterLocation type=\"autocomplete\"/><encounterProvider type=\"autocomplete\"/></htmlform>";
+		FormEntrySession session = new FormEntrySession(patient, htmlform, null);
+		session.getHtmlToDisplay();
+		Location location = Context.getLocationService().getLocation(2);
+		Person provider = Context.getPersonService().getPerson(502);
+		
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		String locationField = null;
+		String providerField = null;
+		for (Map.Entry<Widget, String> e : session.getContext().getFieldNames().entrySet()) {
+			LastSubmissionType type = session.getContext().getLastSubmissionType(e.getKey());
+			if (type == LastSubmissionType.LOCATION_AUTOCOMPLETE) {
+				locationField = e.getValue();
+				request.addParameter(locationField, location.getUuid());
+			} else if (type == LastSubmissionType.PERSON_AUTOCOMPLETE) {
+				providerField = e.getValue();
+				request.addParameter(providerField, provider.getPersonId().toString());
+			}
+		}
+		session.getSubmissionController().validateSubmission(session.getContext(), request);
+		
+		String js = session.getSetLastSubmissionFieldsJavascript();
+		Assert.assertTrue(js.contains("$j('#" + locationField + "').val(\"" + location.getName() + "\");"));
+		Assert.assertTrue(js.contains("$j('#" + locationField + "_hid').val(\"" + location.getLocationId() + "\");"));
+		Assert.assertTrue(js.contains("$j('#" + providerField + "').val(\"" + provider.getPersonName().getFullName()
+		        + "\");"));
+		Assert.assertTrue(js.contains("$j('#" + providerField + "_hid').val(\"" + provider.getPersonId() + "\");"));
+	}
+	
+	/**
+	 * @see {@link FormEntrySessionState#restoreSection(javax.servlet.http.HttpSession, int)}
+	 * @see {@link FormEntrySession#getMissingSections(javax.servlet.http.HttpServletRequest)}
+	 */
+	@Test
+	@Verifies(value = "should only match a submission once every deferred section has been rendered", method = "restoreSection(HttpSession,int)")
+	public void restoreSection_shouldOnlyMatchASubmissionOnceEveryDeferredSectionHasBeenRendered() throws Exception {
+		String htmlform = "<htmlform><section headerLabel=\"A\"><encounterDate/></section>"
+		        + "<section headerLabel=\"B\"><encounterLocation/></section>"
+		        + "<section headerLabel=\"C\"><encounterProvider/></section></htmlform>";
+		FormEntrySession displayed = new FormEntrySession(patient, htmlform, null);
+		displayed.setLazySections(true);
+		Assert.assertTrue(displayed.getHtmlToDisplay().contains("data-section-index=\"2\""));
+		FormEntrySessionState state = new FormEntrySessionState(displayed);
+		
+		FormEntrySession rebuilt = state.restoreSection(null, 2);
+		Assert.assertTrue(rebuilt.renderSection(2).contains(SectionTagHandler.getRenderedSectionMarker(2)));
+		// only the requested section is processed in the rebuilt session
+		Assert.assertFalse(rebuilt.getContext().getFieldNames().isEmpty());
+		for (String fieldName : rebuilt.getContext().getFieldNames().values()) {
+			Assert.assertTrue(fieldName.startsWith(SectionTagHandler.getFieldNamePrefix(2)));
+		}
+		state.addRenderedSections(new FormEntrySessionState(rebuilt));
+		Assert.assertEquals(Collections.singleton(2), state.getRenderedSections());
+		
+		// a submission is processed with every section rendered, and section 1 never arrived on the page
+		FormEntrySession submitted = new FormEntrySession(patient, htmlform, null);
+		submitted.setSectionScopedFieldNames(true);
+		submitted.getHtmlToDisplay();
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addParameter(SectionTagHandler.RENDERED_SECTION_PARAMETER, "2");
+		Assert.assertEquals(Collections.singleton(1), submitted.getMissingSections(request));
+		Assert.assertFalse(state.matches(submitted));
+		
+		state.addRenderedSections(new FormEntrySessionState(state.restoreSection(null, 1)));
+		request.addParameter(SectionTagHandler.RENDERED_SECTION_PARAMETER, "1");
+		Assert.assertTrue(submitted.getMissingSections(request).isEmpty());
+		Assert.assertTrue(state.matches(submitted));
+	}
 }
@@ -55,6 +55,17 @@ public class HtmlFormEntryGeneratorTest extends BaseModuleContextSensitiveTest {
 		Assert.assertEquals("<div class=\"htmlform\">This shows a logic test for a man</div>", session.getHtmlToDisplay());
 	}
 
+    /**
+     * @see {@link HtmlFormEntryGenerator#applyMacros(String)}
+     */
+    @Test
+    @Verifies(value = "should substitute the longest macro name matching at each dollar sign", method = "applyMacros(String)")
+    public void applyMacros_shouldSubstituteTheLongestMacroNameMatchingAtEachDollarSign() throws Exception {
+        String htmlform = "<htmlform><macros>\nfoo=1\nfoobar=2\nbar=$foo\n</macros>$foobar $foo $bar $baz $foob</htmlform>";
+        String result = new HtmlFormEntryGenerator().applyMacros(htmlform).trim();
+        Assert.assertEquals("<htmlform>2 1 $foo $baz 1b</htmlform>", result);
+    }
+
     @Test
     @Verifies(value = "should return correct xml after applying <repeat> tag", method = "applyRepeats(String)")
     public void applyRepeats_shouldReturnCorrectValueAfterApplyRepeatTag() throws Exception {
@@ -70,6 +81,17 @@ public class HtmlFormEntryGeneratorTest extends BaseModuleContextSensitiveTest {
 
     }
 
+    @Test
+    @Verifies(value = "should expand each repeat tag and leave unknown placeholders alone", method = "applyRepeats(String)")
+    public void applyRepeats_shouldExpandEachRepeatTagAndLeaveUnknownPlaceholdersAlone() throws Exception {
+
+        String htmlform = "<htmlform><repeat><template><b>{a}{{b}{c}}</b></template><render a=\"1\" b=\"2\"/><render a=\"3\"/></repeat>" +
+                "<i/><repeat with=\"['x','y'],['z']\">{0}-{1};</repeat><repeat><template>{a}</template><render a=\"4\"/></repeat></htmlform>";
+        String result = new HtmlFormEntryGenerator().applyRepeats(htmlform);
+        Assert.assertEquals("<htmlform><b>1{2{c}}</b><b>3{{b}{c}}</b><i/>x-y;z-{1};4</htmlform>", result);
+
+    }
+
     @Test
     @Verifies(value = "should return correct xml after applying <repeat with=''> tag", method = "applyRepeats(String)")
     public void applyRepeats_shouldReturnCorrectValueAfterApplyRepeatWithTag() throws Exception {
@@ -194,6 +216,17 @@ public class HtmlFormEntryGeneratorTest extends BaseModuleContextSensitiveTest {
         FormEntrySession session6 = new FormEntrySession(patient, htmlform6, null);
         Assert.assertEquals("<div class=\"htmlform\">This is shown to admin with multiple roles to single user in exclude field</div>", session6.getHtmlToDisplay());
 
+    }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#applyRoleRestrictions(String)}
+     */
+    @Test
+    @Verifies(value = "should only show nested content allowed by all enclosing restrictByRole tags", method = "applyRoleRestrictions(String)")
+    public void applyRoleRestrictions_shouldOnlyShowNestedContentAllowedByAllEnclosingRestrictByRoleTags() throws Exception {
+        String htmlform = "<htmlform>a<restrictByRole include=\"System Developer\">b<restrictByRole exclude=\"System Developer\">c</restrictByRole>d</restrictByRole>"
+                + "<restrictByRole include=\"Data Manager\">e<restrictByRole include=\"System Developer\">f</restrictByRole>g</restrictByRole>h</htmlform>";
+        Assert.assertEquals("<htmlform>abdh</htmlform>", new HtmlFormEntryGenerator().applyRoleRestrictions(htmlform));
     }
 	
 	/**
@@ -232,6 +265,20 @@ public class HtmlFormEntryGeneratorTest extends BaseModuleContextSensitiveTest {
         FormEntrySession session = new FormEntrySession(patient, htmlform, null);
         Assert.assertEquals("<div class=\"htmlform\"><div class=\"section\"></div></div>", session.getHtmlToDisplay());
     }
+
+    /**
+     * @see {@link HtmlFormEntryGenerator#convertSpecialCharactersWithinLogicAndVelocityTests(String)}
+     */
+    @Test
+    @Verifies(value = "should escape special characters only within logic and velocity tests", method = "convertSpecialCharactersWithinLogicAndVelocityTests(String)")
+    public void convertSpecialCharactersWithinLogicAndVelocityTests_shouldEscapeSpecialCharactersOnlyWithinLogicAndVelocityTests()
+            throws Exception {
+        String htmlform = "<htmlform><includeIf velocityTest=\"$a < 1 && $b > 2 & c\">x && y</includeIf>"
+                + "<excludeIf logicTest=\"AGE < 5 &&& AGE > 1\"></excludeIf></htmlform>";
+        Assert.assertEquals("<htmlform><includeIf velocityTest=\"$a &lt; 1 &amp;&amp; $b &gt; 2 & c\">x && y</includeIf>"
+                + "<excludeIf logicTest=\"AGE &lt; 5 &amp;&amp;& AGE &gt; 1\"></excludeIf></htmlform>",
+            new HtmlFormEntryGenerator().convertSpecialCharactersWithinLogicAndVelocityTests(htmlform));
+    }
     
     /**
      * @see {@link HtmlFormEntryGenerator#doStartTag(FormEntrySession,PrintWriter,Node,Node)}
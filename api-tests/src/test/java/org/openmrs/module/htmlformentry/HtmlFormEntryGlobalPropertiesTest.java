@@ -0,0 +1,56 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.context.Context;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class HtmlFormEntryGlobalPropertiesTest extends BaseModuleContextSensitiveTest {
+
+	private static final String PROPERTY = HtmlFormEntryConstants.GP_DRUG_SEARCH_INDEX;
+
+	@Before
+	public void before() {
+		HtmlFormEntryGlobalProperties.setCacheEnabled(true);
+	}
+
+	@After
+	public void after() {
+		HtmlFormEntryGlobalProperties.setCacheEnabled(false);
+	}
+
+	@Test
+	public void getGlobalProperty_shouldReadTheModulesPropertiesFromTheSnapshotUntilTheListenerIsNotified()
+	        throws Exception {
+		Context.getAdministrationService().saveGlobalProperty(new GlobalProperty(PROPERTY, "false"));
+		assertFalse(HtmlFormEntryGlobalProperties.DRUG_SEARCH_INDEX());
+
+		// the listener isn't registered in tests, so the snapshot doesn't see this change yet
+		GlobalProperty gp = Context.getAdministrationService().getGlobalPropertyObject(PROPERTY);
+		gp.setPropertyValue("true");
+		Context.getAdministrationService().saveGlobalProperty(gp);
+		assertFalse(HtmlFormEntryGlobalProperties.DRUG_SEARCH_INDEX());
+
+		new HtmlFormEntryGlobalPropertyListener().globalPropertyChanged(gp);
+		assertTrue(HtmlFormEntryGlobalProperties.DRUG_SEARCH_INDEX());
+	}
+
+	@Test
+	public void getGlobalProperty_shouldReturnTheDefaultValueIfThePropertyIsNotSet() throws Exception {
+		assertEquals("default", HtmlFormEntryGlobalProperties.getGlobalProperty("htmlformentry.notSet", "default"));
+	}
+
+	@Test
+	public void isCached_shouldOnlyCacheThePropertiesOfThisModuleAndTheFlowsheetModule() throws Exception {
+		assertTrue(HtmlFormEntryGlobalProperties.isCached("htmlformentry.dateFormat"));
+		assertTrue(HtmlFormEntryGlobalProperties.isCached("htmlformflowsheet.started"));
+		assertFalse(HtmlFormEntryGlobalProperties.isCached("locale.allowed.list"));
+		assertFalse(HtmlFormEntryGlobalProperties.isCached(null));
+	}
+}
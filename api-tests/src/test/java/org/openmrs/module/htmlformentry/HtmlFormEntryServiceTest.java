@@ -1,11 +1,24 @@
 package org.openmrs.module.htmlformentry;
 
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.Concept;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.Program;
 import org.openmrs.Role;
 import org.openmrs.User;
 import org.openmrs.api.context.Context;
@@ -83,4 +96,144 @@ public class HtmlFormEntryServiceTest extends BaseModuleContextSensitiveTest {
  
     }
 	
-}
\ No newline at end of file
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsHavingAttributesAndPrograms(List, List, List)}
+	 */
+	@Test
+	@Verifies(value = "should intersect the people having the attributes and in the programs", method = "getPersonIdsHavingAttributesAndPrograms(List, List, List)")
+	public void getPersonIdsHavingAttributesAndPrograms_shouldIntersectThePeopleHavingTheAttributesAndInThePrograms()
+	        throws Exception {
+		Program program = Context.getProgramWorkflowService().getProgram(1);
+		Set<Integer> inProgram = Context.getPatientSetService().getPatientsInProgram(program, null, null).getMemberIds();
+		Assert.assertEquals(inProgram, service.getPersonIdsHavingAttributesAndPrograms(null, null, Arrays.asList(program)));
+		
+		Set<Integer> withAttribute = new HashSet<Integer>(service.getPersonIdsHavingAttributes("Race", null));
+		Assert.assertEquals(withAttribute, service.getPersonIdsHavingAttributesAndPrograms(Arrays.asList("Race"), null,
+		    null));
+		
+		Set<Integer> expected = new HashSet<Integer>(inProgram);
+		expected.retainAll(withAttribute);
+		Assert.assertEquals(expected, service.getPersonIdsHavingAttributesAndPrograms(Arrays.asList("Race", " "),
+		    Arrays.asList("", "ignored"), Arrays.asList(program)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsByNameOrIdentifier(String, List, List, List, int, int)}
+	 */
+	@Test
+	@Verifies(value = "should find people by the start of each word of their names or by identifier", method = "getPersonIdsByNameOrIdentifier(String, List, List, List, int, int)")
+	public void getPersonIdsByNameOrIdentifier_shouldFindPeopleByTheStartOfEachWordOfTheirNamesOrByIdentifier()
+	        throws Exception {
+		Patient patient = Context.getPatientService().getPatient(2);
+		PersonName name = patient.getPersonName();
+		String phrase = name.getGivenName().substring(0, 2) + " " + name.getFamilyName().substring(0, 2);
+		List<Integer> found = service.getPersonIdsByNameOrIdentifier(phrase, null, null, null, 0, 100);
+		Assert.assertTrue(found.contains(2));
+		Assert.assertEquals(new HashSet<Integer>(found).size(), found.size());
+		Assert.assertEquals(found.size(), service.getPersonCountByNameOrIdentifier(phrase, null, null, null));
+		
+		Assert.assertTrue(service.getPersonIdsByNameOrIdentifier(name.getGivenName() + " NoSuchName", null, null, null,
+		    0, 100).isEmpty());
+		
+		String identifier = patient.getPatientIdentifier().getIdentifier();
+		if (identifier.matches(".*\\d+.*")) {
+			Assert.assertTrue(service.getPersonIdsByNameOrIdentifier(identifier, null, null, null, 0, 100).contains(2));
+		}
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPersonIdsByNameOrIdentifier(String, List, List, List, int, int)}
+	 */
+	@Test
+	@Verifies(value = "should page the people found and filter them on attributes and programs", method = "getPersonIdsByNameOrIdentifier(String, List, List, List, int, int)")
+	public void getPersonIdsByNameOrIdentifier_shouldPageThePeopleFoundAndFilterThemOnAttributesAndPrograms()
+	        throws Exception {
+		String phrase = Context.getPatientService().getPatient(2).getPersonName().getFamilyName().substring(0, 1);
+		List<Integer> all = service.getPersonIdsByNameOrIdentifier(phrase, null, null, null, 0, 100);
+		if (all.size() > 1) {
+			Assert.assertEquals(all.subList(1, 2), service.getPersonIdsByNameOrIdentifier(phrase, null, null, null, 1, 1));
+		}
+		
+		Program program = Context.getProgramWorkflowService().getProgram(1);
+		Set<Integer> expected = new HashSet<Integer>(all);
+		expected.retainAll(service.getPersonIdsHavingAttributesAndPrograms(null, null, Arrays.asList(program)));
+		List<Integer> inProgram = service.getPersonIdsByNameOrIdentifier(phrase, null, null, Arrays.asList(program), 0,
+		    100);
+		Assert.assertEquals(expected, new HashSet<Integer>(inProgram));
+		Assert.assertEquals(expected.size(), service.getPersonCountByNameOrIdentifier(phrase, null, null, Arrays
+		        .asList(program)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getPeopleAsPersonStubs(List, List, List, List)}
+	 */
+	@Test
+	@Verifies(value = "should return stubs of the people in the programs except the excluded ones", method = "getPeopleAsPersonStubs(List, List, List, List)")
+	public void getPeopleAsPersonStubs_shouldReturnStubsOfThePeopleInTheProgramsExceptTheExcludedOnes() throws Exception {
+		Program program = Context.getProgramWorkflowService().getProgram(1);
+		Set<Integer> inProgram = Context.getPatientSetService().getPatientsInProgram(program, null, null).getMemberIds();
+		Assert.assertFalse(inProgram.isEmpty());
+		Person excluded = Context.getPersonService().getPerson(inProgram.iterator().next());
+		
+		List<PersonStub> stubs = service.getPeopleAsPersonStubs(null, null, Arrays.asList("1"), Arrays.asList(excluded));
+		Assert.assertEquals(inProgram.size() - 1, stubs.size());
+		for (PersonStub stub : stubs) {
+			Assert.assertTrue(inProgram.contains(stub.getId()));
+			Assert.assertEquals(new PersonStub(Context.getPersonService().getPerson(stub.getId())).getDisplayValue(),
+			    stub.getDisplayValue());
+		}
+		
+		Assert.assertTrue(service.getPeopleAsPersonStubs(null, null, Arrays.asList("no such program"), null).isEmpty());
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#hasEncounterForHtmlForm(Integer, HtmlForm, Date)}
+	 */
+	@Test
+	@Verifies(value = "should find an encounter of the form at exactly the given date", method = "hasEncounterForHtmlForm(Integer, HtmlForm, Date)")
+	public void hasEncounterForHtmlForm_shouldFindAnEncounterOfTheFormAtExactlyTheGivenDate() throws Exception {
+		HtmlForm htmlForm = service.getHtmlForm(1);
+		Encounter encounter = Context.getEncounterService().getEncountersByPatientId(7).get(0);
+		encounter.setForm(htmlForm.getForm());
+		Context.getEncounterService().saveEncounter(encounter);
+		Date encounterDatetime = encounter.getEncounterDatetime();
+		
+		Assert.assertTrue(service.hasEncounterForHtmlForm(7, htmlForm, encounterDatetime));
+		Assert.assertFalse(service.hasEncounterForHtmlForm(7, htmlForm, new Date(encounterDatetime.getTime() + 1000)));
+		Assert.assertFalse(service.hasEncounterForHtmlForm(7, service.getHtmlForm(2), encounterDatetime));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getLatestEncounter(Patient, EncounterType)}
+	 */
+	@Test
+	@Verifies(value = "should return the same encounter as the last of all the patient's encounters", method = "getLatestEncounter(Patient, EncounterType)")
+	public void getLatestEncounter_shouldReturnTheSameEncounterAsTheLastOfAllThePatientsEncounters() throws Exception {
+		Patient patient = Context.getPatientService().getPatient(7);
+		List<Encounter> all = Context.getEncounterService().getEncountersByPatient(patient);
+		Assert.assertEquals(all.get(all.size() - 1), service.getLatestEncounter(patient, null));
+		
+		EncounterType type = Context.getEncounterService().getEncounterType(2);
+		Assert.assertEquals(Integer.valueOf(3), service.getLatestEncounter(patient, type).getEncounterId());
+		Assert.assertNull(service.getLatestEncounter(patient, Context.getEncounterService().getEncounterType(6)));
+	}
+	
+	/**
+	 * @see {@link HtmlFormEntryService#getItemsByIds(Class, java.util.Collection)}
+	 */
+	@Test
+	@Verifies(value = "should load more items than fit in one query", method = "getItemsByIds(Class, Collection)")
+	public void getItemsByIds_shouldLoadMoreItemsThanFitInOneQuery() throws Exception {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int i = 6000; i > 0; i--) {
+			ids.add(i);
+		}
+		Set<Integer> found = new HashSet<Integer>();
+		for (OpenmrsObject o : service.getItemsByIds(Concept.class, ids)) {
+			found.add(o.getId());
+		}
+		Assert.assertTrue(found.contains(3));
+		Assert.assertTrue(found.contains(5089));
+	}
+	
+}
@@ -0,0 +1,34 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+import org.openmrs.logic.LogicCriteria;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+public class LogicCriteriaCacheTest extends BaseModuleContextSensitiveTest {
+
+	@After
+	public void after() {
+		LogicCriteriaCache.setEnabled(false);
+	}
+
+	@Test
+	public void parse_shouldParseEachExpressionOnceWhenEnabled() throws Exception {
+		LogicCriteriaCache.setEnabled(true);
+		LogicCriteria criteria = LogicCriteriaCache.parse("GENDER = F");
+		assertNotNull(criteria);
+		assertSame(criteria, LogicCriteriaCache.parse("GENDER = F"));
+
+		LogicCriteriaCache.clear();
+		assertNotSame(criteria, LogicCriteriaCache.parse("GENDER = F"));
+	}
+
+	@Test
+	public void parse_shouldParseEveryTimeWhenDisabled() throws Exception {
+		assertNotSame(LogicCriteriaCache.parse("GENDER = F"), LogicCriteriaCache.parse("GENDER = F"));
+	}
+}
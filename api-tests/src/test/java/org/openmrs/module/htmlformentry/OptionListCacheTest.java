@@ -0,0 +1,104 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.htmlformentry.element.PersonStub;
+import org.openmrs.module.htmlformentry.widget.Option;
+
+public class OptionListCacheTest {
+
+	private int loads;
+
+	private OptionListCache.Loader loader = new OptionListCache.Loader() {
+
+		@Override
+		public List<Option> load() {
+			loads++;
+			List<Option> ret = new ArrayList<Option>();
+			ret.add(new Option("Zeta", "3", false));
+			ret.add(new Option("Alpha", "1", false));
+			ret.add(new Option("Mu", "2", false));
+			return ret;
+		}
+	};
+
+	@Before
+	public void before() {
+		OptionListCache.setEnabled(true);
+	}
+
+	@After
+	public void after() {
+		OptionListCache.setEnabled(false);
+	}
+
+	@Test
+	public void get_shouldBuildASortedListOnceAndShareIt() throws Exception {
+		List<Option> first = OptionListCache.get(OptionListCache.LOCATIONS, "test", Locale.ENGLISH, true, loader);
+		List<Option> second = OptionListCache.get(OptionListCache.LOCATIONS, "test", Locale.ENGLISH, true, loader);
+
+		assertSame(first, second);
+		assertEquals(1, loads);
+		assertEquals("Alpha", first.get(0).getLabel());
+		assertEquals("Zeta", first.get(2).getLabel());
+
+		OptionListCache.get(OptionListCache.LOCATIONS, "test", Locale.FRENCH, true, loader);
+		assertEquals(2, loads);
+	}
+
+	@Test
+	public void select_shouldMarkACopyOfTheSelectedOptionOnly() throws Exception {
+		List<Option> shared = OptionListCache.get(OptionListCache.LOCATIONS, "test", Locale.ENGLISH, true, loader);
+		List<Option> selected = OptionListCache.select(shared, "2");
+
+		assertTrue(selected.get(1).isSelected());
+		assertFalse(shared.get(1).isSelected());
+		assertSame(shared.get(0), selected.get(0));
+	}
+
+	@Test
+	public void invalidateIfContains_shouldOnlyDropListsHavingTheValue() throws Exception {
+		OptionListCache.get(OptionListCache.PROVIDERS, "test", Locale.ENGLISH, true, loader);
+
+		OptionListCache.invalidateIfContains(OptionListCache.PROVIDERS, "99");
+		OptionListCache.get(OptionListCache.PROVIDERS, "test", Locale.ENGLISH, true, loader);
+		assertEquals(1, loads);
+
+		OptionListCache.invalidateIfContains(OptionListCache.PROVIDERS, "2");
+		OptionListCache.get(OptionListCache.PROVIDERS, "test", Locale.ENGLISH, true, loader);
+		assertEquals(2, loads);
+	}
+
+	@Test
+	public void getPersonStubs_shouldShareTheListUntilAPersonInItIsSaved() throws Exception {
+		OptionListCache.PersonStubLoader stubLoader = new OptionListCache.PersonStubLoader() {
+
+			@Override
+			public List<PersonStub> load() {
+				loads++;
+				List<PersonStub> ret = new ArrayList<PersonStub>();
+				ret.add(new PersonStub(7));
+				return ret;
+			}
+		};
+		List<PersonStub> first = OptionListCache.getPersonStubs("test", stubLoader);
+		assertSame(first, OptionListCache.getPersonStubs("test", stubLoader));
+
+		OptionListCache.invalidateIfContains(OptionListCache.PROVIDERS, "8");
+		assertSame(first, OptionListCache.getPersonStubs("test", stubLoader));
+
+		OptionListCache.invalidateIfContains(OptionListCache.PROVIDERS, "7");
+		OptionListCache.getPersonStubs("test", stubLoader);
+		assertEquals(2, loads);
+	}
+}
@@ -0,0 +1,48 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.openmrs.module.htmlformentry.PreparedFormCache.PreparedForm;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+public class PreparedFormCacheTest {
+
+	private static final String XML = "<htmlform><div class=\"outer\"><section headerLabel=\"A\"><p>a</p></section>"
+	        + "<section headerLabel=\"B\"><p>b</p><section headerLabel=\"C\"><p>c</p></section></section></div>"
+	        + "<p>after</p></htmlform>";
+
+	@Test
+	public void copySection_shouldCopyTheSectionWithItsAncestorsButNotTheRestOfTheForm() throws Exception {
+		PreparedForm form = new PreparedForm(XML, new Translator());
+		Element section = form.copySection(1);
+		assertEquals("B", section.getAttribute("headerLabel"));
+		assertEquals(2, section.getElementsByTagName("p").getLength());
+
+		Node outer = section.getParentNode();
+		assertEquals("div", outer.getNodeName());
+		assertEquals(1, outer.getChildNodes().getLength());
+		Node root = outer.getParentNode();
+		assertEquals("htmlform", root.getNodeName());
+		assertEquals(1, root.getChildNodes().getLength());
+		assertEquals(root, section.getOwnerDocument().getDocumentElement());
+	}
+
+	@Test
+	public void copySection_shouldReturnNullForAMissingSection() throws Exception {
+		assertNull(new PreparedForm(XML, new Translator()).copySection(3));
+	}
+
+	@Test
+	public void addTranslationsTo_shouldAddTheTranslationsReadFromTheForm() throws Exception {
+		Translator read = new Translator();
+		read.addTranslation("fr", "night_sweats", "sueurs nocturnes");
+		PreparedForm form = new PreparedForm(XML, read);
+
+		Translator translator = new Translator();
+		form.addTranslationsTo(translator);
+		assertEquals("sueurs nocturnes", translator.getTranslations("fr").get("night_sweats"));
+	}
+}
@@ -0,0 +1,32 @@
+package org.openmrs.module.htmlformentry;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TranslatorTest {
+
+	@Test
+	public void translate_shouldPreferTheMostSpecificVariantOfTheLocale() throws Exception {
+		Translator translator = new Translator();
+		translator.addTranslation("en", "code", "Color");
+		translator.addTranslation("en_GB", "code", "Colour");
+		translator.addTranslation("fr", "other", "Autre");
+
+		assertEquals("Colour", translator.translate("en_GB", "code"));
+		assertEquals("Color", translator.translate("en_US", "code"));
+		assertEquals("Color", translator.translate("fr", "code"));
+		assertEquals("Autre", translator.translate("fr_CA", "other"));
+	}
+
+	@Test
+	public void translate_shouldSeeTranslationsAddedAfterALocaleWasLookedUp() throws Exception {
+		Translator translator = new Translator();
+		translator.addTranslation("en", "code", "Color");
+		assertEquals("Color", translator.translate("en_GB", "code"));
+
+		translator.addTranslation("en_GB", "code", "Colour");
+		assertEquals("Colour", translator.translate("en_GB", "code"));
+		assertEquals("Colour", translator.getTranslations("en_GB").get("code"));
+	}
+}
@@ -88,6 +88,26 @@ public class VelocityFunctionsTest extends BaseModuleContextSensitiveTest {
     }
 
 
+    @Test
+    public void latestObs_shouldReturnTheSameObsWhenTheFormReferencesTheConcept() throws Exception {
+
+        HtmlForm htmlform = new HtmlForm();
+        Form form = new Form();
+        form.setEncounterType(new EncounterType(1));
+        htmlform.setForm(form);
+        htmlform.setDateChanged(new Date());
+        htmlform.setXmlData("<htmlform><lookup expression=\"$fn.latestObs(5089)\"/><lookup expression=\"$fn.earliestObs('5497')\"/></htmlform>");
+        VelocityFunctions functions = new VelocityFunctions(new FormEntrySession(new Patient(7), htmlform, null));
+
+        Assert.assertEquals(61, functions.latestObs(5089).getValueNumeric().intValue());
+        Assert.assertEquals(50, functions.earliestObs("5089").getValueNumeric().intValue());
+
+        // changing the returned list must not change what the other functions see
+        List<Obs> allObs = functions.allObs(5089);
+        allObs.clear();
+        Assert.assertEquals(61, functions.latestObs(5089).getValueNumeric().intValue());
+    }
+
     /**
 	 * @see VelocityFunctions@latestEncounter(EncounterType)
 	 * @verifies return the most recent encounter if encounter type is null
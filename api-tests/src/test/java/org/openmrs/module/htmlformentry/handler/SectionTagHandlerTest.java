@@ -26,9 +26,11 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 
 import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -90,6 +92,25 @@ public class SectionTagHandlerTest {
         assertThat(formEntrySession.getContext().getSchema().getSections().get(0).getName(), is(LABEL_TEXT));
     }
 
+    @Test
+    public void testDeferringTheContentsOfALaterTopLevelSection() throws Exception {
+        when(formEntryContext.isDeferSections()).thenReturn(true);
+        when(formEntryContext.isInTopLevelSection()).thenReturn(true);
+        Document document = HtmlFormEntryUtil.stringToDocument("<htmlform><section headerLabel=\"First\"> " + SECTION_CONTENT
+                + " </section><section headerLabel=\"" + LABEL_TEXT + "\"> " + SECTION_CONTENT + " </section></htmlform>");
+        Node sectionNode = document.getElementsByTagName("section").item(1);
+
+        assertFalse(handler.doStartTag(formEntrySession, out, sectionNode.getParentNode(), sectionNode));
+        TestUtil.assertFuzzyEquals(out.getContent(), "<div class=\"section\"> <span class=\"sectionHeader\">" + LABEL_TEXT
+                + "</span> <div class=\"htmlformentry-deferredSection\" data-section-index=\"1\"></div>");
+        verify(formEntryContext).beginFieldNameScope("s1w");
+
+        out.reset();
+        handler.doEndTag(formEntrySession, out, sectionNode.getParentNode(), sectionNode);
+        TestUtil.assertFuzzyEquals(out.getContent(), "</div>");
+        verify(formEntryContext).endFieldNameScope();
+    }
+
     private Node getSectionNode(String xml) throws Exception {
         Document document = HtmlFormEntryUtil.stringToDocument("<htmlform>" + xml + "</htmlform>");
         Node section = HtmlFormEntryUtil.findDescendant(document, "section");
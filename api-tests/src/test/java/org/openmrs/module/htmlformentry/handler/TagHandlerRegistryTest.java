@@ -0,0 +1,63 @@
+package org.openmrs.module.htmlformentry.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TagHandlerRegistryTest {
+
+	@After
+	public void unregisterTestHandlers() {
+		TagHandlerRegistry.unregister("registryTestTag");
+		TagHandlerRegistry.unregister("registryTestReplaced");
+	}
+
+	@Test
+	public void getHandler_shouldFindRegisteredHandlersAndSkipPlainHtml() throws Exception {
+		TagHandler handler = mock(TagHandler.class);
+		TagHandlerRegistry.register("registryTestTag", handler);
+
+		assertSame(handler, TagHandlerRegistry.getHandler("registryTestTag"));
+		assertNull(TagHandlerRegistry.getHandler("registryTestTab"));
+		assertNull(TagHandlerRegistry.getHandler("div"));
+		assertNull(TagHandlerRegistry.getHandler("#text"));
+		assertNull(TagHandlerRegistry.getHandler(""));
+		assertNull(TagHandlerRegistry.getHandler(null));
+	}
+
+	@Test
+	public void registerAll_shouldReplaceHandlersForTheSameTagNames() throws Exception {
+		TagHandler first = mock(TagHandler.class);
+		TagHandler second = mock(TagHandler.class);
+		TagHandlerRegistry.register("registryTestReplaced", first);
+
+		Map<String, TagHandler> handlers = new HashMap<String, TagHandler>();
+		handlers.put("registryTestReplaced", second);
+		TagHandlerRegistry.registerAll(handlers);
+
+		assertSame(second, TagHandlerRegistry.getHandler("registryTestReplaced"));
+		assertEquals(second, TagHandlerRegistry.getHandlers().get("registryTestReplaced"));
+	}
+
+	@Test
+	public void unregister_shouldRemoveTheHandlerForTheTagName() throws Exception {
+		TagHandlerRegistry.register("registryTestTag", mock(TagHandler.class));
+		TagHandlerRegistry.unregister("registryTestTag");
+
+		assertNull(TagHandlerRegistry.getHandler("registryTestTag"));
+		assertFalse(TagHandlerRegistry.getHandlers().containsKey("registryTestTag"));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void getHandlers_shouldNotAllowModification() throws Exception {
+		TagHandlerRegistry.getHandlers().put("registryTestUnmodifiable", mock(TagHandler.class));
+	}
+}
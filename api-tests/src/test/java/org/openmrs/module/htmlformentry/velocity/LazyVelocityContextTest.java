@@ -0,0 +1,83 @@
+package org.openmrs.module.htmlformentry.velocity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.velocity.VelocityContext;
+import org.junit.Test;
+
+public class LazyVelocityContextTest {
+
+	private int computed = 0;
+
+	private int populated = 0;
+
+	@Test
+	public void get_shouldOnlyComputeALazyValueWhenItIsFirstLookedUp() throws Exception {
+		LazyVelocityContext context = new LazyVelocityContext();
+		context.put("plain", "value");
+		context.putLazy("lazy", new LazyVelocityContext.LazyValue() {
+
+			@Override
+			public Object compute() {
+				computed++;
+				return "computed";
+			}
+		});
+
+		assertEquals("value", context.get("plain"));
+		assertEquals(0, computed);
+		assertEquals("computed", context.get("lazy"));
+		assertEquals("computed", context.get("lazy"));
+		assertEquals(1, computed);
+	}
+
+	@Test
+	public void get_shouldRunThePopulatorOnceWhenAMissingVariableIsLookedUp() throws Exception {
+		LazyVelocityContext context = new LazyVelocityContext();
+		context.put("before", "original");
+		context.setPopulator(new LazyVelocityContext.Populator() {
+
+			@Override
+			public void populate(VelocityContext velocityContext) {
+				populated++;
+				velocityContext.put("before", "provided");
+				velocityContext.put("after", "provided");
+				velocityContext.put("extra", "provided");
+			}
+		});
+		context.put("after", "original");
+
+		assertEquals("original", context.get("after"));
+		assertEquals(0, populated);
+
+		assertEquals("provided", context.get("extra"));
+		assertNull(context.get("missing"));
+		assertEquals(1, populated);
+
+		// the populator overrides what was put before it was set, but not what was put after
+		assertEquals("provided", context.get("before"));
+		assertEquals("original", context.get("after"));
+	}
+
+	@Test
+	public void get_shouldRunThePopulatorBeforeLookingUpAVariablePutBeforeItWasSet() throws Exception {
+		LazyVelocityContext context = new LazyVelocityContext();
+		context.put("before", "original");
+		context.put("kept", "original");
+		context.setPopulator(new LazyVelocityContext.Populator() {
+
+			@Override
+			public void populate(VelocityContext velocityContext) {
+				populated++;
+				velocityContext.put("before", "provided");
+			}
+		});
+
+		// looked up first, before any lookup of a missing variable has run the populator
+		assertEquals("provided", context.get("before"));
+		assertEquals(1, populated);
+		assertEquals("original", context.get("kept"));
+		assertEquals(1, populated);
+	}
+}
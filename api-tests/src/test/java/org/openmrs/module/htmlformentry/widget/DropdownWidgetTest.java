@@ -0,0 +1,68 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.OptionListCache;
+
+public class DropdownWidgetTest {
+
+	private FormEntryContext context;
+
+	private List<Option> shared;
+
+	@Before
+	public void setUp() throws Exception {
+		context = mock(FormEntryContext.class);
+		when(context.getMode()).thenReturn(Mode.ENTER);
+		shared = new ArrayList<Option>();
+		for (int i = 1; i <= 5; i++) {
+			shared.add(new Option("Location " + i, String.valueOf(i), false));
+		}
+	}
+
+	@Test
+	public void generateHtml_shouldRenderOptionsFromAFragmentAsIfTheyWereAddedOneByOne() throws Exception {
+		OptionsFragment fragment = new OptionsFragment(shared);
+		List<Option> selected = OptionListCache.select(fragment.getOptions(), "3");
+
+		DropdownWidget expected = new DropdownWidget();
+		expected.addOption(new Option("Choose", "", false));
+		for (Option option : selected) {
+			expected.addOption(option);
+		}
+		DropdownWidget actual = new DropdownWidget();
+		actual.addOption(new Option("Choose", "", false));
+		actual.addOptions(selected, fragment);
+
+		when(context.getFieldName(expected)).thenReturn("w1");
+		when(context.getFieldName(actual)).thenReturn("w1");
+		assertEquals(expected.generateHtml(context), actual.generateHtml(context));
+	}
+
+	@Test
+	public void generateHtml_shouldSelectAFragmentOptionMatchingTheInitialValue() throws Exception {
+		OptionsFragment fragment = new OptionsFragment(shared);
+
+		DropdownWidget expected = new DropdownWidget();
+		for (Option option : fragment.getOptions()) {
+			expected.addOption(option);
+		}
+		expected.setInitialValue("5");
+		DropdownWidget actual = new DropdownWidget();
+		actual.addOptions(fragment.getOptions(), fragment);
+		actual.setInitialValue("5");
+
+		when(context.getFieldName(expected)).thenReturn("w1");
+		when(context.getFieldName(actual)).thenReturn("w1");
+		assertEquals(expected.generateHtml(context), actual.generateHtml(context));
+	}
+}
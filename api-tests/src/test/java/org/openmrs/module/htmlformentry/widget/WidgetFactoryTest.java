@@ -0,0 +1,50 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.module.htmlformentry.FormEntryContext;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+
+public class WidgetFactoryTest {
+
+	private FormEntryContext context;
+
+	@Before
+	public void setUp() throws Exception {
+		context = mock(FormEntryContext.class);
+		when(context.getMode()).thenReturn(Mode.ENTER);
+		when(context.getFieldName(any(Widget.class))).thenReturn("w1");
+	}
+
+	@Test
+	public void appendHtml_shouldAppendTheSameHtmlAsGenerateHtml() throws Exception {
+		RadioButtonsWidget widget = new RadioButtonsWidget();
+		widget.addOption(new Option("Yes", "1", false));
+		widget.addOption(new Option("No", "2", false));
+		widget.setInitialValue("2");
+
+		StringBuilder sb = new StringBuilder("before:");
+		WidgetFactory.appendHtml(widget, context, sb);
+		assertEquals("before:" + widget.generateHtml(context), sb.toString());
+	}
+
+	@Test
+	public void appendHtml_shouldUseTheStringMethodOfASubclassThatOnlyOverridesIt() throws Exception {
+		CheckboxWidget widget = new CheckboxWidget("Label", "true") {
+
+			@Override
+			public String generateHtml(FormEntryContext context) {
+				return "<custom/>";
+			}
+		};
+
+		StringBuilder sb = new StringBuilder();
+		WidgetFactory.appendHtml(widget, context, sb);
+		assertEquals("<custom/>", sb.toString());
+	}
+}
@@ -0,0 +1,179 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.OptionsFragment;
+
+/**
+ * A module-wide cache of the sorted answer lists of {@code <obs>} tags with an {@code answerClasses} attribute.
+ * <p/>
+ * Such a list holds every concept of the given classes, sorted by name in the user's locale, which takes seconds to
+ * build for large classes like Diagnosis. Each list is built once per (classes, locale), with the name of each
+ * concept looked up once rather than in every comparison, and its ids and pre-rendered options are shared by all
+ * sessions. Lists are invalidated by
+ * {@link org.openmrs.module.htmlformentry.advice.OptionListCacheAdvice} when concepts are saved or retired, and
+ * dropped after {@link OptionListCache#MAX_AGE}. Like {@link OptionListCache}, caching is off until the activator
+ * calls {@link #setEnabled(boolean)}.
+ */
+public class ConceptAnswerCache {
+
+	private static final Map<String, Answers> cache = new ConcurrentHashMap<String, Answers>();
+
+	private static volatile boolean enabled = false;
+
+	private static final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * The answers of a list: the ids of the concepts, and dropdown options whose values are those ids and whose
+	 * labels are the names of the concepts, in the same order. Only ids are kept, so that no concept loaded by one
+	 * Hibernate session is handed to another; {@link #loadConcepts()} gets the concepts of the current session.
+	 */
+	public static class Answers {
+
+		private final long generation;
+
+		private final long created = System.currentTimeMillis();
+
+		private final List<Integer> conceptIds;
+
+		private final OptionsFragment options;
+
+		private Answers(long generation, List<Integer> conceptIds, OptionsFragment options) {
+			this.generation = generation;
+			this.conceptIds = Collections.unmodifiableList(conceptIds);
+			this.options = options;
+		}
+
+		/**
+		 * @return the unmodifiable list of concept ids, sorted by concept name
+		 */
+		public List<Integer> getConceptIds() {
+			return conceptIds;
+		}
+
+		/**
+		 * Loads the concepts in the current session, in one query per 1000 concepts. Rendering only needs
+		 * {@link #getConceptIds()} and {@link #getOptions()}, so this is only for callers that need the concepts.
+		 * 
+		 * @return the concepts, sorted by name (concepts purged since the list was built are skipped)
+		 */
+		public List<Concept> loadConcepts() {
+			Map<Integer, Concept> loaded = new HashMap<Integer, Concept>();
+			for (OpenmrsObject o : Context.getService(HtmlFormEntryService.class).getItemsByIds(Concept.class,
+			    conceptIds)) {
+				loaded.put(o.getId(), (Concept) o);
+			}
+			List<Concept> ret = new ArrayList<Concept>(conceptIds.size());
+			for (Integer conceptId : conceptIds) {
+				Concept concept = loaded.get(conceptId);
+				if (concept != null) {
+					ret.add(concept);
+				}
+			}
+			return ret;
+		}
+
+		/**
+		 * @return the options of the concepts, none of which are selected
+		 */
+		public OptionsFragment getOptions() {
+			return options;
+		}
+	}
+
+	/**
+	 * Gets the concepts of the given classes sorted by their best name in the given locale, building the list if it
+	 * is not cached
+	 *
+	 * @param classNames the names of the concept classes
+	 * @param locale
+	 * @return the answers
+	 * @throws IllegalArgumentException if one of the concept classes doesn't exist
+	 */
+	public static Answers getAnswersByClass(List<String> classNames, Locale locale) {
+		String key = classNames + "|" + locale;
+		long current = generation.get();
+		Answers cached = enabled ? cache.get(key) : null;
+		if (cached != null && cached.generation == current
+		        && System.currentTimeMillis() - cached.created < OptionListCache.MAX_AGE) {
+			return cached;
+		}
+
+		List<NamedConcept> named = new ArrayList<NamedConcept>();
+		for (String className : classNames) {
+			ConceptClass cc = Context.getConceptService().getConceptClassByName(className);
+			if (cc == null) {
+				throw new IllegalArgumentException("Cannot find concept class " + className);
+			}
+			for (Concept c : Context.getConceptService().getConceptsByClass(cc)) {
+				named.add(new NamedConcept(c, c.getBestName(locale).getName()));
+			}
+		}
+		Collections.sort(named, new Comparator<NamedConcept>() {
+
+			@Override
+			public int compare(NamedConcept left, NamedConcept right) {
+				return left.name.compareTo(right.name);
+			}
+		});
+
+		List<Integer> conceptIds = new ArrayList<Integer>(named.size());
+		List<Option> options = new ArrayList<Option>(named.size());
+		for (NamedConcept nc : named) {
+			conceptIds.add(nc.concept.getConceptId());
+			options.add(new Option(nc.name, nc.concept.getConceptId().toString(), false));
+		}
+		cached = new Answers(current, conceptIds, new OptionsFragment(options));
+		// if concepts were changed while loading, the list may already be out of date, so don't keep it
+		if (enabled && generation.get() == current) {
+			cache.put(key, cached);
+		}
+		return cached;
+	}
+
+	/**
+	 * Turns caching on or off. When it is off, {@link #getAnswersByClass(List, Locale)} builds a new list every
+	 * time.
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		ConceptAnswerCache.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * Drops all cached lists
+	 */
+	public static void clear() {
+		generation.incrementAndGet();
+		cache.clear();
+	}
+
+	private static class NamedConcept {
+
+		private final Concept concept;
+
+		private final String name;
+
+		private NamedConcept(Concept concept, String name) {
+			this.concept = concept;
+			this.name = name;
+		}
+	}
+}
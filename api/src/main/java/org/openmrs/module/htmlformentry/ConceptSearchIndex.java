@@ -0,0 +1,393 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.Concept;
+import org.openmrs.ConceptClass;
+import org.openmrs.ConceptName;
+import org.openmrs.OpenmrsObject;
+import org.openmrs.api.context.Context;
+
+/**
+ * An in-memory index of the names of a fixed set of concepts, used to answer the autocomplete searches of
+ * {@link org.openmrs.module.htmlformentry.widget.ConceptSearchAutocompleteWidget} without querying the whole
+ * dictionary on every keystroke.
+ * <p/>
+ * Like a concept word search, a name matches a query if every word of the query is the prefix of one of the words of
+ * the name. The words of all names are kept in a sorted array, so that the names having a word starting with a given
+ * prefix are found with a binary search. Indexes are built per (answer concepts or classes, locale), and the
+ * {@link #MAX_INDEXES} most recently used ones are kept. They are cleared by
+ * {@link org.openmrs.module.htmlformentry.advice.OptionListCacheAdvice} when concepts are changed, and dropped after
+ * {@link #MAX_AGE}. Each index is built by one request at a time, so that concurrent searches of the
+ * same concepts wait for it instead of all building it. Indexes are only used once the activator has called
+ * {@link #setEnabled(boolean)}.
+ */
+public class ConceptSearchIndex {
+
+	public static final int MAX_INDEXES = 50;
+
+	/**
+	 * The time in milliseconds after which an index is built again, in case its concepts were changed in a way the
+	 * advice doesn't see
+	 */
+	public static final long MAX_AGE = 10L * 60 * 1000;
+
+	private static final Map<String, ConceptSearchIndex> indexes = new LinkedHashMap<String, ConceptSearchIndex>(16,
+	        0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ConceptSearchIndex> eldest) {
+			return size() > MAX_INDEXES;
+		}
+	};
+
+	private static volatile boolean enabled = false;
+
+	private static final AtomicLong generation = new AtomicLong();
+
+	// a lock per index being built, held while building it
+	private static final ConcurrentHashMap<String, Object> buildLocks = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * A concept matching a search, with the label to show for it
+	 */
+	public static class Match {
+
+		private final Integer conceptId;
+
+		private final String label;
+
+		private Match(Integer conceptId, String label) {
+			this.conceptId = conceptId;
+			this.label = label;
+		}
+
+		public Integer getConceptId() {
+			return conceptId;
+		}
+
+		public String getLabel() {
+			return label;
+		}
+	}
+
+	private final long indexGeneration;
+
+	private final long created = System.currentTimeMillis();
+
+	private final Locale locale;
+
+	// one entry per concept name, sorted by label
+	private final Entry[] entries;
+
+	// the words of all entries, sorted, and the entry each of them belongs to
+	private final String[] words;
+
+	private final int[] wordEntries;
+
+	private ConceptSearchIndex(long indexGeneration, Collection<Concept> concepts, Locale locale) {
+		this.indexGeneration = indexGeneration;
+		this.locale = locale;
+
+		List<Entry> entryList = new ArrayList<Entry>();
+		for (Concept concept : concepts) {
+			if (concept == null || concept.isRetired()) {
+				continue;
+			}
+			ConceptName best = concept.getName(locale);
+			String displayString = best == null ? concept.toString() : best.getName();
+			for (ConceptName name : concept.getNames()) {
+				if (name.isVoided() || name.getLocale() == null
+				        || !name.getLocale().getLanguage().equals(locale.getLanguage())) {
+					continue;
+				}
+				String label = name.isPreferred() || name.getName().equalsIgnoreCase(displayString) ? name.getName()
+				        : displayString;
+				entryList.add(new Entry(concept.getConceptId(), label, splitWords(name.getName(), locale)));
+			}
+		}
+		Collections.sort(entryList, new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry left, Entry right) {
+				return left.label.compareToIgnoreCase(right.label);
+			}
+		});
+		entries = entryList.toArray(new Entry[entryList.size()]);
+
+		final List<String> allWords = new ArrayList<String>();
+		final List<Integer> allWordEntries = new ArrayList<Integer>();
+		for (int i = 0; i < entries.length; i++) {
+			for (String word : entries[i].words) {
+				allWords.add(word);
+				allWordEntries.add(i);
+			}
+		}
+		Integer[] order = new Integer[allWords.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer left, Integer right) {
+				return allWords.get(left).compareTo(allWords.get(right));
+			}
+		});
+		words = new String[order.length];
+		wordEntries = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			words[i] = allWords.get(order[i]);
+			wordEntries[i] = allWordEntries.get(order[i]);
+		}
+	}
+
+	/**
+	 * Gets the index of the given concepts, building it if needed
+	 *
+	 * @param conceptIds the ids of the concepts
+	 * @param locale the locale of the names to index
+	 * @return the index
+	 */
+	public static ConceptSearchIndex getIndexForConcepts(Collection<Integer> conceptIds, Locale locale) {
+		final Set<Integer> sorted = new TreeSet<Integer>(conceptIds);
+		return getIndex("concepts:" + sorted + "|" + locale, locale, new ConceptLoader() {
+
+			@Override
+			public List<Concept> load() {
+				List<Concept> ret = new ArrayList<Concept>();
+				for (OpenmrsObject o : HtmlFormEntryUtil.getService().getItemsByIds(Concept.class, sorted)) {
+					ret.add((Concept) o);
+				}
+				return ret;
+			}
+		});
+	}
+
+	/**
+	 * Gets the index of the concepts of the given classes, building it if needed
+	 *
+	 * @param classNames the names of the concept classes
+	 * @param locale the locale of the names to index
+	 * @return the index
+	 * @throws IllegalArgumentException if one of the concept classes doesn't exist
+	 */
+	public static ConceptSearchIndex getIndexForClasses(Collection<String> classNames, Locale locale) {
+		final Set<String> sorted = new TreeSet<String>(classNames);
+		return getIndex("classes:" + sorted + "|" + locale, locale, new ConceptLoader() {
+
+			@Override
+			public List<Concept> load() {
+				List<Concept> ret = new ArrayList<Concept>();
+				for (String className : sorted) {
+					ConceptClass cc = Context.getConceptService().getConceptClassByName(className);
+					if (cc == null) {
+						throw new IllegalArgumentException("Cannot find concept class " + className);
+					}
+					ret.addAll(Context.getConceptService().getConceptsByClass(cc));
+				}
+				return ret;
+			}
+		});
+	}
+
+	private static ConceptSearchIndex getIndex(String key, Locale locale, ConceptLoader loader) {
+		ConceptSearchIndex index = getCachedIndex(key);
+		if (index != null) {
+			return index;
+		}
+		Object lock = new Object();
+		Object building = buildLocks.putIfAbsent(key, lock);
+		if (building != null) {
+			lock = building;
+		}
+		synchronized (lock) {
+			try {
+				// another request may have built the index while this one was waiting
+				index = getCachedIndex(key);
+				if (index != null) {
+					return index;
+				}
+				long current = generation.get();
+				index = new ConceptSearchIndex(current, loader.load(), locale);
+				// if concepts were changed while loading, the index may already be out of date, so don't keep it
+				synchronized (indexes) {
+					if (enabled && generation.get() == current) {
+						indexes.put(key, index);
+					}
+				}
+				return index;
+			}
+			finally {
+				buildLocks.remove(key, lock);
+			}
+		}
+	}
+
+	/**
+	 * @return the cached index under the given key, or null if there is none or it is out of date
+	 */
+	private static ConceptSearchIndex getCachedIndex(String key) {
+		ConceptSearchIndex index;
+		synchronized (indexes) {
+			index = enabled ? indexes.get(key) : null;
+		}
+		if (index != null && index.indexGeneration == generation.get()
+		        && System.currentTimeMillis() - index.created < MAX_AGE) {
+			return index;
+		}
+		return null;
+	}
+
+	/**
+	 * Finds the concepts having a name that matches the query, ordered by the label of the matching name
+	 *
+	 * @param query the text typed by the user
+	 * @param maxResults the maximum number of concepts to return
+	 * @return the matching concepts, each one only once
+	 */
+	public List<Match> search(String query, int maxResults) {
+		String[] queryWords = splitWords(query, locale);
+		List<Match> ret = new ArrayList<Match>();
+		if (queryWords.length == 0) {
+			return ret;
+		}
+		// look up the longest word, which is likely to match the fewest names, and check the others on each match
+		String longest = queryWords[0];
+		for (String word : queryWords) {
+			if (word.length() > longest.length()) {
+				longest = word;
+			}
+		}
+		BitSet candidates = new BitSet(entries.length);
+		for (int i = lowerBound(longest); i < words.length && words[i].startsWith(longest); i++) {
+			candidates.set(wordEntries[i]);
+		}
+		Set<Integer> found = new HashSet<Integer>();
+		for (int i = candidates.nextSetBit(0); i >= 0 && ret.size() < maxResults; i = candidates.nextSetBit(i + 1)) {
+			Entry entry = entries[i];
+			if (!found.contains(entry.conceptId) && matchesAll(entry.words, queryWords)) {
+				found.add(entry.conceptId);
+				ret.add(new Match(entry.conceptId, entry.label));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the number of concept names in this index
+	 */
+	public int size() {
+		return entries.length;
+	}
+
+	private int lowerBound(String prefix) {
+		int lo = 0;
+		int hi = words.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (words[mid].compareTo(prefix) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static boolean matchesAll(String[] nameWords, String[] queryWords) {
+		for (String queryWord : queryWords) {
+			boolean matched = false;
+			for (String nameWord : nameWords) {
+				if (nameWord.startsWith(queryWord)) {
+					matched = true;
+					break;
+				}
+			}
+			if (!matched) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String[] splitWords(String text, Locale locale) {
+		List<String> ret = new ArrayList<String>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				ret.add(text.substring(start, i).toUpperCase(locale));
+				start = -1;
+			}
+		}
+		return ret.toArray(new String[ret.size()]);
+	}
+
+	/**
+	 * @return whether indexes are cached and should be used by the concept search
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns caching on or off
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		ConceptSearchIndex.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * Drops all cached indexes
+	 */
+	public static void clear() {
+		generation.incrementAndGet();
+		synchronized (indexes) {
+			indexes.clear();
+		}
+	}
+
+	private static class Entry {
+
+		private final Integer conceptId;
+
+		private final String label;
+
+		private final String[] words;
+
+		private Entry(Integer conceptId, String label, String[] words) {
+			this.conceptId = conceptId;
+			this.label = label;
+			this.words = words;
+		}
+	}
+
+	private static abstract class ConceptLoader {
+
+		public abstract List<Concept> load();
+	}
+}
@@ -0,0 +1,164 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.Drug;
+import org.openmrs.api.context.Context;
+
+/**
+ * An in-memory index of all unretired drugs, used by the drug autocomplete so that pharmacy forms don't query the
+ * database on every key press. Like {@code ConceptService.getDrugs} with a phrase, a drug matches a query if its
+ * name contains it, ignoring case.
+ * <p/>
+ * There is one index per locale, holding each drug's name in lower case and its search result, with the names of its
+ * dosage form, route and concept already looked up in that locale. Since it holds every drug, it is only used when
+ * the {@link HtmlFormEntryConstants#GP_DRUG_SEARCH_INDEX} global property is true. Indexes are cleared by
+ * {@link org.openmrs.module.htmlformentry.advice.OptionListCacheAdvice} when drugs (or concepts) are changed, and
+ * dropped after {@link #MAX_AGE}. They are only kept once the activator has called
+ * {@link #setEnabled(boolean)}.
+ */
+public class DrugSearchIndex {
+
+	/**
+	 * The time in milliseconds after which an index is built again, in case drugs were changed in a way the advice
+	 * doesn't see
+	 */
+	public static final long MAX_AGE = 10L * 60 * 1000;
+
+	private static final Map<Locale, DrugSearchIndex> indexes = new ConcurrentHashMap<Locale, DrugSearchIndex>();
+
+	private static volatile boolean enabled = false;
+
+	private static final AtomicLong generation = new AtomicLong();
+
+	private final long indexGeneration;
+
+	private final long created = System.currentTimeMillis();
+
+	private final Locale locale;
+
+	// sorted by name
+	private final String[] names;
+
+	private final List<Map<String, Object>> results;
+
+	private DrugSearchIndex(long indexGeneration, List<Drug> drugs, Locale locale) {
+		this.indexGeneration = indexGeneration;
+		this.locale = locale;
+		List<Drug> sorted = new ArrayList<Drug>(drugs);
+		Collections.sort(sorted, new Comparator<Drug>() {
+
+			@Override
+			public int compare(Drug left, Drug right) {
+				return String.valueOf(left.getName()).compareToIgnoreCase(String.valueOf(right.getName()));
+			}
+		});
+		names = new String[sorted.size()];
+		results = new ArrayList<Map<String, Object>>(sorted.size());
+		for (int i = 0; i < sorted.size(); i++) {
+			Drug drug = sorted.get(i);
+			names[i] = drug.getName() == null ? "" : drug.getName().toLowerCase(locale);
+			results.add(Collections.unmodifiableMap(simplify(drug, locale)));
+		}
+	}
+
+	/**
+	 * Gets the index for the given locale, building it if needed
+	 *
+	 * @param locale the locale to look up the names of dosage forms, routes and concepts in
+	 * @return the index
+	 */
+	public static DrugSearchIndex getIndex(Locale locale) {
+		long current = generation.get();
+		DrugSearchIndex index = enabled ? indexes.get(locale) : null;
+		if (index != null && index.indexGeneration == current
+		        && System.currentTimeMillis() - index.created < MAX_AGE) {
+			return index;
+		}
+		index = new DrugSearchIndex(current, Context.getConceptService().getAllDrugs(false), locale);
+		// if drugs were changed while loading, the index may already be out of date, so don't keep it
+		if (enabled && generation.get() == current) {
+			indexes.put(locale, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the drugs whose name contains the query, ignoring case, ordered by name
+	 *
+	 * @param query
+	 * @param maxResults the maximum number of drugs to return
+	 * @return the search results of the matching drugs, as returned by {@link #simplify(Drug, Locale)}
+	 */
+	public List<Map<String, Object>> search(String query, int maxResults) {
+		String lookFor = query.trim().toLowerCase(locale);
+		List<Map<String, Object>> ret = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < names.length && ret.size() < maxResults; i++) {
+			if (names[i].contains(lookFor)) {
+				ret.add(results.get(i));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * The search result of a drug, as it is returned to the drug autocomplete
+	 *
+	 * @param drug
+	 * @param locale the locale to get the names of the dosage form, route and concept in
+	 * @return the properties of the drug, by name
+	 */
+	public static Map<String, Object> simplify(Drug drug, Locale locale) {
+		Map<String, Object> item = new LinkedHashMap<String, Object>();
+		item.put("id", drug.getId());
+		item.put("name", drug.getName());
+		if (drug.getDosageForm() != null) {
+			item.put("dosageForm", drug.getDosageForm().getName(locale).getName());
+		}
+		if (drug.getRoute() != null) {
+			item.put("route", drug.getRoute().getName(locale).getName());
+		}
+		item.put("doseStrength", drug.getDoseStrength());
+		item.put("units", drug.getUnits());
+		item.put("combination", drug.getCombination());
+		if (drug.getConcept() != null) {
+			item.put("concept", drug.getConcept().getName(locale).getName());
+		}
+		return item;
+	}
+
+	/**
+	 * @return whether indexes are cached
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns caching on or off
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		DrugSearchIndex.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * Drops all cached indexes
+	 */
+	public static void clear() {
+		generation.incrementAndGet();
+		indexes.clear();
+	}
+}
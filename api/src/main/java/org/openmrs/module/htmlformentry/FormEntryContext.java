@@ -25,11 +25,14 @@ import org.openmrs.Location;
 import org.openmrs.Obs;
 import org.openmrs.Order;
 import org.openmrs.Patient;
+import org.openmrs.Person;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.matching.ObsGroupEntity;
 import org.openmrs.module.htmlformentry.schema.HtmlFormSchema;
 import org.openmrs.module.htmlformentry.schema.HtmlFormSection;
 import org.openmrs.module.htmlformentry.schema.ObsGroup;
+import org.openmrs.module.htmlformentry.widget.AutocompleteWidget;
+import org.openmrs.module.htmlformentry.widget.ConceptSearchAutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.ErrorWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
 import org.openmrs.util.LocaleUtility;
@@ -63,6 +66,7 @@ public class FormEntryContext {
     private Mode mode;
     private Map<Widget, String> fieldNames = new HashMap<Widget, String>();
     private Map<Widget, ErrorWidget> errorWidgets = new HashMap<Widget, ErrorWidget>();
+    private Map<Widget, LastSubmissionType> lastSubmissionTypes = new HashMap<Widget, LastSubmissionType>();
     private Map<String, String> javascriptFieldAccessorInfo = new LinkedHashMap<String, String>();
     private Translator translator = new Translator();
     private HtmlFormSchema schema = new HtmlFormSchema();
@@ -114,6 +118,20 @@ public class FormEntryContext {
     
     private Integer sequenceNextVal = 1;
     
+    // prefix of the field names assigned by registerWidget; see beginFieldNameScope
+    private String fieldNamePrefix = "w";
+    
+    private Stack<Object[]> fieldNameScopes = new Stack<Object[]>();
+    
+    // state used by the section tag handler when sections are rendered lazily
+    private boolean deferSections = false;
+    
+    private boolean sectionScopedFieldNames = false;
+    
+    private int sectionDepth = 0;
+    
+    private Set<Integer> scopedSections = new HashSet<Integer>();
+    
     /**
      * Registers a widget within the Context
      *  
@@ -128,13 +146,98 @@ public class FormEntryContext {
             thisVal = sequenceNextVal;
             sequenceNextVal = sequenceNextVal + 1;            
         }
-        String fieldName = "w" + thisVal;
+        String fieldName = fieldNamePrefix + thisVal;
         fieldNames.put(widget, fieldName);
+        lastSubmissionTypes.put(widget, LastSubmissionType.forWidget(widget));
         if (log.isTraceEnabled())
         	log.trace("Registered widget " + widget.getClass() + " as " + fieldName);
         return fieldName;
     }
     
+    /**
+     * Starts naming widgets with the given prefix and their own sequence, until the matching call to
+     * {@link #endFieldNameScope()}. This lets a part of a form (e.g. a section) be rendered on its own and still
+     * get the same field names as when the whole form is rendered.
+     * 
+     * @param prefix the prefix for field names in this scope, e.g. "s3w"
+     */
+    public void beginFieldNameScope(String prefix) {
+        fieldNameScopes.push(new Object[] { fieldNamePrefix, sequenceNextVal });
+        fieldNamePrefix = prefix;
+        sequenceNextVal = 1;
+    }
+    
+    /**
+     * Goes back to the field naming that was in effect before the last call to {@link #beginFieldNameScope(String)}
+     */
+    public void endFieldNameScope() {
+        Object[] previous = fieldNameScopes.pop();
+        fieldNamePrefix = (String) previous[0];
+        sequenceNextVal = (Integer) previous[1];
+    }
+    
+    /**
+     * Called by the section tag handler at the start of every {@code <section>}
+     */
+    public void beginSection() {
+        sectionDepth++;
+    }
+    
+    /**
+     * Called by the section tag handler at the end of every {@code <section>}
+     */
+    public void endSection() {
+        sectionDepth--;
+    }
+    
+    /**
+     * @return true if the section that was begun last is not nested within another section
+     */
+    public boolean isInTopLevelSection() {
+        return sectionDepth == 1;
+    }
+    
+    /**
+     * @return true if the contents of top-level sections after the first should be left out of the generated
+     *         html, to be rendered on demand
+     */
+    public boolean isDeferSections() {
+        return deferSections;
+    }
+    
+    public void setDeferSections(boolean deferSections) {
+        this.deferSections = deferSections;
+    }
+    
+    /**
+     * @return true if widgets within each top-level section are named within their own scope, so that a section
+     *         can be rendered on its own and get the same field names as when the whole form is rendered
+     */
+    public boolean isSectionScopedFieldNames() {
+        return sectionScopedFieldNames;
+    }
+    
+    public void setSectionScopedFieldNames(boolean sectionScopedFieldNames) {
+        this.sectionScopedFieldNames = sectionScopedFieldNames;
+    }
+    
+    /**
+     * Called by the section tag handler for every top-level section after the first whose widgets are named within
+     * its own scope, whether its contents are rendered or deferred
+     * 
+     * @param sectionIndex
+     */
+    public void addScopedSection(int sectionIndex) {
+        scopedSections.add(sectionIndex);
+    }
+    
+    /**
+     * @return the indexes of the top-level sections after the first whose widgets are named within their own scope
+     */
+    public Set<Integer> getScopedSections() {
+        return scopedSections;
+    }
+    
     /**
      * Registers an error widget within the Context
      * 
@@ -721,9 +824,50 @@ public class FormEntryContext {
         VIEW
     }
     
+    /**
+     * Describes how the value of a registered widget is restored when a form is redisplayed after a failed
+     * submission. This is worked out once, when the widget is registered, so that redisplaying a large form does
+     * not need to inspect the class of every widget again.
+     */
+    public enum LastSubmissionType {
+        /** A plain input whose submitted value is set back by name */
+        VALUE,
+        /** An autocomplete over locations, which needs the location name for its display field */
+        LOCATION_AUTOCOMPLETE,
+        /** An autocomplete over persons, which needs the person name for its display field */
+        PERSON_AUTOCOMPLETE,
+        /** An autocomplete over some other type, which is only cleared when no value was submitted */
+        OTHER_AUTOCOMPLETE,
+        /** A concept search autocomplete, which needs the concept name for its display field */
+        CONCEPT_SEARCH;
+
+        public static LastSubmissionType forWidget(Widget widget) {
+            if (widget instanceof AutocompleteWidget) {
+                Class<?> optionClass = ((AutocompleteWidget) widget).getOptionClass();
+                if (optionClass != null && Location.class.isAssignableFrom(optionClass)) {
+                    return LOCATION_AUTOCOMPLETE;
+                } else if (optionClass != null && Person.class.isAssignableFrom(optionClass)) {
+                    return PERSON_AUTOCOMPLETE;
+                } else {
+                    return OTHER_AUTOCOMPLETE;
+                }
+            } else if (widget instanceof ConceptSearchAutocompleteWidget) {
+                return CONCEPT_SEARCH;
+            }
+            return VALUE;
+        }
+    }
+
     public Map<Widget, String> getFieldNames() {
         return fieldNames;
     }
+
+    /**
+     * @return how the value of the given registered widget is restored on redisplay, or null if the widget is not registered
+     */
+    public LastSubmissionType getLastSubmissionType(Widget widget) {
+        return lastSubmissionTypes.get(widget);
+    }
         
     public Map<Concept, List<Obs>> getExistingObs() {
         return existingObs;
@@ -11,6 +11,7 @@ import org.openmrs.Encounter;
 import org.openmrs.Form;
 import org.openmrs.Location;
 import org.openmrs.Obs;
+import org.openmrs.OpenmrsObject;
 import org.openmrs.Order;
 import org.openmrs.Patient;
 import org.openmrs.PatientIdentifier;
@@ -20,22 +21,32 @@ import org.openmrs.PersonAttribute;
 import org.openmrs.Relationship;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.context.Context;
+import org.openmrs.logic.LogicCriteria;
+import org.openmrs.logic.result.Result;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.PreparedFormCache.PreparedForm;
+import org.openmrs.module.htmlformentry.handler.SectionTagHandler;
 import org.openmrs.module.htmlformentry.property.ExitFromCareProperty;
+import org.openmrs.module.htmlformentry.velocity.LazyVelocityContext;
 import org.openmrs.module.htmlformentry.velocity.VelocityContextContentProvider;
-import org.openmrs.module.htmlformentry.widget.AutocompleteWidget;
-import org.openmrs.module.htmlformentry.widget.ConceptSearchAutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.util.StringUtils;
 import org.springframework.web.util.JavaScriptUtils;
+import org.w3c.dom.Element;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
 
@@ -105,9 +116,19 @@ public class FormEntrySession {
     // calling the getter will build this once, then cache it
     private String htmlToDisplay;
 
+    // the form after the transformations done before tags are processed, shared through the PreparedFormCache
+    private PreparedForm preparedForm;
+
+    private Map<Integer, String> renderedSections = new TreeMap<Integer, String>();
+
     private VelocityEngine velocityEngine;
 
-    private VelocityContext velocityContext;
+    private LazyVelocityContext velocityContext;
+
+    // the results of the logic expressions evaluated for logicResultsPatient, by expression
+    private Map<String, Result> logicResults = new HashMap<String, Result>();
+
+    private Patient logicResultsPatient;
 
     private boolean voidEncounter = false;
     
@@ -152,7 +173,7 @@ public class FormEntrySession {
         } catch (Exception e) {
             log.error("Error initializing Velocity engine", e);
         }
-        velocityContext = new VelocityContext();
+        velocityContext = new LazyVelocityContext();
         velocityContext.put("locale", Context.getLocale());
         velocityContext.put("patient", patient);
         velocityContext.put("fn", new VelocityFunctions(this));
@@ -162,67 +183,54 @@ public class FormEntrySession {
         velocityContext.put("formGeneratedDatetime", new Date());
         velocityContext.put("visit", context.getVisit());
 
-        {
-            Map<String, List<String>> identifiers = new HashMap<String, List<String>>();
-            if (patient != null) {
-                for (PatientIdentifier id : patient.getActiveIdentifiers()) {
-                    String idType = id.getIdentifierType().getName();
-                    List<String> list = identifiers.get(idType);
-                    if (list == null) {
-                        list = new ArrayList<String>();
-                        identifiers.put(idType, list);
-                    }
-                    list.add(id.getIdentifier());
-                }
+        // the following are only computed if a velocity expression uses them
+        velocityContext.putLazy("patientIdentifiers", new LazyVelocityContext.LazyValue() {
+
+            @Override
+            public Object compute() {
+                return getPatientIdentifiersByType();
             }
-            velocityContext.put("patientIdentifiers", identifiers);
-        }
+        });
+        velocityContext.putLazy("personAttributes", new LazyVelocityContext.LazyValue() {
 
-        {
-            Map<String, Object> attributes = new HashMap<String, Object>();
-            if (patient != null) {
-                for (PersonAttribute att : patient.getActiveAttributes()) {
-                    String attName = att.getAttributeType().getName();
-                    if (att.getValue() != null) {
-                        attributes.put(attName.replaceAll("'", ""), att.getHydratedObject());
-                    }
-                }
+            @Override
+            public Object compute() {
+                return getPersonAttributesByName();
             }
-            velocityContext.put("personAttributes", attributes);
-        }
+        });
 
         // the relationship query only makes sense in the context of saved patients, so only call it if this patient
         // has already been persisted (i.e., assigned an id and uuid)
         if (patient != null && patient.getId() != null && patient.getUuid() != null
                 && !("testing-html-form-entry".equals(patient.getUuid()))) {
-            List<Relationship> rels = Context.getPersonService().getRelationshipsByPerson(patient);
-            // TODO put this is core in relationship service
-            Map<String, List<Person>> relMap = new HashMap<String, List<Person>>();
-            for (Relationship rel : rels) {
-                if (rel.getPersonA().getPersonId().equals(patient.getPersonId())) {
-                    List<Person> list = relMap.get(rel.getRelationshipType().getbIsToA());
-                    if (list == null) {
-                        list = new ArrayList<Person>();
-                        relMap.put(rel.getRelationshipType().getbIsToA(), list);
-                    }
-                    list.add(rel.getPersonB());
-                } else {
-                    List<Person> list = relMap.get(rel.getRelationshipType().getaIsToB());
-                    if (list == null) {
-                        list = new ArrayList<Person>();
-                        relMap.put(rel.getRelationshipType().getaIsToB(), list);
-                    }
-                    list.add(rel.getPersonA());
+            velocityContext.putLazy("relationshipList", new LazyVelocityContext.LazyValue() {
+
+                @Override
+                public Object compute() {
+                    return Context.getPersonService().getRelationshipsByPerson(FormEntrySession.this.patient);
                 }
-            }
-            velocityContext.put("relationshipList", rels);
-            velocityContext.put("relationshipMap", relMap);
+            });
+            velocityContext.putLazy("relationshipMap", new LazyVelocityContext.LazyValue() {
+
+                @SuppressWarnings("unchecked")
+                @Override
+                public Object compute() {
+                    return getRelationshipMap((List<Relationship>) velocityContext.get("relationshipList"));
+                }
+            });
         }
 
-		// finally allow modules to provide content to the velocity context
-		for (VelocityContextContentProvider provider : Context.getRegisteredComponents(VelocityContextContentProvider.class)) {
-			provider.populateContext(this, velocityContext);
-		}
+		// finally allow modules to provide content to the velocity context, when a velocity expression first needs it
+		velocityContext.setPopulator(new LazyVelocityContext.Populator() {
+
+			@Override
+			public void populate(VelocityContext velocityContext) {
+				for (VelocityContextContentProvider provider : Context
+				        .getRegisteredComponents(VelocityContextContentProvider.class)) {
+					provider.populateContext(FormEntrySession.this, velocityContext);
+				}
+			}
+		});
 
         htmlGenerator = new HtmlFormEntryGenerator();
     }
@@ -360,6 +368,70 @@ public class FormEntrySession {
     }
 
 
+    /**
+     * @return the patient's active identifiers, by identifier type name
+     */
+    private Map<String, List<String>> getPatientIdentifiersByType() {
+        Map<String, List<String>> identifiers = new HashMap<String, List<String>>();
+        if (patient != null) {
+            for (PatientIdentifier id : patient.getActiveIdentifiers()) {
+                String idType = id.getIdentifierType().getName();
+                List<String> list = identifiers.get(idType);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                    identifiers.put(idType, list);
+                }
+                list.add(id.getIdentifier());
+            }
+        }
+        return identifiers;
+    }
+
+    /**
+     * @return the hydrated values of the patient's active attributes, by attribute type name
+     */
+    private Map<String, Object> getPersonAttributesByName() {
+        Map<String, Object> attributes = new HashMap<String, Object>();
+        if (patient != null) {
+            for (PersonAttribute att : patient.getActiveAttributes()) {
+                String attName = att.getAttributeType().getName();
+                if (att.getValue() != null) {
+                    attributes.put(attName.replaceAll("'", ""), att.getHydratedObject());
+                }
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * @return the people the patient is related to, by the name of their side of the relationship
+     */
+    private Map<String, List<Person>> getRelationshipMap(List<Relationship> rels) {
+        // TODO put this is core in relationship service
+        Map<String, List<Person>> relMap = new HashMap<String, List<Person>>();
+        if (rels == null) {
+            return relMap;
+        }
+        for (Relationship rel : rels) {
+            if (rel.getPersonA().getPersonId().equals(patient.getPersonId())) {
+                List<Person> list = relMap.get(rel.getRelationshipType().getbIsToA());
+                if (list == null) {
+                    list = new ArrayList<Person>();
+                    relMap.put(rel.getRelationshipType().getbIsToA(), list);
+                }
+                list.add(rel.getPersonB());
+            } else {
+                List<Person> list = relMap.get(rel.getRelationshipType().getaIsToB());
+                if (list == null) {
+                    list = new ArrayList<Person>();
+                    relMap.put(rel.getRelationshipType().getaIsToB(), list);
+                }
+                list.add(rel.getPersonA());
+            }
+        }
+        return relMap;
+    }
+
     /**
      * Evaluates a velocity expression and returns the result as a string
      *
@@ -383,6 +455,40 @@ public class FormEntrySession {
         }
     }
 
+    /**
+     * Evaluates a logic expression for the patient of this session. Each expression is only parsed and evaluated
+     * once per session and patient, however many tags test it.
+     *
+     * @param expression
+     * @return the result
+     */
+    public Result evaluateLogicExpression(String expression) {
+        return evaluateLogicExpression(expression, null);
+    }
+
+    /**
+     * Like {@link #evaluateLogicExpression(String)}, for callers that have already parsed the expression
+     *
+     * @param expression
+     * @param criteria the parsed expression, or null to parse it if needed
+     * @return the result
+     */
+    public Result evaluateLogicExpression(String expression, LogicCriteria criteria) {
+        if (logicResultsPatient != patient) {
+            logicResults.clear();
+            logicResultsPatient = patient;
+        }
+        Result result = logicResults.get(expression);
+        if (result == null) {
+            if (criteria == null) {
+                criteria = LogicCriteriaCache.parse(expression);
+            }
+            result = Context.getLogicService().eval(patient, criteria);
+            logicResults.put(expression, result);
+        }
+        return result;
+    }
+
     /**
      * Creates the HTML for a HTML Form given the xml for the form This method uses the
      * HtmlFormGenerator to process any HTML Form Entry-specific tags and returns pure HTML that can
@@ -401,12 +507,14 @@ public class FormEntrySession {
             context.getSchema().setName(htmlForm.getName());
             context.setUnmatchedMode(false);
         }
-        xml = htmlGenerator.stripComments(xml);
-        xml = htmlGenerator.convertSpecialCharactersWithinLogicAndVelocityTests(xml);
-        xml = htmlGenerator.applyRoleRestrictions(xml);
-        xml = htmlGenerator.applyMacros(xml);
-        xml = htmlGenerator.applyRepeats(xml);
-        xml = htmlGenerator.applyTranslations(xml, context);
+        if (xml != null && xml.equals(xmlDefinition)) {
+            xml = getPreparedForm().getXml();
+        } else {
+            Translator translator = new Translator();
+            preparedForm = new PreparedForm(prepareXml(xml, translator), translator);
+            preparedForm.addTranslationsTo(context.getTranslator());
+            xml = preparedForm.getXml();
+        }
         xml = htmlGenerator.applyTags(this, xml);
 
         if (context.hasUnmatchedObsGroupEntities() && (context.getMode() == Mode.EDIT || context.getMode() == Mode.VIEW)) {
@@ -420,6 +528,145 @@ public class FormEntrySession {
         return xml;
     }
 
+    /**
+     * Applies the text-level transformations (comments, role restrictions, macros, repeats and translations) that
+     * have to be done before tags are processed
+     */
+    private String prepareXml(String xml, Translator translator) throws Exception {
+        xml = htmlGenerator.stripComments(xml);
+        xml = htmlGenerator.convertSpecialCharactersWithinLogicAndVelocityTests(xml);
+        xml = htmlGenerator.applyRoleRestrictions(xml);
+        xml = htmlGenerator.applyMacros(xml);
+        xml = htmlGenerator.applyRepeats(xml);
+        xml = htmlGenerator.applyTranslations(xml, translator);
+        return xml;
+    }
+
+    /**
+     * Gets this session's form prepared for its tags to be processed, from the {@link PreparedFormCache} when the
+     * form is saved, and adds the translations it defines to this session's translator
+     */
+    private PreparedForm getPreparedForm() throws Exception {
+        if (preparedForm == null) {
+            String key = PreparedFormCache.getKey(htmlForm, formModifiedTimestamp, Context.getAuthenticatedUser());
+            PreparedForm prepared = key == null ? null : PreparedFormCache.get(key);
+            if (prepared == null) {
+                Translator translator = new Translator();
+                prepared = new PreparedForm(prepareXml(xmlDefinition, translator), translator);
+                if (key != null) {
+                    PreparedFormCache.put(key, prepared);
+                }
+            }
+            prepared.addTranslationsTo(context.getTranslator());
+            preparedForm = prepared;
+        }
+        return preparedForm;
+    }
+
+    /**
+     * Sets whether the contents of top-level sections after the first are left out of the html to display, and
+     * rendered on demand with {@link #renderSection(int)}. This only applies when entering a new form, since
+     * matching existing obs when editing or viewing depends on the whole form being processed in order. Must be
+     * called before the html is generated.
+     *
+     * @param lazySections
+     */
+    public void setLazySections(boolean lazySections) {
+        boolean defer = lazySections && context.getMode() == Mode.ENTER;
+        context.setDeferSections(defer);
+        context.setSectionScopedFieldNames(defer);
+    }
+
+    /**
+     * @return true if the contents of some sections are left out of the html to display
+     * @see #setLazySections(boolean)
+     */
+    public boolean isLazySections() {
+        return context.isDeferSections();
+    }
+
+    /**
+     * Sets whether widgets in top-level sections are named within the scope of their section. This must be set
+     * when processing the submission of a form that was displayed with lazy sections, so that the field names
+     * match. Must be called before the html is generated.
+     *
+     * @param sectionScopedFieldNames
+     */
+    public void setSectionScopedFieldNames(boolean sectionScopedFieldNames) {
+        context.setSectionScopedFieldNames(sectionScopedFieldNames);
+    }
+
+    /**
+     * Renders the contents of a section that was deferred when the html to display was generated, followed by a
+     * script that registers the accessors of its fields. Rendering a section also registers its widgets and sets
+     * up its submission actions, as for the rest of the form. The result is cached, so a section is only rendered
+     * once per session.
+     * <p/>
+     * Only the section is processed: the rest of the form doesn't have to be generated first, and the section is
+     * copied out of the form prepared by the {@link PreparedFormCache}, so that a session rebuilt to render one
+     * section neither prepares nor parses the whole form again.
+     *
+     * @param sectionIndex the index of the section, as given in the data-section-index attribute of its
+     *            placeholder
+     * @return the html to put in place of the section's placeholder
+     * @throws Exception
+     */
+    public synchronized String renderSection(int sectionIndex) throws Exception {
+        String ret = renderedSections.get(sectionIndex);
+        if (ret != null) {
+            return ret;
+        }
+        if (!context.isDeferSections() || sectionIndex <= 0) {
+            throw new IllegalStateException("Section " + sectionIndex + " was not deferred");
+        }
+        Element section = getPreparedForm().copySection(sectionIndex);
+        if (section == null) {
+            throw new IllegalArgumentException("The form has no section with index " + sectionIndex);
+        }
+        Map<String, String> accessorsBefore = new HashMap<String, String>(context.getJavascriptFieldAccessorInfo());
+        StringBuilder sb = new StringBuilder(htmlGenerator.applyTagsToSection(this, section, sectionIndex));
+        sb.append("<script type=\"text/javascript\">\n");
+        for (Map.Entry<String, String> e : context.getJavascriptFieldAccessorInfo().entrySet()) {
+            if (!e.getValue().equals(accessorsBefore.get(e.getKey()))) {
+                sb.append("propertyAccessorInfo['" + e.getKey() + "'] = " + e.getValue() + "\n");
+            }
+        }
+        sb.append("</script>");
+        ret = sb.toString();
+        renderedSections.put(sectionIndex, ret);
+        return ret;
+    }
+
+    /**
+     * @return the indexes of the deferred sections that have been rendered so far
+     */
+    public synchronized Set<Integer> getRenderedSections() {
+        return new TreeSet<Integer>(renderedSections.keySet());
+    }
+
+    /**
+     * With section-scoped field names, every top-level section after the first submits its index (see
+     * {@link SectionTagHandler#RENDERED_SECTION_PARAMETER}). A section that was deferred and never arrived on the
+     * page submits nothing, and its fields must not be taken as having been left blank.
+     *
+     * @param submission
+     * @return the indexes of the sections with section-scoped field names that are missing from the submission
+     */
+    public Set<Integer> getMissingSections(HttpServletRequest submission) {
+        Set<Integer> missing = new TreeSet<Integer>(context.getScopedSections());
+        String[] rendered = submission.getParameterValues(SectionTagHandler.RENDERED_SECTION_PARAMETER);
+        if (rendered != null) {
+            for (String sectionIndex : rendered) {
+                try {
+                    missing.remove(Integer.valueOf(sectionIndex.trim()));
+                } catch (NumberFormatException ex) {
+                    // not one of ours
+                }
+            }
+        }
+        return missing;
+    }
+
     /**
      * If the html form contains both PatientTags and Encounter tags then initialize it with the
      * Patient and Encounter associated with the Form else if htmlform only contains PatientTags
@@ -772,111 +1019,193 @@ public class FormEntrySession {
      * validation errors
      */
     public String getSetLastSubmissionFieldsJavascript() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeSetLastSubmissionFieldsJavascript(writer);
+        } catch (IOException ex) {
+            // cannot happen when writing to a StringWriter
+            throw new IllegalStateException(ex);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Like {@link #getSetLastSubmissionFieldsJavascript()}, but streams the javascript to the given writer.
+     * Any locations, persons and concepts whose names are needed to fill in autocomplete display fields
+     * are loaded with one query per type for those submitted by id, and one per type for those submitted by
+     * uuid, rather than one query per widget.
+     *
+     * @param out the writer to stream the javascript to
+     * @throws IOException if the writer fails
+     */
+    public void writeSetLastSubmissionFieldsJavascript(Writer out) throws IOException {
         HttpServletRequest lastSubmission = submissionController.getLastSubmission();
         if (lastSubmission == null) {
-            return "";
-        } else {
-            StringBuilder sb = new StringBuilder();
-
-            // iterate through all the widgets and set their values based on the values in the last submission
-            // if there is no value in the last submission, explicitly set the value as empty to override any default values
-            for (Map.Entry<Widget, String> entry : context.getFieldNames().entrySet()) {
-                Widget widgetType = entry.getKey();
-                String widgetFieldName = entry.getValue();
-                String val = lastSubmission.getParameter(widgetFieldName);
+            return;
+        }
 
-                // note that for each widget we set, we also trigger the change event on that widget
-                // this is so any custom change handlers that a widget or tag may configure are called
-                // when we set a value here; this is specifically used to make sure we trigger the change
-                // handlers configured by the <exitFromCare> tag
+        // first pass: collect the ids and uuids of everything we need to display, so they can be loaded in bulk
+        Map<FormEntryContext.LastSubmissionType, Set<Integer>> idsToLoad = new HashMap<FormEntryContext.LastSubmissionType, Set<Integer>>();
+        Map<FormEntryContext.LastSubmissionType, Set<String>> uuidsToLoad = new HashMap<FormEntryContext.LastSubmissionType, Set<String>>();
+        for (Map.Entry<Widget, String> entry : context.getFieldNames().entrySet()) {
+            FormEntryContext.LastSubmissionType type = context.getLastSubmissionType(entry.getKey());
+            if (getLastSubmissionLoadClass(type) == null) {
+                continue;
+            }
+            String val = getLastSubmissionAutocompleteValue(lastSubmission, entry.getValue(), type);
+            if (val == null) {
+                continue;
+            }
+            Integer id = parseId(val);
+            if (id != null) {
+                Set<Integer> ids = idsToLoad.get(type);
+                if (ids == null) {
+                    ids = new HashSet<Integer>();
+                    idsToLoad.put(type, ids);
+                }
+                ids.add(id);
+            } else {
+                Set<String> uuids = uuidsToLoad.get(type);
+                if (uuids == null) {
+                    uuids = new HashSet<String>();
+                    uuidsToLoad.put(type, uuids);
+                }
+                uuids.add(val);
+            }
+        }
+        // the loaded items of each type, by both id and uuid, as they may have been submitted either way
+        Map<FormEntryContext.LastSubmissionType, Map<String, OpenmrsObject>> loaded = new HashMap<FormEntryContext.LastSubmissionType, Map<String, OpenmrsObject>>();
+        for (Map.Entry<FormEntryContext.LastSubmissionType, Set<Integer>> e : idsToLoad.entrySet()) {
+            addLoadedItems(loaded, e.getKey(), HtmlFormEntryUtil.getService().getItemsByIds(
+                    getLastSubmissionLoadClass(e.getKey()), e.getValue()));
+        }
+        for (Map.Entry<FormEntryContext.LastSubmissionType, Set<String>> e : uuidsToLoad.entrySet()) {
+            addLoadedItems(loaded, e.getKey(), HtmlFormEntryUtil.getService().getItemsByUuids(
+                    getLastSubmissionLoadClass(e.getKey()), e.getValue()));
+        }
 
+        // second pass: iterate through all the widgets and set their values based on the values in the last submission
+        // if there is no value in the last submission, explicitly set the value as empty to override any default values
+        for (Map.Entry<Widget, String> entry : context.getFieldNames().entrySet()) {
+            String widgetFieldName = entry.getValue();
+            String val = lastSubmission.getParameter(widgetFieldName);
+            FormEntryContext.LastSubmissionType type = context.getLastSubmissionType(entry.getKey());
+
+            // note that for each widget we set, we also trigger the change event on that widget
+            // this is so any custom change handlers that a widget or tag may configure are called
+            // when we set a value here; this is specifically used to make sure we trigger the change
+            // handlers configured by the <exitFromCare> tag
+
+            if (type == FormEntryContext.LastSubmissionType.VALUE) {
+                out.write("setValueByName('");
+                out.write(widgetFieldName);
+                out.write("', '");
                 if (val != null) {
-                    // special case to set the display field when autocomplete is used
-                    if (AutocompleteWidget.class.isAssignableFrom(widgetType.getClass())) {
-                        Class widgetClass = ((AutocompleteWidget) widgetType).getOptionClass();
-
-                        if (widgetClass != null) {
-
-                            Object returnedObj = HtmlFormEntryUtil.convertToType(val.trim(), widgetClass);
-
-                            if (widgetClass.getSimpleName().equals("Location")) {
-                                Location location = null;
-                                if (returnedObj != null) {
-                                    location = (Location) returnedObj;
-                                } else {
-                                    //This should typically never happen,why is there no location with this id, we
-                                    //should set val(locationId) to blank so that the hidden form field is blank too
-                                    val = "";
-                                }
-
-                                sb.append("$j('#" + widgetFieldName + "').val(\""
-                                        + (location == null ? "" : JavaScriptUtils.javaScriptEscape(location.getName())) + "\");\n");
-                                sb.append("$j('#" + widgetFieldName + "_hid" + "').val(\""
-                                        + (location == null ? "" : JavaScriptUtils.javaScriptEscape(location.getId().toString())) + "\");\n");
-                                sb.append("$j('#" + widgetFieldName + "').change();\n");
-
-                            } else if (widgetClass.getSimpleName().equals("Person")) {
-                                Person provider = null;
-                                if (returnedObj != null) {
-                                    provider = (Person) returnedObj;
-                                } else {
-                                    //This should typically never happen,why is there no provider with this id, we
-                                    //should set val(providerid) to blank so that the hidden form field is blank too
-                                    val = "";
-                                }
-                                sb.append("$j('#" + widgetFieldName + "').val(\""
-                                        + (provider == null ? "" : JavaScriptUtils.javaScriptEscape(provider.getPersonName().getFullName())) + "\");\n");
-                                sb.append("$j('#" + widgetFieldName + "_hid" + "').val(\""
-                                        + (provider == null ? "" : JavaScriptUtils.javaScriptEscape(provider.getId().toString())) + "\");\n");
-                                sb.append("$j('#" + widgetFieldName + "').change();\n");
-                            }
-                        }
-                    }
-
-                    // special case to set the display field of the obs value widget when autocomplete is used with <obs> tag
-                    else if (ConceptSearchAutocompleteWidget.class.isAssignableFrom(entry.getKey().getClass())) {
-
-                        String conveptVal = lastSubmission.getParameter(widgetFieldName + "_hid");
-                        Object returnedObj = HtmlFormEntryUtil.convertToType(conveptVal.trim(), Concept.class);
-                        Concept concept = null;
-                        if (returnedObj != null) {
-                            concept = (Concept) returnedObj;
-                        } else {
-                            //This should typically never happen,why if there no obs with this id, we
-                            //should set val(obsId) to blank so that the hidden form field is blank too
-                            val = "";
-                        }
-                        sb.append("$j('#" + widgetFieldName + "').val(\""
-                                + (concept == null ? "" : JavaScriptUtils.javaScriptEscape(concept.getDisplayString())) + "\");\n");
-                        sb.append("$j('#" + widgetFieldName + "_hid" + "').val(\"" + (concept == null ? "" : JavaScriptUtils.javaScriptEscape(concept.getId().toString())) + "\");\n");
-                        sb.append("$j('#" + widgetFieldName + "').change();\n");
-                    } else {
-                        // set the value of the widget based on it's name
-                        sb.append("setValueByName('" + widgetFieldName + "', '" + JavaScriptUtils.javaScriptEscape(val)
-                                + "');\n");
-                        sb.append("$j('#" + widgetFieldName + "').change();\n");
-                    }
-
-
+                    out.write(JavaScriptUtils.javaScriptEscape(val));
+                }
+                out.write("');\n");
+                writeTriggerChange(out, widgetFieldName);
+            } else if (val == null) {
+                writeSetAutocompleteValue(out, widgetFieldName, "", "");
+            } else if (type != FormEntryContext.LastSubmissionType.OTHER_AUTOCOMPLETE) {
+                // special case to set the display field when autocomplete is used
+                Map<String, OpenmrsObject> byKey = loaded.get(type);
+                String key = getLastSubmissionAutocompleteValue(lastSubmission, widgetFieldName, type);
+                OpenmrsObject item = (byKey == null || key == null) ? null : byKey.get(key);
+                if (item == null) {
+                    //This should typically never happen, why is there no item with this id, we
+                    //should set the hidden form field to blank too
+                    writeSetAutocompleteValue(out, widgetFieldName, "", "");
                 } else {
-                    if (AutocompleteWidget.class.isAssignableFrom(widgetType.getClass())) {
-                        sb.append("$j('#" + widgetFieldName + "').val('');\n");
-                        sb.append("$j('#" + widgetFieldName + "_hid" + "').val('');\n");
-                        sb.append("$j('#" + widgetFieldName + "').change();\n");
-                    } else if (ConceptSearchAutocompleteWidget.class.isAssignableFrom(widgetType.getClass())) {
-                        sb.append("$j('#" + widgetFieldName + "').val('');\n");
-                        sb.append("$j('#" + widgetFieldName + "_hid" + "').val('');\n");
-                        sb.append("$j('#" + widgetFieldName + "').change();\n");
+                    String display;
+                    if (item instanceof Location) {
+                        display = ((Location) item).getName();
+                    } else if (item instanceof Person) {
+                        display = ((Person) item).getPersonName().getFullName();
                     } else {
-                        sb.append("setValueByName('" + widgetFieldName + "', '');\n");
-                        sb.append("$j('#" + widgetFieldName + "').change();\n");
+                        display = ((Concept) item).getDisplayString();
                     }
+                    writeSetAutocompleteValue(out, widgetFieldName, JavaScriptUtils.javaScriptEscape(display),
+                            JavaScriptUtils.javaScriptEscape(item.getId().toString()));
                 }
             }
-            return sb.toString();
         }
     }
 
+    /**
+     * @return the type of object that must be loaded to display the last submitted value of a widget, or null if none
+     */
+    private Class<? extends OpenmrsObject> getLastSubmissionLoadClass(FormEntryContext.LastSubmissionType type) {
+        switch (type) {
+            case LOCATION_AUTOCOMPLETE:
+                return Location.class;
+            case PERSON_AUTOCOMPLETE:
+                return Person.class;
+            case CONCEPT_SEARCH:
+                return Concept.class;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the (trimmed) id or uuid submitted for an autocomplete widget, or null if there was none
+     */
+    private String getLastSubmissionAutocompleteValue(HttpServletRequest lastSubmission, String widgetFieldName,
+                                                      FormEntryContext.LastSubmissionType type) {
+        // the concept search widget submits its concept id in a separate hidden field
+        String val = lastSubmission.getParameter(type == FormEntryContext.LastSubmissionType.CONCEPT_SEARCH ?
+                widgetFieldName + "_hid" : widgetFieldName);
+        if (val == null || !StringUtils.hasText(val)) {
+            return null;
+        }
+        return val.trim();
+    }
+
+    /**
+     * @return the value as an id, or null if it is not numeric (in which case it is a uuid)
+     */
+    private Integer parseId(String val) {
+        try {
+            return Integer.valueOf(val);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private void addLoadedItems(Map<FormEntryContext.LastSubmissionType, Map<String, OpenmrsObject>> loaded,
+                                FormEntryContext.LastSubmissionType type, List<OpenmrsObject> items) {
+        Map<String, OpenmrsObject> byKey = loaded.get(type);
+        if (byKey == null) {
+            byKey = new HashMap<String, OpenmrsObject>();
+            loaded.put(type, byKey);
+        }
+        for (OpenmrsObject item : items) {
+            byKey.put(item.getId().toString(), item);
+            byKey.put(item.getUuid(), item);
+        }
+    }
+
+    private void writeSetAutocompleteValue(Writer out, String widgetFieldName, String display, String hiddenValue)
+            throws IOException {
+        out.write("$j('#");
+        out.write(widgetFieldName);
+        out.write("').val(\"");
+        out.write(display);
+        out.write("\");\n$j('#");
+        out.write(widgetFieldName);
+        out.write("_hid').val(\"");
+        out.write(hiddenValue);
+        out.write("\");\n");
+        writeTriggerChange(out, widgetFieldName);
+    }
+
+    private void writeTriggerChange(Writer out, String widgetFieldName) throws IOException {
+        out.write("$j('#");
+        out.write(widgetFieldName);
+        out.write("').change();\n");
+    }
+
     /**
      * Returns a fragment of javascript that will display any error widgets that had errors on the
      * last submission.
@@ -940,6 +1269,13 @@ public class FormEntrySession {
         return htmlForm == null ? null : htmlForm.getId();
     }
 
+    /**
+     * Returns the xml definition of the form associated with the session
+     */
+    public String getXmlDefinition() {
+        return xmlDefinition;
+    }
+
     /**
      * Returns the return Url associated with the session
      */
@@ -0,0 +1,260 @@
+package org.openmrs.module.htmlformentry;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.servlet.http.HttpSession;
+
+import org.openmrs.Encounter;
+import org.openmrs.Obs;
+import org.openmrs.Patient;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
+import org.openmrs.module.htmlformentry.widget.Widget;
+import org.openmrs.util.OpenmrsUtil;
+
+/**
+ * A compact, serializable snapshot of a {@link FormEntrySession}.
+ * <p/>
+ * A FormEntrySession holds Hibernate entities, a Velocity context, DOM nodes and widgets, so keeping one around
+ * for every user with a form open pins a large object graph to a single JVM. This class only holds the ids needed
+ * to rebuild an equivalent session (see {@link #restoreSection(HttpSession, int)}), together with the widget
+ * registry and the ids of the existing obs that were matched by the form, so that the session built from a
+ * submission can be checked against the one that was originally displayed (see {@link #matches(FormEntrySession)}).
+ * <p/>
+ * Snapshots are held in the {@link FormEntrySessionStore} of the node that displayed the form, and are not
+ * replicated. A submission is processed by a session built from the ids posted by the page, so it can be handled
+ * by any node; a node that has no snapshot of the form (because another node displayed it, or because the
+ * snapshot was dropped) cannot check the submission against it, which the store counts as a missing snapshot.
+ */
+public class FormEntrySessionState implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private Integer htmlFormId;
+
+	private long formModifiedTimestamp;
+
+	// only set when the session was not created from a saved HtmlForm (e.g. when previewing)
+	private String xmlDefinition;
+
+	private Integer patientId;
+
+	private Integer encounterId;
+
+	private long encounterModifiedTimestamp;
+
+	private Mode mode;
+
+	private String returnUrl;
+
+	private String hasChangedInd;
+
+	private boolean automaticClientSideValidation;
+
+	private boolean clientSideValidationHints;
+
+	private TreeMap<String, String> widgetRegistry;
+
+	private HashSet<Integer> matchedObsIds;
+
+	private boolean lazySections;
+
+	private boolean sectionScopedFieldNames;
+
+	private TreeSet<Integer> renderedSections;
+
+	/**
+	 * Takes a snapshot of the given session. The session's html must already have been generated, so that its
+	 * widgets are registered.
+	 *
+	 * @param session the session to take a snapshot of
+	 */
+	public FormEntrySessionState(FormEntrySession session) {
+		FormEntryContext context = session.getContext();
+		this.htmlFormId = session.getHtmlFormId();
+		this.formModifiedTimestamp = session.getFormModifiedTimestamp();
+		if (htmlFormId == null) {
+			this.xmlDefinition = session.getXmlDefinition();
+		}
+		if (session.getPatient() != null) {
+			this.patientId = session.getPatient().getPatientId();
+		}
+		if (session.getEncounter() != null) {
+			this.encounterId = session.getEncounter().getEncounterId();
+			this.encounterModifiedTimestamp = session.getEncounterModifiedTimestamp();
+		}
+		this.mode = context.getMode();
+		this.returnUrl = session.getReturnUrl();
+		this.hasChangedInd = session.getHasChangedInd();
+		this.automaticClientSideValidation = context.isAutomaticClientSideValidation();
+		this.clientSideValidationHints = context.isClientSideValidationHints();
+		this.lazySections = session.isLazySections();
+		this.sectionScopedFieldNames = context.isSectionScopedFieldNames();
+		this.renderedSections = new TreeSet<Integer>(session.getRenderedSections());
+		this.widgetRegistry = getWidgetRegistry(context);
+		this.matchedObsIds = getMatchedObsIds(context, session.getEncounter());
+	}
+
+	/**
+	 * Rebuilds a FormEntrySession from this snapshot, reloading the form, patient and encounter by id, to render one
+	 * of its deferred sections in the current request. Only that section is rendered (see
+	 * {@link FormEntrySession#renderSection(int)}), so the widget registry of the rebuilt session is not checked;
+	 * once the section has been rendered, its widgets should be added to this snapshot with
+	 * {@link #addRenderedSections(FormEntrySessionState)}.
+	 *
+	 * @param httpSession the http session of the current request (may be null)
+	 * @param sectionIndex the index of the section to render
+	 * @return the rebuilt session, with the section rendered
+	 * @throws IllegalStateException if the form or encounter have changed since the snapshot was taken, so that
+	 *             the section would not match the form the user was shown
+	 */
+	public FormEntrySession restoreSection(HttpSession httpSession, int sectionIndex) throws Exception {
+		FormEntrySession session = rebuild(httpSession);
+		session.renderSection(sectionIndex);
+		return session;
+	}
+
+	/**
+	 * Adds the sections rendered in a session rebuilt from this snapshot, and the widgets they registered
+	 *
+	 * @param rendered a snapshot of the session, taken after rendering the sections
+	 */
+	public synchronized void addRenderedSections(FormEntrySessionState rendered) {
+		renderedSections.addAll(rendered.getRenderedSections());
+		widgetRegistry.putAll(rendered.getWidgetRegistry());
+	}
+
+	/**
+	 * @return the indexes of the deferred sections that had been rendered
+	 */
+	public synchronized Set<Integer> getRenderedSections() {
+		return new TreeSet<Integer>(renderedSections);
+	}
+
+	/**
+	 * Reloads the form, patient and encounter by id, and checks that they haven't changed. The form's html is not
+	 * generated, since the caller only renders the section it needs.
+	 */
+	private FormEntrySession rebuild(HttpSession httpSession) throws Exception {
+		Patient patient = patientId == null ? new Patient() : Context.getPatientService().getPatient(patientId);
+		FormEntrySession session;
+		if (htmlFormId == null) {
+			session = new FormEntrySession(patient, xmlDefinition, httpSession);
+		} else {
+			HtmlForm htmlForm = HtmlFormEntryUtil.getService().getHtmlForm(htmlFormId);
+			if (htmlForm == null) {
+				throw new IllegalStateException("No HtmlForm with id " + htmlFormId);
+			}
+			if (encounterId != null) {
+				Encounter encounter = Context.getEncounterService().getEncounter(encounterId);
+				session = new FormEntrySession(patient, encounter, mode, htmlForm, null, httpSession,
+				        automaticClientSideValidation, clientSideValidationHints);
+			} else {
+				session = new FormEntrySession(patient, htmlForm, mode, null, httpSession, automaticClientSideValidation,
+				        clientSideValidationHints);
+			}
+		}
+		session.setReturnUrl(returnUrl);
+		if (hasChangedInd != null) {
+			session.setHasChangedInd(hasChangedInd);
+		}
+
+		if (htmlFormId != null && formModifiedTimestamp != session.getFormModifiedTimestamp()) {
+			throw new IllegalStateException(Context.getMessageSourceService().getMessage(
+			    "htmlformentry.error.formModifiedBeforeSubmission"));
+		}
+		if (encounterId != null && encounterModifiedTimestamp != session.getEncounterModifiedTimestamp()) {
+			throw new IllegalStateException(Context.getMessageSourceService().getMessage(
+			    "htmlformentry.error.encounterModifiedBeforeSubmission"));
+		}
+
+		session.setLazySections(lazySections);
+		session.setSectionScopedFieldNames(sectionScopedFieldNames);
+		return session;
+	}
+
+	/**
+	 * @param session
+	 * @return true if the given session has the same widget registry and matched the same existing obs as the
+	 *         session this snapshot was taken of
+	 */
+	public synchronized boolean matches(FormEntrySession session) {
+		return OpenmrsUtil.nullSafeEquals(widgetRegistry, getWidgetRegistry(session.getContext()))
+		        && OpenmrsUtil.nullSafeEquals(matchedObsIds, getMatchedObsIds(session.getContext(), session.getEncounter()));
+	}
+
+	/**
+	 * @return the widget class names of the registered widgets, keyed by field name
+	 */
+	private static TreeMap<String, String> getWidgetRegistry(FormEntryContext context) {
+		TreeMap<String, String> ret = new TreeMap<String, String>();
+		for (Map.Entry<Widget, String> e : context.getFieldNames().entrySet()) {
+			ret.put(e.getValue(), e.getKey().getClass().getName());
+		}
+		return ret;
+	}
+
+	/**
+	 * @return the ids of the encounter's top-level obs that were claimed by tags in the form
+	 */
+	private static HashSet<Integer> getMatchedObsIds(FormEntryContext context, Encounter encounter) {
+		HashSet<Integer> ret = new HashSet<Integer>();
+		if (encounter == null) {
+			return ret;
+		}
+		Set<Obs> unmatched = new HashSet<Obs>();
+		if (context.getExistingObs() != null) {
+			for (List<Obs> list : context.getExistingObs().values()) {
+				unmatched.addAll(list);
+			}
+		}
+		for (Obs obs : encounter.getObsAtTopLevel(false)) {
+			if (!unmatched.contains(obs)) {
+				ret.add(obs.getObsId());
+			}
+		}
+		return ret;
+	}
+
+	public Integer getHtmlFormId() {
+		return htmlFormId;
+	}
+
+	public long getFormModifiedTimestamp() {
+		return formModifiedTimestamp;
+	}
+
+	public Integer getPatientId() {
+		return patientId;
+	}
+
+	public Integer getEncounterId() {
+		return encounterId;
+	}
+
+	public long getEncounterModifiedTimestamp() {
+		return encounterModifiedTimestamp;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	public String getXmlDefinition() {
+		return xmlDefinition;
+	}
+
+	public synchronized Map<String, String> getWidgetRegistry() {
+		return new TreeMap<String, String>(widgetRegistry);
+	}
+
+	public Set<Integer> getMatchedObsIds() {
+		return matchedObsIds;
+	}
+}
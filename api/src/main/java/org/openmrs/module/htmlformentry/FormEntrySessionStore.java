@@ -0,0 +1,285 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Holds the forms that are currently open on this node, as compact {@link FormEntrySessionState} snapshots, so that
+ * their deferred sections can be rendered and their submissions checked against the form that was displayed.
+ * <p/>
+ * The store is bounded by number of snapshots and by their estimated retained memory (see
+ * {@link #configure(int, long, long)}): the least recently used snapshots are dropped first, and a snapshot is
+ * dropped once its time to live has passed. The counters kept here are shown on the module's admin page, and
+ * evictions are logged (at most once every {@link #EVICTION_LOG_INTERVAL} ms) so that the bounds can be tuned.
+ */
+public class FormEntrySessionStore {
+
+	public static final int DEFAULT_MAX_SESSIONS = 1000;
+
+	public static final long DEFAULT_MAX_RETAINED_BYTES = 64L * 1024 * 1024;
+
+	public static final long DEFAULT_TIME_TO_LIVE = 60L * 60 * 1000;
+
+	public static final long EVICTION_LOG_INTERVAL = 5L * 60 * 1000;
+
+	// rough per-object overheads used when estimating the memory retained by a snapshot
+	private static final int BYTES_PER_SNAPSHOT = 512;
+
+	private static final int BYTES_PER_WIDGET = 96;
+
+	private static final int BYTES_PER_OBS_ID = 48;
+
+	private static final Log log = LogFactory.getLog(FormEntrySessionStore.class);
+
+	private static final FormEntrySessionStore instance = new FormEntrySessionStore(DEFAULT_MAX_SESSIONS,
+	        DEFAULT_MAX_RETAINED_BYTES, DEFAULT_TIME_TO_LIVE);
+
+	private int maxSessions;
+
+	private long maxRetainedBytes;
+
+	private long timeToLive;
+
+	// access-ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<String, Entry> snapshots = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	private long retainedBytes = 0;
+
+	private long evictionCount = 0;
+
+	private long expiryCount = 0;
+
+	private long missingSnapshotCount = 0;
+
+	private long evictionsSinceLogged = 0;
+
+	private long evictionsLogged = 0;
+
+	/**
+	 * @return the store used by the web application for forms in progress
+	 */
+	public static FormEntrySessionStore getInstance() {
+		return instance;
+	}
+
+	public FormEntrySessionStore(int maxSessions, long maxRetainedBytes, long timeToLive) {
+		configure(maxSessions, maxRetainedBytes, timeToLive);
+	}
+
+	/**
+	 * Changes the bounds of this store, evicting snapshots straight away if they are now exceeded
+	 *
+	 * @param maxSessions the maximum number of snapshots to keep
+	 * @param maxRetainedBytes the maximum estimated memory to retain for snapshots
+	 * @param timeToLive milliseconds after its last use that a snapshot is dropped
+	 */
+	public synchronized void configure(int maxSessions, long maxRetainedBytes, long timeToLive) {
+		this.maxSessions = maxSessions;
+		this.maxRetainedBytes = maxRetainedBytes;
+		this.timeToLive = timeToLive;
+		evictIfNecessary();
+	}
+
+	/**
+	 * Stores a snapshot of a session, replacing anything else stored under the same key. The session's html should
+	 * already have been generated.
+	 *
+	 * @param key identifies the form in progress
+	 * @param session the session to store
+	 */
+	public void put(String key, FormEntrySession session) {
+		// this walks the session's widgets and obs, so don't hold the lock while doing it
+		FormEntrySessionState state = new FormEntrySessionState(session);
+		long bytes = estimateRetainedBytes(state);
+		synchronized (this) {
+			remove(key);
+			snapshots.put(key, new Entry(state, bytes));
+			retainedBytes += bytes;
+			evictIfNecessary();
+		}
+	}
+
+	/**
+	 * Gets the snapshot of the form stored under the given key
+	 *
+	 * @param key
+	 * @return the snapshot, or null if there is none or it has been dropped
+	 */
+	public synchronized FormEntrySessionState getState(String key) {
+		expire();
+		Entry entry = snapshots.get(key);
+		if (entry == null) {
+			return null;
+		}
+		entry.touch();
+		return entry.value;
+	}
+
+	/**
+	 * Adds the sections that were rendered on demand in a session rebuilt from the snapshot stored under the given
+	 * key (see {@link FormEntrySessionState#restoreSection(javax.servlet.http.HttpSession, int)}) to that snapshot
+	 *
+	 * @param key
+	 * @param session the rebuilt session
+	 */
+	public void addRenderedSections(String key, FormEntrySession session) {
+		FormEntrySessionState rendered = new FormEntrySessionState(session);
+		synchronized (this) {
+			Entry entry = snapshots.get(key);
+			if (entry == null) {
+				return;
+			}
+			entry.value.addRenderedSections(rendered);
+			long bytes = estimateRetainedBytes(entry.value);
+			retainedBytes += bytes - entry.bytes;
+			entry.bytes = bytes;
+			entry.touch();
+			evictIfNecessary();
+		}
+	}
+
+	/**
+	 * Removes the snapshot stored under the given key, e.g. once the form has been submitted
+	 *
+	 * @param key
+	 */
+	public synchronized void remove(String key) {
+		Entry entry = snapshots.remove(key);
+		if (entry != null) {
+			retainedBytes -= entry.bytes;
+		}
+	}
+
+	/**
+	 * Records that a form was submitted without a snapshot of it in this store, e.g. because it was displayed by
+	 * another node or its snapshot was dropped, so that the submission could not be checked against it
+	 */
+	public synchronized void recordMissingSnapshot() {
+		missingSnapshotCount++;
+	}
+
+	/**
+	 * @return the number of snapshots currently held
+	 */
+	public synchronized int getSnapshotCount() {
+		return snapshots.size();
+	}
+
+	/**
+	 * @return the estimated number of bytes retained by the snapshots currently held
+	 */
+	public synchronized long getRetainedBytes() {
+		return retainedBytes;
+	}
+
+	/**
+	 * @return the number of snapshots that have been dropped to stay within bounds
+	 */
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * @return the number of snapshots that have been dropped because their time to live passed
+	 */
+	public synchronized long getExpiryCount() {
+		return expiryCount;
+	}
+
+	/**
+	 * @return the number of submissions for which there was no snapshot of the displayed form to check against
+	 */
+	public synchronized long getMissingSnapshotCount() {
+		return missingSnapshotCount;
+	}
+
+	public synchronized int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public synchronized long getMaxRetainedBytes() {
+		return maxRetainedBytes;
+	}
+
+	public synchronized long getTimeToLive() {
+		return timeToLive;
+	}
+
+	/**
+	 * Drops expired snapshots, then drops the least recently used snapshots until the store is within its bounds
+	 */
+	private void evictIfNecessary() {
+		expire();
+		Iterator<Entry> i = snapshots.values().iterator();
+		while (i.hasNext() && (snapshots.size() > maxSessions || retainedBytes > maxRetainedBytes)) {
+			retainedBytes -= i.next().bytes;
+			i.remove();
+			evictionCount++;
+			evictionsSinceLogged++;
+		}
+		long now = System.currentTimeMillis();
+		if (evictionsSinceLogged > 0 && now - evictionsLogged >= EVICTION_LOG_INTERVAL) {
+			log.info("Evicted " + evictionsSinceLogged + " form snapshots to stay within " + maxSessions
+			        + " snapshots and " + maxRetainedBytes + " bytes (now holding " + snapshots.size() + " snapshots, "
+			        + retainedBytes + " bytes); submissions of those forms are not checked against them");
+			evictionsSinceLogged = 0;
+			evictionsLogged = now;
+		}
+	}
+
+	private void expire() {
+		long cutoff = System.currentTimeMillis() - timeToLive;
+		for (Iterator<Entry> i = snapshots.values().iterator(); i.hasNext();) {
+			Entry entry = i.next();
+			if (entry.lastUsed < cutoff) {
+				i.remove();
+				retainedBytes -= entry.bytes;
+				expiryCount++;
+			}
+		}
+	}
+
+	/**
+	 * Estimates the memory retained by a snapshot from the number of widgets and obs ids it holds, and from the
+	 * size of its form definition when it holds one. This is only meant to be good enough to bound the store and to
+	 * track trends, not to be an exact measurement.
+	 *
+	 * @param state
+	 * @return the estimated number of bytes retained by the snapshot
+	 */
+	public static long estimateRetainedBytes(FormEntrySessionState state) {
+		long bytes = BYTES_PER_SNAPSHOT;
+		// widget class names are shared between snapshots, but field names are not
+		for (Map.Entry<String, String> e : state.getWidgetRegistry().entrySet()) {
+			bytes += BYTES_PER_WIDGET + 2L * e.getKey().length();
+		}
+		bytes += (long) state.getMatchedObsIds().size() * BYTES_PER_OBS_ID;
+		if (state.getXmlDefinition() != null) {
+			bytes += 2L * state.getXmlDefinition().length();
+		}
+		return bytes;
+	}
+
+	private static class Entry {
+
+		private final FormEntrySessionState value;
+
+		private long bytes;
+
+		private long lastUsed;
+
+		private Entry(FormEntrySessionState value, long bytes) {
+			this.value = value;
+			this.bytes = bytes;
+			touch();
+		}
+
+		private void touch() {
+			lastUsed = System.currentTimeMillis();
+		}
+	}
+}
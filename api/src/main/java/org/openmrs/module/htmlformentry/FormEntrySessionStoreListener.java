@@ -0,0 +1,52 @@
+package org.openmrs.module.htmlformentry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+
+/**
+ * Registered by the activator to set the bounds of the {@link FormEntrySessionStore} from the
+ * htmlformentry.formSessionStore.* global properties, and to apply changes to them without restarting the module
+ */
+public class FormEntrySessionStoreListener implements GlobalPropertyListener {
+
+	private static final String PROPERTY_PREFIX = "htmlformentry.formsessionstore.";
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return propertyName != null && propertyName.toLowerCase().startsWith(PROPERTY_PREFIX);
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		propertyChanged();
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		propertyChanged();
+	}
+
+	private void propertyChanged() {
+		// this may be notified before HtmlFormEntryGlobalPropertyListener, so don't read the old snapshot
+		HtmlFormEntryGlobalProperties.clearCache();
+		configure();
+	}
+
+	/**
+	 * Sets the bounds of the {@link FormEntrySessionStore} from the global properties
+	 */
+	public void configure() {
+		try {
+			FormEntrySessionStore.getInstance().configure(HtmlFormEntryGlobalProperties.FORM_SESSION_STORE_MAX_SESSIONS(),
+			    HtmlFormEntryGlobalProperties.FORM_SESSION_STORE_MAX_RETAINED_BYTES(),
+			    HtmlFormEntryGlobalProperties.FORM_SESSION_STORE_TIME_TO_LIVE());
+		}
+		catch (Exception ex) {
+			log.warn("Unable to configure the form session store, using its defaults", ex);
+		}
+	}
+}
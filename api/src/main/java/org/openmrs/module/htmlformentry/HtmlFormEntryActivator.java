@@ -13,9 +13,19 @@
  */
 package org.openmrs.module.htmlformentry;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.UserService;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.Activator;
+import org.openmrs.module.htmlformentry.advice.OptionListCacheAdvice;
 
 /**
  * Contains the logic that is run every time HTML Form Entry module
@@ -25,6 +35,12 @@ public class HtmlFormEntryActivator implements Activator {
 
 	private Log log = LogFactory.getLog(this.getClass());
 
+	private OptionListCacheAdvice optionListCacheAdvice = new OptionListCacheAdvice();
+
+	private HtmlFormEntryGlobalPropertyListener globalPropertyListener = new HtmlFormEntryGlobalPropertyListener();
+
+	private FormEntrySessionStoreListener formSessionStoreListener = new FormEntrySessionStoreListener();
+
 	/**
 	 * Logs that module has been started
 	 * 
@@ -33,6 +49,19 @@ public class HtmlFormEntryActivator implements Activator {
 	@Override
     public void startup() {
 		log.info("Starting HTML Form Entry Module");
+		Context.getAdministrationService().addGlobalPropertyListener(globalPropertyListener);
+		HtmlFormEntryGlobalProperties.setCacheEnabled(true);
+		Context.getAdministrationService().addGlobalPropertyListener(formSessionStoreListener);
+		formSessionStoreListener.configure();
+		for (Class<?> serviceClass : getOptionListServices()) {
+			Context.addAdvice(serviceClass, optionListCacheAdvice);
+		}
+		OptionListCache.setEnabled(true);
+		ConceptAnswerCache.setEnabled(true);
+		ConceptSearchIndex.setEnabled(true);
+		DrugSearchIndex.setEnabled(true);
+		LogicCriteriaCache.setEnabled(true);
+		PreparedFormCache.setEnabled(true);
 	}
 	
 	/**
@@ -43,6 +72,38 @@ public class HtmlFormEntryActivator implements Activator {
 	@Override
     public void shutdown() {
 		log.info("Shutting down HTML Form Entry Module");
+		OptionListCache.setEnabled(false);
+		ConceptAnswerCache.setEnabled(false);
+		ConceptSearchIndex.setEnabled(false);
+		DrugSearchIndex.setEnabled(false);
+		LogicCriteriaCache.setEnabled(false);
+		PreparedFormCache.setEnabled(false);
+		for (Class<?> serviceClass : getOptionListServices()) {
+			Context.removeAdvice(serviceClass, optionListCacheAdvice);
+		}
+		Context.getAdministrationService().removeGlobalPropertyListener(formSessionStoreListener);
+		HtmlFormEntryGlobalProperties.setCacheEnabled(false);
+		Context.getAdministrationService().removeGlobalPropertyListener(globalPropertyListener);
+	}
+
+	/**
+	 * @return the services whose changes invalidate the {@link OptionListCache}, {@link ConceptAnswerCache},
+	 *         {@link ConceptSearchIndex} and {@link DrugSearchIndex}
+	 */
+	private List<Class<?>> getOptionListServices() {
+		List<Class<?>> ret = new ArrayList<Class<?>>();
+		ret.add(LocationService.class);
+		ret.add(UserService.class);
+		ret.add(PersonService.class);
+		ret.add(PatientService.class);
+		ret.add(ConceptService.class);
+		try {
+			ret.add(Context.loadClass("org.openmrs.api.ProviderService"));
+		}
+		catch (ClassNotFoundException ex) {
+			// providers were introduced in OpenMRS 1.9
+		}
+		return ret;
 	}
 	
 }
@@ -25,6 +25,14 @@ public class HtmlFormEntryConstants {
     
     public final static String GP_SHOW_DATE_FORMAT = "htmlformentry.showDateFormat";
 
+    public final static String GP_FORM_SESSION_STORE_MAX_SESSIONS = "htmlformentry.formSessionStore.maxSessions";
+
+    public final static String GP_FORM_SESSION_STORE_MAX_RETAINED_MEGABYTES = "htmlformentry.formSessionStore.maxRetainedMegabytes";
+
+    public final static String GP_FORM_SESSION_STORE_TIME_TO_LIVE_MINUTES = "htmlformentry.formSessionStore.timeToLiveMinutes";
+
+    public final static String GP_DRUG_SEARCH_INDEX = "htmlformentry.drugSearchIndex";
+
     public final static String GP_CLASSES_NOT_TO_EXPORT_WITH_MDS = "htmlformentry.classesNotToExportWithMetadataSharing";
 
     public static final String GP_UNKNOWN_CONCEPT = "concept.unknown";
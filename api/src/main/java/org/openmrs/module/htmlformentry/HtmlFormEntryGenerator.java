@@ -5,6 +5,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -18,9 +19,12 @@ import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.handler.AttributeDescriptor;
 import org.openmrs.module.htmlformentry.handler.IteratingTagHandler;
+import org.openmrs.module.htmlformentry.handler.SectionTagHandler;
 import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.handler.TagHandlerRegistry;
 import org.openmrs.module.htmlformentry.matching.ObsGroupEntity;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -32,6 +36,13 @@ import org.w3c.dom.NodeList;
  */
 public class HtmlFormEntryGenerator implements TagHandler {
 
+    // this is the regEx for html comment tag <!-- .* -->
+    private static final Pattern COMMENT = Pattern.compile("<!\\s*--.*?--\\s*>", Pattern.CASE_INSENSITIVE
+            | Pattern.MULTILINE);
+
+    // a velocityTest or logicTest attribute, whose &&, < and > need escaping
+    private static final Pattern LOGIC_OR_VELOCITY_TEST = Pattern.compile("(?:velocityTest|logicTest)=\"[^\"]*\"");
+
     /**
      * Takes an XML string, finds the {@code <macros></macros>} section in it, and applies those
      * substitutions
@@ -58,6 +69,10 @@ public class HtmlFormEntryGenerator implements TagHandler {
      * </htmlform>
      * }
      * </pre>
+     * <p/>
+     * All macros are substituted in a single pass over the xml. Where several macro names match at the same
+     * {@code $}, the longest one wins, so {@code $foobar} is never taken for {@code $foo} followed by "bar". Macros are
+     * not expanded within the values of other macros.
      *
      * @param xml the xml string to process for macros
      * @return the xml string with after macro substitution
@@ -87,13 +102,66 @@ public class HtmlFormEntryGenerator implements TagHandler {
         xml = HtmlFormEntryUtil.documentToString(doc);
 
         // substitute any macros we found
-        for (Object temp : macros.keySet()) {
-            String key = (String) temp;
-            String value = macros.getProperty(key, "");
-            xml = xml.replace("$" + key, value);
+        if (macros.isEmpty()) {
+            return xml;
         }
+        MacroNode root = new MacroNode();
+        for (String key : macros.stringPropertyNames()) {
+            root.add(key, macros.getProperty(key, ""));
+        }
+        return root.substitute(xml);
+    }
 
-        return xml;
+    /**
+     * A trie of macro names, the node for each prefix holding the value of the macro with that name, if any
+     */
+    private static class MacroNode {
+
+        private final Map<Character, MacroNode> children = new HashMap<Character, MacroNode>();
+
+        private String value;
+
+        private void add(String name, String value) {
+            MacroNode node = this;
+            for (int i = 0; i < name.length(); i++) {
+                MacroNode child = node.children.get(name.charAt(i));
+                if (child == null) {
+                    child = new MacroNode();
+                    node.children.put(name.charAt(i), child);
+                }
+                node = child;
+            }
+            node.value = value;
+        }
+
+        /**
+         * Replaces each {@code $} followed by a macro name with the value of the longest such macro
+         */
+        private String substitute(String xml) {
+            StringBuilder sb = new StringBuilder(xml.length());
+            int copied = 0;
+            int dollar = xml.indexOf('$');
+            while (dollar >= 0) {
+                String longestValue = null;
+                int longestEnd = -1;
+                MacroNode node = this;
+                for (int i = dollar + 1; node != null; i++) {
+                    if (node.value != null) {
+                        longestValue = node.value;
+                        longestEnd = i;
+                    }
+                    node = i < xml.length() ? node.children.get(xml.charAt(i)) : null;
+                }
+                if (longestValue == null) {
+                    dollar = xml.indexOf('$', dollar + 1);
+                } else {
+                    sb.append(xml, copied, dollar).append(longestValue);
+                    copied = longestEnd;
+                    dollar = xml.indexOf('$', longestEnd);
+                }
+            }
+            return sb.append(xml, copied, xml.length()).toString();
+        }
     }
 
     /**
@@ -118,6 +186,18 @@ public class HtmlFormEntryGenerator implements TagHandler {
      * @throws Exception
      */
     public String applyTranslations(String xml, FormEntryContext context) throws Exception {
+        return applyTranslations(xml, context.getTranslator());
+    }
+
+    /**
+     * Like {@link #applyTranslations(String, FormEntryContext)}, adding the translations to the given translator
+     *
+     * @param xml the xml string to process for translations
+     * @param translator the translator to add the translations to
+     * @return the xml string after translation substitutions have been made
+     * @throws Exception
+     */
+    public String applyTranslations(String xml, Translator translator) throws Exception {
         Document doc = HtmlFormEntryUtil.stringToDocument(xml);
         Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
         Node transNode = HtmlFormEntryUtil.findChild(content, "translations");
@@ -146,7 +226,7 @@ public class HtmlFormEntryGenerator implements TagHandler {
                         if (valueStr == null) {
                             throw new IllegalArgumentException("All variants must specify a value");
                         }
-                        context.getTranslator().addTranslation(localeStr, codeName, valueStr);
+                        translator.addTranslation(localeStr, codeName, valueStr);
                     }
                 }
             }
@@ -171,14 +251,7 @@ public class HtmlFormEntryGenerator implements TagHandler {
      */
     public String stripComments(String xml) throws Exception {
 
-        String regex = "<!\\s*--.*?--\\s*>";    // this is the regEx for html comment tag <!-- .* -->
-        Pattern pattern = Pattern.compile(regex,
-                Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
-
-        Matcher matcher = pattern.matcher(xml);
-        xml = matcher.replaceAll("");
-
-        return xml;
+        return COMMENT.matcher(xml).replaceAll("");
     }
 
     /**
@@ -191,35 +264,35 @@ public class HtmlFormEntryGenerator implements TagHandler {
      */
     public String convertSpecialCharactersWithinLogicAndVelocityTests(String xml) throws Exception {
 
-        Pattern lessThan = Pattern.compile("<");
-        Pattern greaterThan = Pattern.compile(">");
-        Pattern doubleAmpersand = Pattern.compile("&&");
+        Matcher matcher = LOGIC_OR_VELOCITY_TEST.matcher(xml);
+        StringBuilder sb = null;
+        int copied = 0;
 
-        Matcher velocityMatcher = Pattern.compile("velocityTest=\"[^\"]*\"").matcher(xml);
-        StringBuffer afterVelocityChanges = new StringBuffer();
-
-        while (velocityMatcher.find()) {
-            String str = velocityMatcher.group();
-            str = doubleAmpersand.matcher(str).replaceAll("&amp;&amp;");
-            str = lessThan.matcher(str).replaceAll("&lt;");
-            str = greaterThan.matcher(str).replaceAll("&gt;");
-            velocityMatcher.appendReplacement(afterVelocityChanges, Matcher.quoteReplacement(str));
+        while (matcher.find()) {
+            if (sb == null) {
+                sb = new StringBuilder(xml.length() + 64);
+            }
+            sb.append(xml, copied, matcher.start());
+            for (int i = matcher.start(); i < matcher.end(); i++) {
+                char c = xml.charAt(i);
+                if (c == '<') {
+                    sb.append("&lt;");
+                } else if (c == '>') {
+                    sb.append("&gt;");
+                } else if (c == '&' && i + 1 < matcher.end() && xml.charAt(i + 1) == '&') {
+                    sb.append("&amp;&amp;");
+                    i++;
+                } else {
+                    sb.append(c);
+                }
+            }
+            copied = matcher.end();
         }
-        velocityMatcher.appendTail(afterVelocityChanges);
 
-        Matcher logicMatcher = Pattern.compile("logicTest=\"[^\"]*\"").matcher(afterVelocityChanges);
-        StringBuffer afterLogicChanges = new StringBuffer();
-
-        while (logicMatcher.find()) {
-            String str = logicMatcher.group();
-            str = doubleAmpersand.matcher(str).replaceAll("&amp;&amp;");
-            str = lessThan.matcher(str).replaceAll("&lt;");
-            str = greaterThan.matcher(str).replaceAll("&gt;");
-            logicMatcher.appendReplacement(afterLogicChanges, Matcher.quoteReplacement(str));
+        if (sb == null) {
+            return xml;
         }
-
-        logicMatcher.appendTail(afterLogicChanges);
-        return afterLogicChanges.toString();
+        return sb.append(xml, copied, xml.length()).toString();
     }
 
 
@@ -273,29 +346,24 @@ public class HtmlFormEntryGenerator implements TagHandler {
 
         loadRenderElementsForEachRepeatElement(content, renderMaps);
 
-        // Now we are just going to use String replacements to explode the repeat tags properly
+        // Now we are just going to explode the repeat tags in a single pass over the xml string
         Iterator<List<Map<String, String>>> renderMapIter = renderMaps.iterator();
-        int idLabelpairIndex = 0;
-        while (xml.contains("<repeat>")) {
-            int startIndex = xml.indexOf("<repeat>");
+        StringBuilder sb = new StringBuilder(xml.length());
+        int copied = 0;
+        int startIndex = xml.indexOf("<repeat>");
+        while (startIndex >= 0) {
             int endIndex = xml.indexOf("</repeat>", startIndex) + 9;
-            String xmlToReplace = xml.substring(startIndex, endIndex);
-
-            String template = xmlToReplace.substring(xmlToReplace.indexOf("<template>") + 10,
-                    xmlToReplace.indexOf("</template>"));
-            StringBuilder replacement = new StringBuilder();
+            RepeatTemplate template = new RepeatTemplate(xml.substring(xml.indexOf("<template>", startIndex) + 10,
+                    xml.indexOf("</template>", startIndex)));
+            sb.append(xml, copied, startIndex);
             for (Map<String, String> replacements : renderMapIter.next()) {
-                String curr = template;
-                for (String key : replacements.keySet()) {
-                    curr = curr.replace("{" + key + "}", replacements.get(key));
-                }
-                replacement.append(curr);
+                template.appendTo(sb, replacements);
             }
-            xml = xml.substring(0, startIndex) + replacement + xml.substring(endIndex);
-
+            copied = endIndex;
+            startIndex = xml.indexOf("<repeat>", endIndex);
         }
 
-        return xml;
+        return sb.append(xml, copied, xml.length()).toString();
     }
 
     private void loadRenderElementsForEachRepeatElement(Node node, List<List<Map<String, String>>> renderMaps)
@@ -351,9 +419,11 @@ public class HtmlFormEntryGenerator implements TagHandler {
     */
     private String applyRepeatWithTags(String xml) throws Exception {
 
-        while (xml.contains("<repeat with=")) {
+        StringBuilder sb = new StringBuilder(xml.length());
+        int copied = 0;
+        int startIndex = xml.indexOf("<repeat with=");
+        while (startIndex >= 0) {
 
-            int startIndex = xml.indexOf("<repeat with=");
             int endIndex = xml.indexOf("</repeat>", startIndex) + 9;
 
             String xmlToReplace = xml.substring(startIndex, endIndex);
@@ -364,28 +434,76 @@ public class HtmlFormEntryGenerator implements TagHandler {
 
             int templateStartIndex = xmlToReplace.indexOf("]\">") + 3;
             int templateEndIndex = xmlToReplace.indexOf("</repeat>");
-            String template = xmlToReplace.substring(templateStartIndex, templateEndIndex);
+            RepeatTemplate template = new RepeatTemplate(xmlToReplace.substring(templateStartIndex, templateEndIndex));
 
-            StringBuilder sb = new StringBuilder();
-
-            String current = template;
+            sb.append(xml, copied, startIndex);
+            Map<String, String> replacements = new HashMap<String, String>();
             for (List<String> substitutionSet : substitutionSets) {
 
-                int i = 0;
-
-                for (String substitution : substitutionSet) {
-                    current = current.replace("{" + i + "}", substitution);
-                    i++;
+                replacements.clear();
+                for (int i = 0; i < substitutionSet.size(); i++) {
+                    replacements.put(String.valueOf(i), substitutionSet.get(i));
                 }
 
-                sb.append(current);
-                current = template;
+                template.appendTo(sb, replacements);
             }
 
-            xml = xml.substring(0, startIndex) + sb + xml.substring(endIndex);
+            copied = endIndex;
+            startIndex = xml.indexOf("<repeat with=", endIndex);
          }
 
-        return xml;
+        return sb.append(xml, copied, xml.length()).toString();
+    }
+
+    /**
+     * The template of a repeat tag, split once into literal text and {@code {name}} placeholders so that each
+     * repetition is rendered by appending the segments, rather than by one string replacement per placeholder
+     */
+    private static class RepeatTemplate {
+
+        // literals.get(i) comes before names.get(i), and the last literal after all names
+        private final List<String> literals = new ArrayList<String>();
+
+        private final List<String> names = new ArrayList<String>();
+
+        private RepeatTemplate(String template) {
+            int copied = 0;
+            int open = template.indexOf('{');
+            while (open >= 0) {
+                int close = template.indexOf('}', open);
+                if (close < 0) {
+                    break;
+                }
+                int nextOpen = template.indexOf('{', open + 1);
+                if (nextOpen >= 0 && nextOpen < close) {
+                    // not a placeholder, but there may be one starting at the next brace
+                    open = nextOpen;
+                    continue;
+                }
+                literals.add(template.substring(copied, open));
+                names.add(template.substring(open + 1, close));
+                copied = close + 1;
+                open = template.indexOf('{', copied);
+            }
+            literals.add(template.substring(copied));
+        }
+
+        /**
+         * Appends the template with each placeholder replaced by its value, leaving placeholders with no value as
+         * they are
+         */
+        private void appendTo(StringBuilder sb, Map<String, String> values) {
+            for (int i = 0; i < names.size(); i++) {
+                sb.append(literals.get(i));
+                String value = values.get(names.get(i));
+                if (value == null) {
+                    sb.append('{').append(names.get(i)).append('}');
+                } else {
+                    sb.append(value);
+                }
+            }
+            sb.append(literals.get(names.size()));
+        }
     }
 
     /**
@@ -427,7 +545,7 @@ public class HtmlFormEntryGenerator implements TagHandler {
 
         for (ObsGroupEntity obsGroupEntity : obsGroupEntities) {
             StringWriter out = new StringWriter();
-            applyTagsHelper(session, new PrintWriter(out), null, obsGroupEntity.getNode(), null);
+            applyTagsHelper(session, new PrintWriter(out), null, obsGroupEntity.getNode());
             xml = xml.replaceAll("<unmatched id=\"" + obsGroupEntity.getId() + "\" />", Matcher.quoteReplacement(out.toString()));
         }
 
@@ -449,28 +567,64 @@ public class HtmlFormEntryGenerator implements TagHandler {
         Document doc = HtmlFormEntryUtil.stringToDocument(xml);
         Node content = HtmlFormEntryUtil.findChild(doc, "htmlform");
         StringWriter out = new StringWriter();
-        applyTagsHelper(session, new PrintWriter(out), null, content, null);
+        applyTagsHelper(session, new PrintWriter(out), null, content);
         return out.toString();
     }
 
-    private void applyTagsHelper(FormEntrySession session, PrintWriter out, Node parent, Node node,
-                                 Map<String, TagHandler> tagHandlerCache) {
-        if (tagHandlerCache == null)
-            tagHandlerCache = new HashMap<String, TagHandler>();
-        TagHandler handler = null;
-        // Find the handler for this node
-        {
-            String name = node.getNodeName();
-            if (name != null) {
-                if (tagHandlerCache.containsKey(name)) {
-                    // we've looked this up before (though it could be null)
-                    handler = tagHandlerCache.get(name);
-                } else {
-                    handler = HtmlFormEntryUtil.getService().getHandlerByTagName(name);
-                    tagHandlerCache.put(name, handler);
-                }
+    /**
+     * Like {@link #applyTags(FormEntrySession, String)}, but only processes the contents of a single top-level
+     * {@code <section>}, naming its widgets the same way as when the whole form is processed with section-scoped
+     * field names. This is used to render sections that were deferred when the form was first displayed.
+     *
+     * @param session      the current form entry session context
+     * @param xml          the xml string to process, as passed to {@link #applyTags(FormEntrySession, String)}
+     * @param sectionIndex the index of the section, in document order
+     * @return the html of the contents of the section
+     * @throws Exception
+     * @see SectionTagHandler
+     */
+    public String applyTagsToSection(FormEntrySession session, String xml, int sectionIndex) throws Exception {
+        Document doc = HtmlFormEntryUtil.stringToDocument(xml);
+        Element section = SectionTagHandler.getSection(doc, sectionIndex);
+        if (section == null) {
+            throw new IllegalArgumentException("The form has no section with index " + sectionIndex);
+        }
+        return applyTagsToSection(session, section, sectionIndex);
+    }
+
+    /**
+     * Like {@link #applyTagsToSection(FormEntrySession, String, int)}, for a section that has already been found in
+     * the form's document (or copied out of it, see {@link PreparedFormCache.PreparedForm#copySection(int)})
+     *
+     * @param session      the current form entry session context
+     * @param section      the {@code <section>} element
+     * @param sectionIndex the index of the section, in document order
+     * @return the html of the contents of the section
+     * @throws Exception
+     */
+    public String applyTagsToSection(FormEntrySession session, Element section, int sectionIndex) throws Exception {
+        FormEntryContext context = session.getContext();
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        context.beginSection();
+        context.beginFieldNameScope(SectionTagHandler.getFieldNamePrefix(sectionIndex));
+        writer.print(SectionTagHandler.getRenderedSectionMarker(sectionIndex));
+        try {
+            NodeList list = section.getChildNodes();
+            for (int i = 0; i < list.getLength(); ++i) {
+                applyTagsHelper(session, writer, section, list.item(i));
             }
+        } finally {
+            context.endFieldNameScope();
+            context.endSection();
         }
+        writer.flush();
+        return out.toString();
+    }
+
+    private void applyTagsHelper(FormEntrySession session, PrintWriter out, Node parent, Node node) {
+        // Find the handler for this node (read straight from the registry, not through the service proxy)
+        TagHandler handler = TagHandlerRegistry.getHandler(node.getNodeName());
 
         if (handler == null)
             handler = this; // do default actions
@@ -486,14 +640,14 @@ public class HtmlFormEntryGenerator implements TagHandler {
                     while (iteratingHandler.shouldRunAgain(session, out, parent, node)) {
                         NodeList list = node.getChildNodes();
                         for (int i = 0; i < list.getLength(); ++i) {
-                            applyTagsHelper(session, out, node, list.item(i), tagHandlerCache);
+                            applyTagsHelper(session, out, node, list.item(i));
                         }
                     }
 
                 } else { // recurse to contents once
                     NodeList list = node.getChildNodes();
                     for (int i = 0; i < list.getLength(); ++i) {
-                        applyTagsHelper(session, out, node, list.item(i), tagHandlerCache);
+                        applyTagsHelper(session, out, node, list.item(i));
                     }
                 }
             }
@@ -614,6 +768,9 @@ public class HtmlFormEntryGenerator implements TagHandler {
      * </htmlform>
      * }
      * </pre>
+     * <p/>
+     * The user's roles are looked up once, and the xml is processed in a single pass, so that nested restrictByRole
+     * tags are only shown if all of them allow it.
      *
      * @param xml the xml string to process for restrictByRole tag
      * @return the xml after applied restrictByRole tag
@@ -622,19 +779,66 @@ public class HtmlFormEntryGenerator implements TagHandler {
      */
     public String applyRoleRestrictions(String xml) throws BadFormDesignException {
 
-        StringBuilder sb = new StringBuilder(xml);
-
-        while (xml.contains("<restrictByRole")) {
-            int startIndex = sb.indexOf("<restrictByRole") + 15;
-            int endIndex = sb.substring(startIndex).indexOf(">");
-            String includeStr = sb.substring(startIndex, startIndex + endIndex + 1);
-
-            boolean result = HtmlFormEntryGenerator.processRoleRestrictionLogic(includeStr);
-            HtmlFormEntryGenerator.removeFirstTagOccurrence(sb, "restrictByRole", result);
+        int startIndex = xml.indexOf("<restrictByRole");
+        if (startIndex < 0) {
+            return xml;
+        }
+        Set<String> roleNames = getRoleNames(Context.getUserContext().getAuthenticatedUser());
+
+        StringBuilder sb = new StringBuilder(xml.length());
+        // whether the content of each enclosing restrictByRole tag is shown, innermost last
+        List<Boolean> shown = new ArrayList<Boolean>();
+        int copied = 0;
+        int endTagIndex = xml.indexOf("</restrictByRole>");
+        while (startIndex >= 0 || endTagIndex >= 0) {
+            boolean showing = shown.isEmpty() || shown.get(shown.size() - 1);
+            if (startIndex >= 0 && (endTagIndex < 0 || startIndex < endTagIndex)) {
+                // the end of the start tag is the first > after the quoted roles
+                int openingQuote = xml.indexOf('"', startIndex);
+                int closingQuote = openingQuote < 0 ? -1 : xml.indexOf('"', openingQuote + 1);
+                int tagEnd = xml.indexOf('>', closingQuote < 0 ? startIndex : closingQuote + 1);
+                if (tagEnd < 0) {
+                    throw new BadFormDesignException("The restrictByRole tag is not closed");
+                }
+                boolean result = processRoleRestrictionLogic(xml.substring(startIndex + 15, tagEnd + 1), roleNames);
+                if (showing) {
+                    sb.append(xml, copied, startIndex);
+                }
+                shown.add(showing && result);
+                copied = tagEnd + 1;
+                startIndex = xml.indexOf("<restrictByRole", copied);
+                if (endTagIndex >= 0 && endTagIndex < copied) {
+                    endTagIndex = xml.indexOf("</restrictByRole>", copied);
+                }
+            } else {
+                if (showing) {
+                    sb.append(xml, copied, endTagIndex);
+                }
+                if (!shown.isEmpty()) {
+                    shown.remove(shown.size() - 1);
+                }
+                copied = endTagIndex + 17;
+                endTagIndex = xml.indexOf("</restrictByRole>", copied);
+            }
+        }
+        if (shown.isEmpty() || shown.get(shown.size() - 1)) {
+            sb.append(xml, copied, xml.length());
+        }
+        return sb.toString();
+    }
 
-            xml = sb.toString();
+    /**
+     * @return the names of all the roles of the user, including inherited ones, or null if there is no user
+     */
+    static Set<String> getRoleNames(User user) {
+        if (user == null) {
+            return null;
         }
-        return xml;
+        Set<String> ret = new HashSet<String>();
+        for (Role role : user.getAllRoles()) {
+            ret.add(role.getRole());
+        }
+        return ret;
     }
 
     /**
@@ -647,52 +851,42 @@ public class HtmlFormEntryGenerator implements TagHandler {
      * @should return a correct boolean value for user role test string
      */
     protected static boolean processRoleRestrictionLogic(String includeStr) throws BadFormDesignException {
+        return processRoleRestrictionLogic(includeStr, getRoleNames(Context.getUserContext().getAuthenticatedUser()));
+    }
+
+    /**
+     * Like {@link #processRoleRestrictionLogic(String)}, with the user's role names already looked up
+     *
+     * @param includeStr for ex. = "include= "Provider">" or ex. = "exclude= "Provider">"
+     * @param roleNames the names of all the user's roles, or null if there is no user
+     * @return a boolean value if this user has the "Provider" role assigned
+     * @throws BadFormDesignException
+     */
+    private static boolean processRoleRestrictionLogic(String includeStr, Set<String> roleNames)
+            throws BadFormDesignException {
 
         int includeOrExcludeTestIndex = includeStr.indexOf("include");
-        String testStr = "";
-        String[] testRoles = null;
-        boolean includeresult = false;
-        boolean excluderesult = true;
-
-        if (includeOrExcludeTestIndex >= 0) { // contains list of roles in 'include'
-            testStr = HtmlFormEntryUtil.getTestStr(includeStr.substring(includeOrExcludeTestIndex));
-            testRoles = testStr.split(",");
-            User currentUser = Context.getUserContext().getAuthenticatedUser();
-            try {
-                Set<Role> assignedRoles = currentUser.getAllRoles();
-                for (Role role : assignedRoles) {
-                    for (String testRole : testRoles) {
-                        if (role.getRole().equals(testRole)) {
-                            includeresult = true;
-                        }
-                    }
-                }
-            } catch (Exception ex) {
-                throw new BadFormDesignException("The " + testStr + "contains an invalid user Role");
+        boolean include = includeOrExcludeTestIndex >= 0;
+        if (!include) {
+            includeOrExcludeTestIndex = includeStr.indexOf("exclude");
+            if (includeOrExcludeTestIndex < 0) {
+                return true;
             }
+        }
 
-            return includeresult;
-        } else {
-            includeOrExcludeTestIndex = includeStr.indexOf("exclude");
-            if (includeOrExcludeTestIndex != -1) { // contains list of roles in 'exclude'
-                testStr = HtmlFormEntryUtil.getTestStr(includeStr.substring(includeOrExcludeTestIndex)) ;
-                testRoles = testStr.split(",");
-                User currentUser = Context.getUserContext().getAuthenticatedUser();
-                try {
-                    Set<Role> assignedRoles = currentUser.getAllRoles();
-                    for (Role role : assignedRoles) {
-                        for (String testRole : testRoles) {
-                            if (role.getRole().equals(testRole)) {
-                                excluderesult = false;
-                            }
-                        }
-                    }
-                } catch (Exception ex) {
-                    throw new BadFormDesignException("The " + testStr + "contains an invalid user Role");
-                }
+        // contains list of roles in 'include' or 'exclude'
+        String testStr = HtmlFormEntryUtil.getTestStr(includeStr.substring(includeOrExcludeTestIndex));
+        if (roleNames == null) {
+            throw new BadFormDesignException("The " + testStr + "contains an invalid user Role");
+        }
+        boolean hasRole = false;
+        for (String testRole : testStr.split(",")) {
+            if (roleNames.contains(testRole)) {
+                hasRole = true;
+                break;
             }
-            return excluderesult;
         }
+        return include ? hasRole : !hasRole;
     }
 
     public static StringBuilder removeFirstTagOccurrence(StringBuilder sb, String tagName, boolean keepcontent) {
@@ -1,16 +1,130 @@
 package org.openmrs.module.htmlformentry;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.GlobalProperty;
 import org.openmrs.api.context.Context;
 
 
 public class HtmlFormEntryGlobalProperties {
 	
+	public static final String MODULE_PROPERTY_PREFIX = "htmlformentry.";
+	
+	public static final String HTML_FORM_FLOWSHEET_STARTED_PROPERTY = "htmlformflowsheet.started";
+	
+	/**
+	 * The time in milliseconds after which the snapshot of the module's global properties is loaded again
+	 */
+	public static final long SNAPSHOT_MAX_AGE = 10L * 60 * 1000;
+	
+	// a snapshot of the values of the module's global properties, or null until it is loaded
+	private static volatile Snapshot snapshot = null;
+	
+	private static volatile boolean cacheEnabled = false;
+	
+	private static final AtomicLong generation = new AtomicLong();
+	
+	/**
+	 * Gets the value of a global property. The properties of this module are read from an in-memory snapshot, which
+	 * {@link HtmlFormEntryGlobalPropertyListener} clears whenever one of them changes, once the activator has called
+	 * {@link #setCacheEnabled(boolean)}. The snapshot is also dropped after {@link #SNAPSHOT_MAX_AGE}, as a safety
+	 * net for changes the listener misses (e.g. made by another node, or read back by a concurrent request before
+	 * they were committed). Other properties are always read from the database.
+	 * 
+	 * @param name the name of the property
+	 * @return the value of the property, or null if it isn't set
+	 */
+	public static String getGlobalProperty(String name) {
+		if (!cacheEnabled || !isCached(name)) {
+			return Context.getAdministrationService().getGlobalProperty(name);
+		}
+		Snapshot values = snapshot;
+		if (values == null || System.currentTimeMillis() - values.loaded >= SNAPSHOT_MAX_AGE) {
+			long current = generation.get();
+			values = new Snapshot(loadSnapshot());
+			// if a property was changed while loading, the snapshot may already be out of date, so don't keep it
+			if (cacheEnabled && generation.get() == current) {
+				snapshot = values;
+			}
+		}
+		return values.values.get(name.toLowerCase());
+	}
+	
+	/**
+	 * Like {@link #getGlobalProperty(String)}, returning a default value if the property isn't set
+	 * 
+	 * @param name the name of the property
+	 * @param defaultValue
+	 * @return the value of the property, or defaultValue if it isn't set
+	 */
+	public static String getGlobalProperty(String name, String defaultValue) {
+		String value = getGlobalProperty(name);
+		return value == null ? defaultValue : value;
+	}
+	
+	/**
+	 * @param name the name of a global property
+	 * @return whether the value of the property is kept in the snapshot
+	 */
+	public static boolean isCached(String name) {
+		return name != null
+		        && (name.toLowerCase().startsWith(MODULE_PROPERTY_PREFIX) || name
+		                .equalsIgnoreCase(HTML_FORM_FLOWSHEET_STARTED_PROPERTY));
+	}
+	
+	private static Map<String, String> loadSnapshot() {
+		Map<String, String> ret = new HashMap<String, String>();
+		for (GlobalProperty gp : Context.getAdministrationService().getGlobalPropertiesByPrefix(MODULE_PROPERTY_PREFIX)) {
+			ret.put(gp.getProperty().toLowerCase(), gp.getPropertyValue());
+		}
+		ret.put(HTML_FORM_FLOWSHEET_STARTED_PROPERTY,
+		    Context.getAdministrationService().getGlobalProperty(HTML_FORM_FLOWSHEET_STARTED_PROPERTY));
+		return Collections.unmodifiableMap(ret);
+	}
+	
+	/**
+	 * Turns the snapshot on or off. When it is off, every property is read from the database.
+	 * 
+	 * @param enabled
+	 */
+	public static void setCacheEnabled(boolean enabled) {
+		cacheEnabled = enabled;
+		if (!enabled) {
+			clearCache();
+		}
+	}
+	
+	/**
+	 * Drops the snapshot, so that it is loaded again the next time a property is read
+	 */
+	public static void clearCache() {
+		generation.incrementAndGet();
+		snapshot = null;
+	}
+	
+	/**
+	 * The values of the module's global properties, by lower case name, and when they were loaded
+	 */
+	private static class Snapshot {
+		
+		private final Map<String, String> values;
+		
+		private final long loaded = System.currentTimeMillis();
+		
+		private Snapshot(Map<String, String> values) {
+			this.values = values;
+		}
+	}
+	
 	/**
 	 * @return global property that specifies whether or not to void encounter by html form schema
 	 * returns null if property is null or is set to neither true or false
 	 */
 	public static final Boolean VOID_ENCOUNTER_BY_HTML_FORM_SCHEMA () {
-		String propertyValue = Context.getAdministrationService().getGlobalProperty("htmlformentry.voidEncounterByHtmlFormSchema");
+		String propertyValue = getGlobalProperty("htmlformentry.voidEncounterByHtmlFormSchema");
 		if ("true".equalsIgnoreCase(propertyValue)) {
 			return true;
 		}
@@ -23,11 +137,56 @@ public class HtmlFormEntryGlobalProperties {
 	}
 	
 
+	/**
+	 * @return the maximum number of snapshots of forms in progress to keep in the {@link FormEntrySessionStore}
+	 */
+	public static final int FORM_SESSION_STORE_MAX_SESSIONS () {
+		return getPositiveLong(HtmlFormEntryConstants.GP_FORM_SESSION_STORE_MAX_SESSIONS,
+		    FormEntrySessionStore.DEFAULT_MAX_SESSIONS).intValue();
+	}
+	
+	/**
+	 * @return the maximum estimated memory, in bytes, that the {@link FormEntrySessionStore} may retain
+	 */
+	public static final long FORM_SESSION_STORE_MAX_RETAINED_BYTES () {
+		return getPositiveLong(HtmlFormEntryConstants.GP_FORM_SESSION_STORE_MAX_RETAINED_MEGABYTES,
+		    FormEntrySessionStore.DEFAULT_MAX_RETAINED_BYTES / (1024 * 1024)) * 1024 * 1024;
+	}
+	
+	/**
+	 * @return the time, in milliseconds, that an unused form session is kept in the {@link FormEntrySessionStore}
+	 */
+	public static final long FORM_SESSION_STORE_TIME_TO_LIVE () {
+		return getPositiveLong(HtmlFormEntryConstants.GP_FORM_SESSION_STORE_TIME_TO_LIVE_MINUTES,
+		    FormEntrySessionStore.DEFAULT_TIME_TO_LIVE / (60 * 1000)) * 60 * 1000;
+	}
+	
+	/**
+	 * @return whether the drug autocomplete should search an in-memory {@link DrugSearchIndex} of all drugs
+	 */
+	public static final boolean DRUG_SEARCH_INDEX () {
+		return "true".equalsIgnoreCase(getGlobalProperty(HtmlFormEntryConstants.GP_DRUG_SEARCH_INDEX));
+	}
+	
+	private static Long getPositiveLong(String property, long defaultValue) {
+		String propertyValue = getGlobalProperty(property);
+		try {
+			long value = Long.parseLong(propertyValue.trim());
+			if (value > 0) {
+				return value;
+			}
+		}
+		catch (Exception ex) {
+			// fall through to the default
+		}
+		return defaultValue;
+	}
+	
 	/**
 	 * @return whether or not the html form flowsheet module has been started 
 	 */
 	public static final Boolean HTML_FORM_FLOWSHEET_STARTED () {
-		String propertyValue = Context.getAdministrationService().getGlobalProperty("htmlformflowsheet.started");
+		String propertyValue = getGlobalProperty(HTML_FORM_FLOWSHEET_STARTED_PROPERTY);
 		if ("true".equalsIgnoreCase(propertyValue)) {
 			return true;
 		}
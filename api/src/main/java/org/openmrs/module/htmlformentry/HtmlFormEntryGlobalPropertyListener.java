@@ -0,0 +1,25 @@
+package org.openmrs.module.htmlformentry;
+
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+
+/**
+ * Registered by the activator to keep the snapshot of {@link HtmlFormEntryGlobalProperties} up to date
+ */
+public class HtmlFormEntryGlobalPropertyListener implements GlobalPropertyListener {
+
+	@Override
+	public boolean supportsPropertyName(String propertyName) {
+		return HtmlFormEntryGlobalProperties.isCached(propertyName);
+	}
+
+	@Override
+	public void globalPropertyChanged(GlobalProperty newValue) {
+		HtmlFormEntryGlobalProperties.clearCache();
+	}
+
+	@Override
+	public void globalPropertyDeleted(String propertyName) {
+		HtmlFormEntryGlobalProperties.clearCache();
+	}
+}
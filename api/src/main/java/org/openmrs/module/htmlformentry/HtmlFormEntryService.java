@@ -1,12 +1,19 @@
 package org.openmrs.module.htmlformentry;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Person;
+import org.openmrs.Program;
 import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.htmlformentry.element.PersonStub;
 import org.openmrs.module.htmlformentry.handler.TagHandler;
@@ -46,6 +53,28 @@ public interface HtmlFormEntryService extends OpenmrsService {
     @Transactional(readOnly=true)
     public HtmlForm getHtmlFormByForm(Form form);
 
+    /**
+     * Checks, with a single query, whether a patient already has an unvoided encounter at the given date and time
+     * that was entered with the given HtmlForm, ie. with a form whose most-recently-created HtmlForm is this one
+     * 
+     * @param patientId
+     * @param htmlForm
+     * @param encounterDatetime
+     * @return true if there is such an encounter
+     */
+    @Transactional(readOnly=true)
+    public boolean hasEncounterForHtmlForm(Integer patientId, HtmlForm htmlForm, Date encounterDatetime);
+
+    /**
+     * Gets the patient's most recent unvoided encounter, loading only that one
+     * 
+     * @param patient
+     * @param encounterType if not null, only encounters of this type are considered
+     * @return the encounter with the latest encounter datetime, or null if there is none
+     */
+    @Transactional(readOnly=true)
+    public Encounter getLatestEncounter(Patient patient, EncounterType encounterType);
+
     /**
      * Retrieves all HTML Forms in the system
     
@@ -95,7 +124,7 @@ public interface HtmlFormEntryService extends OpenmrsService {
      * 
      * Returns a map of all tag handlers
      * 
-     * @return a map of all tag handlers
+     * @return an unmodifiable map of all tag handlers
      */
     @Transactional(readOnly=true)
     public Map<String, TagHandler> getHandlers();
@@ -121,10 +150,11 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	/**
 	 * 
 	 * Returns a list of PersonStubs of Users by Role, which provide personId, givenName, familyName, middleName, familyName2
-	 * Passing null into this method returns a PersonStub for all users
+	 * Passing null into this method returns a PersonStub for all users. The lists are cached (see
+	 * {@link OptionListCache#getPersonStubs}) until users or roles change, so they must not be modified.
 	 * 
 	 * @param roleName
-	 * @return a List<PersonStub>
+	 * @return an unmodifiable List<PersonStub>
 	 */
 	@Transactional(readOnly=true)
 	public List<PersonStub> getUsersAsPersonStubs(String roleName);
@@ -139,6 +169,20 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	 */
 	public OpenmrsObject getItemById(Class<? extends OpenmrsObject> type, Integer id);
 	
+	/**
+	 * Given a collection of ids and a class, fetch all the OpenMRS objects associated with those ids
+	 * in one query per 1000 ids (ids that do not match any object are silently skipped)
+	 */
+	@Transactional(readOnly=true)
+	public List<OpenmrsObject> getItemsByIds(Class<? extends OpenmrsObject> type, Collection<Integer> ids);
+	
+	/**
+	 * Given a collection of uuids and a class, fetch all the OpenMRS objects associated with those uuids
+	 * in one query per 1000 uuids (uuids that do not match any object are silently skipped)
+	 */
+	@Transactional(readOnly=true)
+	public List<OpenmrsObject> getItemsByUuids(Class<? extends OpenmrsObject> type, Collection<String> uuids);
+	
 	/**
 	 * Given a name and a class, fetch the OpenMRS object associated with that id
 	 */
@@ -157,6 +201,50 @@ public interface HtmlFormEntryService extends OpenmrsService {
 	@Transactional(readOnly=true)
 	public List<Integer> getPersonIdsHavingAttributes(String attribute, String attributeValue);
 	
+	/**
+	 * Returns the ids of the people having all of the given attributes and enrolled in all of the given programs,
+	 * computed by the database in a single query.
+	 * 
+	 * @param attributes the optional list of names of person attribute types; blank names are ignored
+	 * @param attributeValues the optional list of values to match against the attributes, in the same order; if
+	 *            null, or if the value of an attribute is blank, any value matches
+	 * @param programs the optional list of programs
+	 * @return the ids of the matching people
+	 */
+	@Transactional(readOnly=true)
+	public Set<Integer> getPersonIdsHavingAttributesAndPrograms(List<String> attributes, List<String> attributeValues,
+	        List<Program> programs);
+	
+	/**
+	 * Returns a page of the ids of the non-voided people (patients or not) with a name matching the search phrase,
+	 * or, if it contains a digit, with it as a patient identifier, who also have the given attributes and are
+	 * enrolled in the given programs. The whole search is a single query, and only ids are fetched, so that a caller
+	 * showing a page of the results only has to load the people of that page.
+	 * 
+	 * @param searchPhrase each word of it must start the given, middle or family name of the same name of the
+	 *            person, as in the core patient search; a phrase containing a digit also matches an identifier exactly
+	 * @param attributes see {@link #getPersonIdsHavingAttributesAndPrograms(List, List, List)}
+	 * @param attributeValues see {@link #getPersonIdsHavingAttributesAndPrograms(List, List, List)}
+	 * @param programs see {@link #getPersonIdsHavingAttributesAndPrograms(List, List, List)}
+	 * @param firstResult the index of the first result to return
+	 * @param maxResults the maximum number of results to return
+	 * @return the ids of the matching people, each one only once, ordered by family name then given name
+	 * @see #getPersonCountByNameOrIdentifier(String, List, List, List)
+	 */
+	@Transactional(readOnly=true)
+	public List<Integer> getPersonIdsByNameOrIdentifier(String searchPhrase, List<String> attributes,
+	        List<String> attributeValues, List<Program> programs, int firstResult, int maxResults);
+	
+	/**
+	 * Counts the people found by {@link #getPersonIdsByNameOrIdentifier(String, List, List, List, int, int)}, so
+	 * that the number of pages of results can be shown without fetching them all
+	 * 
+	 * @return the number of matching people
+	 */
+	@Transactional(readOnly=true)
+	public int getPersonCountByNameOrIdentifier(String searchPhrase, List<String> attributes,
+	        List<String> attributeValues, List<Program> programs);
+	
 	/**
 	 * 
 	 * Returns a list of Person stubs for people matching the attributes and programs parameters passed in.
@@ -1167,16 +1167,16 @@ public class HtmlFormEntryUtil {
 			voidReason = "htmlformentry";
 		}
 		
-		if (HtmlFormEntryGlobalProperties.VOID_ENCOUNTER_BY_HTML_FORM_SCHEMA() != null) {
+		Boolean voidByHtmlFormSchema = HtmlFormEntryGlobalProperties.VOID_ENCOUNTER_BY_HTML_FORM_SCHEMA();
+		if (voidByHtmlFormSchema != null) {
 			
-			if (HtmlFormEntryGlobalProperties.VOID_ENCOUNTER_BY_HTML_FORM_SCHEMA() == true) {
+			if (voidByHtmlFormSchema == true) {
 				voidEncounterByHtmlFormSchema(e, htmlform, voidReason);
 			} else {
 				Context.getEncounterService().voidEncounter(e, voidReason);
 			}
 			
-		} else if (HtmlFormEntryGlobalProperties.HTML_FORM_FLOWSHEET_STARTED() != null
-		        && HtmlFormEntryGlobalProperties.HTML_FORM_FLOWSHEET_STARTED() == true) {
+		} else if (HtmlFormEntryGlobalProperties.HTML_FORM_FLOWSHEET_STARTED() == true) {
 			voidEncounterByHtmlFormSchema(e, htmlform, voidReason);
 		} else {
 			Context.getEncounterService().voidEncounter(e, voidReason);
@@ -224,7 +224,7 @@ public class HtmlFormExporter {
      */
     private Set<Class<?>> getClassesNotToExport() {
     	Set<Class<?>> ret = new HashSet<Class<?>>();
-    	String gp = Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_CLASSES_NOT_TO_EXPORT_WITH_MDS);
+    	String gp = HtmlFormEntryGlobalProperties.getGlobalProperty(HtmlFormEntryConstants.GP_CLASSES_NOT_TO_EXPORT_WITH_MDS);
     	if (StringUtils.isNotBlank(gp)) {
     		for (StringTokenizer st = new StringTokenizer(gp, ", "); st.hasMoreTokens(); ) {
     			String className = st.nextToken();
@@ -0,0 +1,74 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.openmrs.api.context.Context;
+import org.openmrs.logic.LogicCriteria;
+
+/**
+ * A module-wide cache of parsed logic expressions, keyed by the text of the expression, so that the
+ * {@code logicTest} of an {@code <includeIf>} or {@code <excludeIf>} tag, or the argument of {@code $fn.logic}, is
+ * only parsed once however many forms and sessions use it. Parsing doesn't depend on the patient or on the rules
+ * that are registered, so entries never go stale; the {@link #MAX_CRITERIA} most recently used ones are kept. Like
+ * {@link OptionListCache}, caching is off until the activator calls {@link #setEnabled(boolean)}.
+ */
+public class LogicCriteriaCache {
+
+	public static final int MAX_CRITERIA = 500;
+
+	private static final Map<String, LogicCriteria> cache = new LinkedHashMap<String, LogicCriteria>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LogicCriteria> eldest) {
+			return size() > MAX_CRITERIA;
+		}
+	};
+
+	private static volatile boolean enabled = false;
+
+	/**
+	 * Parses a logic expression, or gets it from the cache if it was already parsed
+	 *
+	 * @param expression
+	 * @return the criteria, as returned by {@link org.openmrs.logic.LogicService#parse(String)}
+	 */
+	public static LogicCriteria parse(String expression) {
+		LogicCriteria criteria;
+		synchronized (cache) {
+			criteria = enabled ? cache.get(expression) : null;
+		}
+		if (criteria == null) {
+			criteria = Context.getLogicService().parse(expression);
+			synchronized (cache) {
+				if (enabled && criteria != null) {
+					cache.put(expression, criteria);
+				}
+			}
+		}
+		return criteria;
+	}
+
+	/**
+	 * Turns caching on or off
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		LogicCriteriaCache.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * Drops all cached criteria
+	 */
+	public static void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmrs.module.htmlformentry.comparator.OptionComparator;
+import org.openmrs.module.htmlformentry.element.PersonStub;
+import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.OptionsFragment;
+
+/**
+ * A module-wide cache of the sorted, formatted option lists used by provider and location dropdowns.
+ * <p/>
+ * Building these lists means loading every provider or location, formatting its label and sorting, which dominates
+ * the time taken to render a form once there are thousands of them. Since they rarely change, each list is built
+ * once per (category, key, locale) and shared by all sessions. The lists are unmodifiable and none of their options
+ * are selected; use {@link #select(List, String)} to get a copy for a session with its selected option marked. The
+ * html of each list's options is also rendered once (see {@link #getFragment}), so that dropdowns can copy it in
+ * bulk. The lists of person stubs that provider lists are built from are cached the same way (see
+ * {@link #getPersonStubs}), for the widgets that use them directly.
+ * <p/>
+ * Lists are invalidated by {@link org.openmrs.module.htmlformentry.advice.OptionListCacheAdvice} when the
+ * underlying metadata is saved, and also dropped after {@link #MAX_AGE} as a safety net for changes made outside of
+ * this server's services (e.g. by another node). Since lists can only be kept safely while that advice is in place,
+ * caching is off until the activator installs it and calls {@link #setEnabled(boolean)}.
+ */
+public class OptionListCache {
+
+	/**
+	 * Category of lists of persons (providers or users), whose option values are person ids
+	 */
+	public static final String PROVIDERS = "providers";
+
+	/**
+	 * Category of lists of locations, whose option values are location ids
+	 */
+	public static final String LOCATIONS = "locations";
+
+	public static final long MAX_AGE = 10L * 60 * 1000;
+
+	private static final Map<String, CachedList> cache = new ConcurrentHashMap<String, CachedList>();
+
+	private static final Map<String, CachedStubs> stubCache = new ConcurrentHashMap<String, CachedStubs>();
+
+	private static volatile boolean enabled = false;
+
+	private static final Map<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+	static {
+		generations.put(PROVIDERS, new AtomicLong());
+		generations.put(LOCATIONS, new AtomicLong());
+	}
+
+	/**
+	 * Builds the options of a list when it is not cached
+	 */
+	public static abstract class Loader {
+
+		/**
+		 * @return the options of the list, in any order and with none of them selected
+		 */
+		public abstract List<Option> load();
+	}
+
+	/**
+	 * Gets a cached list of options, building it with the given loader if needed
+	 *
+	 * @param category {@link #PROVIDERS} or {@link #LOCATIONS}
+	 * @param key identifies the list within its category, e.g. the role or tags the list is restricted to
+	 * @param locale the locale the labels are formatted in
+	 * @param sort whether to sort the options by label
+	 * @param loader builds the options if the list is not cached
+	 * @return an unmodifiable list of options, none of which are selected
+	 */
+	public static List<Option> get(String category, String key, Locale locale, boolean sort, Loader loader) {
+		return getFragment(category, key, locale, sort, loader).getOptions();
+	}
+
+	/**
+	 * Like {@link #get(String, String, Locale, boolean, Loader)}, but returns the options together with their
+	 * pre-rendered html, for use with {@link org.openmrs.module.htmlformentry.widget.DropdownWidget#addOptions}
+	 */
+	public static OptionsFragment getFragment(String category, String key, Locale locale, boolean sort, Loader loader) {
+		String cacheKey = category + "|" + key + "|" + locale + "|" + sort;
+		long generation = generations.get(category).get();
+		CachedList cached = enabled ? cache.get(cacheKey) : null;
+		if (cached != null && cached.generation == generation
+		        && System.currentTimeMillis() - cached.created < MAX_AGE) {
+			return cached.fragment;
+		}
+
+		List<Option> options = new ArrayList<Option>(loader.load());
+		if (sort) {
+			Collections.sort(options, new OptionComparator());
+		}
+		cached = new CachedList(category, generation, new OptionsFragment(options));
+		// if the category was invalidated while loading, the list may already be out of date, so don't keep it
+		if (enabled && generations.get(category).get() == generation) {
+			cache.put(cacheKey, cached);
+		}
+		return cached.fragment;
+	}
+
+	/**
+	 * Builds a list of person stubs when it is not cached
+	 */
+	public static abstract class PersonStubLoader {
+
+		/**
+		 * @return the person stubs
+		 */
+		public abstract List<PersonStub> load();
+	}
+
+	/**
+	 * Gets a cached list of person stubs of the {@link #PROVIDERS} category, loading it with the given loader if
+	 * needed. It is invalidated along with the option lists of that category.
+	 *
+	 * @param key identifies the list, e.g. the role its people have
+	 * @param loader loads the stubs if the list is not cached
+	 * @return an unmodifiable list of person stubs, which should not be changed
+	 */
+	public static List<PersonStub> getPersonStubs(String key, PersonStubLoader loader) {
+		long generation = generations.get(PROVIDERS).get();
+		CachedStubs cached = enabled ? stubCache.get(key) : null;
+		if (cached != null && cached.generation == generation
+		        && System.currentTimeMillis() - cached.created < MAX_AGE) {
+			return cached.stubs;
+		}
+
+		cached = new CachedStubs(generation, loader.load());
+		// if the category was invalidated while loading, the list may already be out of date, so don't keep it
+		if (enabled && generations.get(PROVIDERS).get() == generation) {
+			stubCache.put(key, cached);
+		}
+		return cached.stubs;
+	}
+
+	/**
+	 * Turns caching on or off. When it is off, {@link #get(String, String, Locale, boolean, Loader)} builds a new
+	 * list every time.
+	 *
+	 * @param enabled
+	 */
+	public static void setEnabled(boolean enabled) {
+		OptionListCache.enabled = enabled;
+		if (!enabled) {
+			clear();
+		}
+	}
+
+	/**
+	 * @param options a list of options, e.g. from {@link #get(String, String, Locale, boolean, Loader)}
+	 * @param selectedValue the value of the option to select (may be null)
+	 * @return a new list holding the same options, except that the option with the given value is replaced by a
+	 *         selected copy
+	 */
+	public static List<Option> select(List<Option> options, String selectedValue) {
+		List<Option> ret = new ArrayList<Option>(options);
+		if (selectedValue != null) {
+			for (int i = 0; i < ret.size(); i++) {
+				Option option = ret.get(i);
+				if (selectedValue.equals(option.getValue())) {
+					ret.set(i, new Option(option.getLabel(), option.getValue(), true));
+					break;
+				}
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @param options
+	 * @param value
+	 * @return true if one of the options has the given value
+	 */
+	public static boolean containsValue(List<Option> options, String value) {
+		for (Option option : options) {
+			if (option.getValue().equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops all cached lists of the given category
+	 *
+	 * @param category {@link #PROVIDERS} or {@link #LOCATIONS}
+	 */
+	public static void invalidate(String category) {
+		generations.get(category).incrementAndGet();
+		for (Map.Entry<String, CachedList> e : cache.entrySet()) {
+			if (e.getValue().category.equals(category)) {
+				cache.remove(e.getKey());
+			}
+		}
+		if (PROVIDERS.equals(category)) {
+			stubCache.clear();
+		}
+	}
+
+	/**
+	 * Drops the cached lists of the given category only if one of them has an option with the given value, e.g.
+	 * when a person is saved, only the lists that the person appears in are affected
+	 *
+	 * @param category
+	 * @param value
+	 */
+	public static void invalidateIfContains(String category, String value) {
+		for (CachedList cached : cache.values()) {
+			if (cached.category.equals(category) && cached.values.contains(value)) {
+				invalidate(category);
+				return;
+			}
+		}
+		if (PROVIDERS.equals(category)) {
+			for (CachedStubs cached : stubCache.values()) {
+				if (cached.values.contains(value)) {
+					invalidate(category);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached lists
+	 */
+	public static void clear() {
+		for (String category : generations.keySet()) {
+			invalidate(category);
+		}
+	}
+
+	private static class CachedList {
+
+		private final String category;
+
+		private final long generation;
+
+		private final long created = System.currentTimeMillis();
+
+		private final OptionsFragment fragment;
+
+		private final Set<String> values = new HashSet<String>();
+
+		private CachedList(String category, long generation, OptionsFragment fragment) {
+			this.category = category;
+			this.generation = generation;
+			this.fragment = fragment;
+			for (Option option : fragment.getOptions()) {
+				values.add(option.getValue());
+			}
+		}
+	}
+
+	private static class CachedStubs {
+
+		private final long generation;
+
+		private final long created = System.currentTimeMillis();
+
+		private final List<PersonStub> stubs;
+
+		private final Set<String> values = new HashSet<String>();
+
+		private CachedStubs(long generation, List<PersonStub> stubs) {
+			this.generation = generation;
+			this.stubs = Collections.unmodifiableList(stubs);
+			for (PersonStub stub : stubs) {
+				values.add(String.valueOf(stub.getId()));
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package org.openmrs.module.htmlformentry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openmrs.User;
+import org.openmrs.module.htmlformentry.handler.SectionTagHandler;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A module-wide cache of saved forms that have been through the text-level transformations done before their tags
+ * are processed (comments, role restrictions, macros, repeats and translations).
+ * <p/>
+ * Forms are cached by version, and by the roles of the user when the form restricts content by role. A cached form
+ * keeps the translations read from it, which are added to the translator of every session that uses it, and, once
+ * one of its deferred sections has been requested, its parsed document, so that rendering a section only copies
+ * that section instead of preparing and parsing the whole form again. A form version never changes, so the least
+ * recently used forms are only dropped to keep at most {@link #MAX_SIZE} of them. Like {@link OptionListCache},
+ * caching is off until the activator calls {@link #setEnabled(boolean)}.
+ */
+public class PreparedFormCache {
+
+	public static final int MAX_SIZE = 50;
+
+	// access-ordered, so the least recently used form is dropped first
+	private static final Map<String, PreparedForm> cache = new LinkedHashMap<String, PreparedForm>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedForm> eldest) {
+			return size() > MAX_SIZE;
+		}
+	};
+
+	private static volatile boolean enabled = false;
+
+	/**
+	 * A prepared form: its xml, ready for its tags to be processed, and the translations it defines
+	 */
+	public static class PreparedForm {
+
+		private final String xml;
+
+		private final List<String[]> translations = new ArrayList<String[]>();
+
+		// parsed on demand, and only read while holding this form's lock
+		private Document document;
+
+		/**
+		 * @param xml the prepared xml
+		 * @param translator a translator holding the translations read from the form while preparing it
+		 */
+		public PreparedForm(String xml, Translator translator) {
+			this.xml = xml;
+			for (Map.Entry<String, Map<String, String>> locale : translator.getTranslations().entrySet()) {
+				for (Map.Entry<String, String> e : locale.getValue().entrySet()) {
+					translations.add(new String[] { locale.getKey(), e.getKey(), e.getValue() });
+				}
+			}
+		}
+
+		public String getXml() {
+			return xml;
+		}
+
+		/**
+		 * Adds the translations defined by the form to the given translator, as if the form had been prepared for it
+		 *
+		 * @param translator
+		 */
+		public void addTranslationsTo(Translator translator) {
+			for (String[] t : translations) {
+				translator.addTranslation(t[0], t[1], t[2]);
+			}
+		}
+
+		/**
+		 * Copies a section out of the form into a document of its own, parsing the form the first time this is
+		 * called. The section's ancestors are copied too, without their other children, so that tags that look at
+		 * their enclosing elements (e.g. up to {@code <htmlform>}) find the same ones as in the whole form.
+		 *
+		 * @param sectionIndex the index of the section, see {@link SectionTagHandler#getSectionIndex(Node)}
+		 * @return the copy of the section, or null if the form has no section with that index
+		 * @throws Exception
+		 */
+		public synchronized Element copySection(int sectionIndex) throws Exception {
+			if (document == null) {
+				document = HtmlFormEntryUtil.stringToDocument(xml);
+			}
+			Element section = SectionTagHandler.getSection(document, sectionIndex);
+			if (section == null) {
+				return null;
+			}
+			List<Node> ancestors = new ArrayList<Node>();
+			for (Node n = section.getParentNode(); n != null && n != document; n = n.getParentNode()) {
+				ancestors.add(n);
+			}
+			Collections.reverse(ancestors);
+
+			Document copy = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+			Node parent = copy;
+			for (Node ancestor : ancestors) {
+				parent = parent.appendChild(copy.importNode(ancestor, false));
+			}
+			return (Element) parent.appendChild(copy.importNode(section, true));
+		}
+	}
+
+	/**
+	 * @param htmlForm a saved form
+	 * @param formModifiedTimestamp the version of the form
+	 * @param user the user the form is prepared for
+	 * @return the key of the prepared form, or null if the form can't be cached because it isn't saved
+	 */
+	public static String getKey(HtmlForm htmlForm, long formModifiedTimestamp, User user) {
+		if (htmlForm == null || htmlForm.getId() == null || htmlForm.getXmlData() == null) {
+			return null;
+		}
+		String xml = htmlForm.getXmlData();
+		// the xml is part of the key in case it was changed without saving the form
+		StringBuilder key = new StringBuilder();
+		key.append(htmlForm.getId()).append('|').append(formModifiedTimestamp).append('|').append(xml.length()).append(
+		    '|').append(xml.hashCode());
+		if (xml.indexOf("<restrictByRole") >= 0) {
+			Set<String> roleNames = HtmlFormEntryGenerator.getRoleNames(user);
+			key.append('|').append(roleNames == null ? null : new TreeSet<String>(roleNames));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @param key see {@link #getKey(HtmlForm, long, User)}
+	 * @return the prepared form, or null if it isn't cached
+	 */
+	public static PreparedForm get(String key) {
+		if (!enabled) {
+			return null;
+		}
+		synchronized (cache) {
+			return cache.get(key);
+		}
+	}
+
+	/**
+	 * @param key see {@link #getKey(HtmlForm, long, User)}
+	 * @param form
+	 */
+	public static void put(String key, PreparedForm form) {
+		if (!enabled) {
+			return;
+		}
+		synchronized (cache) {
+			cache.put(key, form);
+		}
+	}
+
+	/**
+	 * @param enabled whether to cache prepared forms; disabling the cache also clears it
+	 */
+	public static void setEnabled(boolean enabled) {
+		PreparedFormCache.enabled = enabled;
+		if (!enabled) {
+			synchronized (cache) {
+				cache.clear();
+			}
+		}
+	}
+}
@@ -8,6 +8,7 @@ import org.openmrs.util.LocaleUtility;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 /**
@@ -18,6 +19,12 @@ public class Translator {
 	private String defaultLocaleStr = "en";
 	private Map<String, Map<String, String>> translations = new HashMap<String, Map<String, String>>();
 	
+	// the flattened translations of each locale asked for, built from translations on first use
+	private Map<String, Map<String, String>> tables = new ConcurrentHashMap<String, Map<String, String>>();
+	
+	// per locale, the codes that have no translation, and what the message source returned for them
+	private Map<String, Map<String, String>> messages = new ConcurrentHashMap<String, Map<String, String>>();
+	
 	/**
 	 * Allowed formats for {@see translate(String, String, Format)}
 	 */
@@ -38,7 +45,9 @@ public class Translator {
 	public Translator() {}
 
 	/**
-	 * Returns the translation mappings associated with this Translator
+	 * Returns the translation mappings associated with this Translator. Translations should be added through
+	 * {@link #addTranslation(String, String, String)}, since changes made directly to this map are not seen by
+	 * locales that have already been looked up.
 	 * 
 	 * @return the translations
 	 */
@@ -53,6 +62,7 @@ public class Translator {
 	 */
 	public void setTranslations(Map<String, Map<String, String>> translations) {
 		this.translations = translations;
+		clearTables();
 	}
 	
 	/**
@@ -71,6 +81,7 @@ public class Translator {
 	 */
 	public void setDefaultLocaleStr(String defaultLocaleStr) {
 		this.defaultLocaleStr = defaultLocaleStr;
+		clearTables();
 	}
 
 	/**
@@ -95,6 +106,7 @@ public class Translator {
 			translations.put(localeStr, localeMap);
 		}
 		localeMap.put(code, translation);
+		clearTables();
 	}
 	
 	/**
@@ -104,7 +116,23 @@ public class Translator {
 	 * @return the translation map for that locale
 	 */
 	public Map<String, String> getTranslations(String localeStr) {
+		return new HashMap<String, String>(getTable(localeStr));
+	}
+	
+	/**
+	 * Gets the flattened translations of a locale, building them the first time the locale is asked for
+	 */
+	private Map<String, String> getTable(String localeStr) {
+		String tableKey = String.valueOf(localeStr);
+		Map<String, String> table = tables.get(tableKey);
+		if (table == null) {
+			table = buildTable(localeStr);
+			tables.put(tableKey, table);
+		}
+		return table;
+	}
 	
+	private Map<String, String> buildTable(String localeStr) {
 		Map<String, String> ret = new HashMap<String, String>();
 		
 		// First add all translations from the default locale.  Then gradually build up variants
@@ -127,6 +155,11 @@ public class Translator {
 		return ret;
 	}
 	
+	private void clearTables() {
+		tables.clear();
+		messages.clear();
+	}
+	
 	/**
 	 * Gets the translation map associated with a particular locale
 	 * 
@@ -145,14 +178,34 @@ public class Translator {
 	 * @return the translation associated with that code and locale
 	 */
 	public String translate(String localeStr, String key) {
-		Map<String, String> translations = getTranslations(localeStr);
-		String ret = translations.get(key);
+		String ret = getTable(localeStr).get(key);
 		if (StringUtils.isEmpty(ret)) {
-			ret = Context.getMessageSourceService().getMessage(key, null, LocaleUtility.fromSpecification(localeStr));
+			ret = getMessage(localeStr, key);
 		}
 		return (ret == null ? key : ret);
 	}
 	
+	/**
+	 * Gets a message from the message source, looking each code up only once per locale
+	 */
+	private String getMessage(String localeStr, String key) {
+		if (key == null) {
+			return null;
+		}
+		String localeKey = String.valueOf(localeStr);
+		Map<String, String> localeMessages = messages.get(localeKey);
+		if (localeMessages == null) {
+			localeMessages = new ConcurrentHashMap<String, String>();
+			messages.put(localeKey, localeMessages);
+		}
+		String ret = localeMessages.get(key);
+		if (ret == null) {
+			ret = Context.getMessageSourceService().getMessage(key, null, LocaleUtility.fromSpecification(localeStr));
+			localeMessages.put(key, ret == null ? key : ret);
+		}
+		return ret;
+	}
+	
 	/**
 	 * Gets the translation for a specific code and locale, returning the
 	 * translation in a specified format
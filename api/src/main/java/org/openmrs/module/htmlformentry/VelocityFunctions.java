@@ -12,27 +12,47 @@ import org.openmrs.Obs;
 import org.openmrs.Patient;
 import org.openmrs.PatientProgram;
 import org.openmrs.PatientState;
+import org.openmrs.Person;
 import org.openmrs.ProgramWorkflow;
 import org.openmrs.api.ObsService;
 import org.openmrs.api.ProgramWorkflowService;
 import org.openmrs.api.context.Context;
-import org.openmrs.logic.LogicCriteria;
-import org.openmrs.logic.LogicService;
 import org.openmrs.logic.result.EmptyResult;
 import org.openmrs.logic.result.Result;
 import org.openmrs.util.LocaleUtility;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 public class VelocityFunctions {
 	
+	// a call to one of the obs functions with a literal concept id or uuid, whose obs can be loaded in advance
+	private static final Pattern OBS_FUNCTION_CALL = Pattern
+	        .compile("\\$fn\\.(?:allObs|latestObs|earliestObs)\\(\\s*[\"']?([\\w.:-]+)[\"']?\\s*\\)");
+	
 	private FormEntrySession session;
+	
+	// the patient's obs by concept id, newest first, for each concept looked up so far
+	private Map<Integer, List<Obs>> obsByConcept;
+	
+	private Patient obsPatient;
+	
+	// the patient's encounters, and latest encounter, by encounter type id (null for any type)
+	private Map<Integer, List<Encounter>> encountersByType;
+	
+	private Map<Integer, Encounter> latestEncounterByType;
+	
+	private Patient encounterPatient;
 	private ObsService obsService;
-	private LogicService logicService;
 	private ProgramWorkflowService programWorkflowService;
 	
 	public VelocityFunctions(FormEntrySession session) {
@@ -45,12 +65,6 @@ public class VelocityFunctions {
 		return obsService;
 	}
 	
-	private LogicService getLogicService() {
-		if (logicService == null)
-			logicService = Context.getLogicService();
-		return logicService;
-	}
-	
 	private ProgramWorkflowService getProgramWorkflowService() {
 		if (programWorkflowService == null)
 			programWorkflowService = Context.getProgramWorkflowService();
@@ -63,9 +77,16 @@ public class VelocityFunctions {
     }
 
 	public List<Obs> allObs(String conceptId) {
+		return new ArrayList<Obs>(getPatientObs(conceptId));
+	}
+	
+	/**
+	 * @return the patient's obs of the concept, newest first, from the cache of this session
+	 */
+	private List<Obs> getPatientObs(String conceptId) {
 
         if (session.getPatient() == null) {
-			return new ArrayList<Obs>();
+			return Collections.emptyList();
         }
 
         cannotBePreviewed();
@@ -74,11 +95,64 @@ public class VelocityFunctions {
 		Concept concept = HtmlFormEntryUtil.getConcept(conceptId);
 
         if (p == null || concept == null) {
-			return new ArrayList<Obs>();
+			return Collections.emptyList();
+        }
+        
+        if (obsByConcept == null || obsPatient != p) {
+        	obsByConcept = new HashMap<Integer, List<Obs>>();
+        	obsPatient = p;
+        	prefetchObs(p, getConceptsUsedByForm());
         }
-        else {
-			return getObsService().getObservationsByPersonAndConcept(p, concept);
+        List<Obs> ret = obsByConcept.get(concept.getConceptId());
+        if (ret == null) {
+        	ret = getObsService().getObservationsByPersonAndConcept(p, concept);
+        	obsByConcept.put(concept.getConceptId(), ret);
         }
+        return ret;
+	}
+	
+	/**
+	 * Loads the patient's obs of all the given concepts with a single query
+	 */
+	private void prefetchObs(Patient p, Collection<Concept> concepts) {
+		if (concepts.isEmpty()) {
+			return;
+		}
+		for (Concept concept : concepts) {
+			obsByConcept.put(concept.getConceptId(), new ArrayList<Obs>());
+		}
+		List<Person> whom = new ArrayList<Person>();
+		whom.add(p);
+		// the same query as getObservationsByPersonAndConcept, so each concept's obs are in the same order
+		for (Obs obs : getObsService().getObservations(whom, null, new ArrayList<Concept>(concepts), null, null, null,
+		    null, null, null, null, null, false)) {
+			List<Obs> conceptObs = obsByConcept.get(obs.getConcept().getConceptId());
+			if (conceptObs != null) {
+				conceptObs.add(obs);
+			}
+		}
+	}
+	
+	/**
+	 * @return the concepts passed as a literal to $fn.allObs, $fn.latestObs or $fn.earliestObs in the xml of the form
+	 */
+	private Collection<Concept> getConceptsUsedByForm() {
+		Map<Integer, Concept> ret = new HashMap<Integer, Concept>();
+		if (session.getXmlDefinition() != null) {
+			Matcher matcher = OBS_FUNCTION_CALL.matcher(session.getXmlDefinition());
+			while (matcher.find()) {
+				try {
+					Concept concept = HtmlFormEntryUtil.getConcept(matcher.group(1));
+					if (concept != null) {
+						ret.put(concept.getConceptId(), concept);
+					}
+				}
+				catch (RuntimeException ex) {
+					// not a concept after all, in which case the call itself will deal with it
+				}
+			}
+		}
+		return ret.values();
 	}
 
     public List<Obs> allObs(Integer conceptId) {
@@ -92,7 +166,7 @@ public class VelocityFunctions {
 	 */
 	public Obs latestObs(String conceptId) {
 
-        List<Obs> obs = allObs(conceptId);
+        List<Obs> obs = getPatientObs(conceptId);
 
         if (obs == null || obs.isEmpty()) {
 			return null;
@@ -113,7 +187,7 @@ public class VelocityFunctions {
 	 */
 	public Obs earliestObs(String conceptId) {
 
-        List<Obs> obs = allObs(conceptId);
+        List<Obs> obs = getPatientObs(conceptId);
 
         if (obs == null || obs.isEmpty()) {
 				return null;
@@ -135,27 +209,40 @@ public class VelocityFunctions {
 	 */
     public List<Encounter> allEncounters(String encounterTypeId){
 		EncounterType encounterType = HtmlFormEntryUtil.getEncounterType(encounterTypeId);
-		return getAllEncounters(encounterType);
+		return new ArrayList<Encounter>(getAllEncounters(encounterType));
     }
     
 	private List<Encounter> getAllEncounters(EncounterType type) {
 		if (session.getPatient() == null) {
-			return new ArrayList<Encounter>();
+			return Collections.emptyList();
 		}
 		cannotBePreviewed();
 		Patient p = session.getPatient();
 		if (p == null) {
-			return new ArrayList<Encounter>();
+			return Collections.emptyList();
 		}
-		else {
+		resetEncountersIfPatientChanged(p);
+		Integer typeId = type == null ? null : type.getEncounterTypeId();
+		List<Encounter> ret = encountersByType.get(typeId);
+		if (ret == null) {
 			if (type == null) {
-				return Context.getEncounterService().getEncountersByPatient(p);
+				ret = Context.getEncounterService().getEncountersByPatient(p);
 			}
 			else {
 				List<EncounterType> typeList = new ArrayList<EncounterType>();
 				typeList.add(type);
-				return Context.getEncounterService().getEncounters(p, null, null, null, null, typeList, null, false);
+				ret = Context.getEncounterService().getEncounters(p, null, null, null, null, typeList, null, false);
 			}
+			encountersByType.put(typeId, ret);
+		}
+		return ret;
+	}
+	
+	private void resetEncountersIfPatientChanged(Patient p) {
+		if (encountersByType == null || encounterPatient != p) {
+			encountersByType = new HashMap<Integer, List<Encounter>>();
+			latestEncounterByType = new HashMap<Integer, Encounter>();
+			encounterPatient = p;
 		}
 	}
 	
@@ -174,13 +261,29 @@ public class VelocityFunctions {
 	}
 	
 	private Encounter getLatestEncounter(EncounterType type) {
-		List<Encounter> encounters = getAllEncounters(type);
-		if (encounters == null || encounters.isEmpty()) {
+		if (session.getPatient() == null) {
 			return null;
 		}
+		cannotBePreviewed();
+		Patient p = session.getPatient();
+		resetEncountersIfPatientChanged(p);
+		Integer typeId = type == null ? null : type.getEncounterTypeId();
+		if (latestEncounterByType.containsKey(typeId)) {
+			return latestEncounterByType.get(typeId);
+		}
+		
+		Encounter ret;
+		List<Encounter> encounters = encountersByType.get(typeId);
+		if (encounters != null) {
+			// allEncounters has already loaded them, oldest first
+			ret = encounters.isEmpty() ? null : encounters.get(encounters.size() - 1);
+		}
 		else {
-			return encounters.get(encounters.size() - 1);
+			// only load the one encounter
+			ret = HtmlFormEntryUtil.getService().getLatestEncounter(p, type);
 		}
+		latestEncounterByType.put(typeId, ret);
+		return ret;
 	}
 	
 	/**
@@ -195,8 +298,7 @@ public class VelocityFunctions {
 		if (session.getPatient() == null)
 			return new EmptyResult();
 		cannotBePreviewed();
-		LogicCriteria lc = getLogicService().parse(expression);
-		return getLogicService().eval(session.getPatient(), lc);
+		return session.evaluateLogicExpression(expression);
 	}
 
 	@SuppressWarnings("deprecation")
@@ -0,0 +1,80 @@
+package org.openmrs.module.htmlformentry.advice;
+
+import java.lang.reflect.Method;
+
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.api.ConceptService;
+import org.openmrs.api.LocationService;
+import org.openmrs.api.PatientService;
+import org.openmrs.api.PersonService;
+import org.openmrs.api.UserService;
+import org.openmrs.module.htmlformentry.ConceptAnswerCache;
+import org.openmrs.module.htmlformentry.ConceptSearchIndex;
+import org.openmrs.module.htmlformentry.DrugSearchIndex;
+import org.openmrs.module.htmlformentry.OptionListCache;
+import org.springframework.aop.AfterReturningAdvice;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Invalidates the {@link OptionListCache} when providers, users or locations are changed through the OpenMRS
+ * services, and the {@link ConceptAnswerCache}, {@link ConceptSearchIndex} and
+ * {@link DrugSearchIndex} when concepts or drugs are. It is added to the LocationService, UserService,
+ * PersonService, PatientService (a provider may also be a patient), ConceptService and (in OpenMRS 1.9+)
+ * ProviderService by the module activator.
+ */
+public class OptionListCacheAdvice implements AfterReturningAdvice {
+
+	private static final String[] MUTATING_METHOD_PREFIXES = { "save", "retire", "unretire", "void", "unvoid", "purge",
+	        "delete" };
+
+	@Override
+	public void afterReturning(Object returnValue, Method method, Object[] args, Object target) throws Throwable {
+		if (!isMutating(method.getName())) {
+			return;
+		}
+		if (target instanceof ConceptService) {
+			ConceptAnswerCache.clear();
+			ConceptSearchIndex.clear();
+			DrugSearchIndex.clear();
+		} else if (target instanceof LocationService) {
+			OptionListCache.invalidate(OptionListCache.LOCATIONS);
+		} else if (target instanceof PersonService || target instanceof PatientService) {
+			// persons are saved all the time (e.g. patients), so only drop the lists the person appears in
+			Person person = null;
+			if (args != null && args.length > 0) {
+				if (args[0] instanceof Person) {
+					person = (Person) args[0];
+				} else if (args[0] instanceof PersonName) {
+					person = ((PersonName) args[0]).getPerson();
+				}
+			}
+			if (person != null && person.getPersonId() != null) {
+				OptionListCache.invalidateIfContains(OptionListCache.PROVIDERS, person.getPersonId().toString());
+			}
+		} else if (target instanceof UserService || isProviderService(target)) {
+			OptionListCache.invalidate(OptionListCache.PROVIDERS);
+		}
+	}
+
+	private boolean isMutating(String methodName) {
+		for (String prefix : MUTATING_METHOD_PREFIXES) {
+			if (methodName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * ProviderService only exists in OpenMRS 1.9+, so it can't be referenced directly
+	 */
+	private boolean isProviderService(Object target) {
+		for (Class<?> c : ClassUtils.getAllInterfaces(target)) {
+			if ("org.openmrs.api.ProviderService".equals(c.getName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,10 +1,17 @@
 package org.openmrs.module.htmlformentry.db;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Program;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.element.PersonStub;
@@ -38,6 +45,21 @@ public interface HtmlFormEntryDAO {
      */
     public HtmlForm getHtmlFormByForm(Form form);
 
+    /**
+     * Checks whether the patient has an unvoided encounter of the given form at exactly the given date and time
+     * 
+     * @param patientId
+     * @param form
+     * @param encounterDatetime
+     * @return true if there is at least one such encounter
+     */
+    public boolean hasEncounter(Integer patientId, Form form, Date encounterDatetime);
+
+    /**
+     * @see HtmlFormEntryService#getLatestEncounter(Patient, EncounterType)
+     */
+    public Encounter getLatestEncounter(Patient patient, EncounterType encounterType);
+
     /**
      * Saves an HtmlForm to the database
      * 
@@ -69,6 +91,14 @@ public interface HtmlFormEntryDAO {
      */
 	public List<PersonStub> getUsersAsPersonStubs(String roleName);
 	
+	/**
+	 * Returns stubs of the given people, with their preferred (or else first) unvoided name, without loading them
+	 * 
+	 * @param personIds
+	 * @return a stub for each of the people having an unvoided name, ordered by person id
+	 */
+	public List<PersonStub> getPeopleAsPersonStubs(Collection<Integer> personIds);
+	
 	/**
 	 * Given a uuid and a class, fetch the OpenMRS object associated with that uuid
 	 */
@@ -79,6 +109,18 @@ public interface HtmlFormEntryDAO {
 	 */
 	public OpenmrsObject getItemById(Class<? extends OpenmrsObject> type, Integer id);
 	
+	/**
+	 * Given a collection of ids and a class, fetch all the OpenMRS objects associated with those ids, in one query
+	 * per 1000 ids
+	 */
+	public List<OpenmrsObject> getItemsByIds(Class<? extends OpenmrsObject> type, Collection<Integer> ids);
+	
+	/**
+	 * Given a collection of uuids and a class, fetch all the OpenMRS objects associated with those uuids, in one
+	 * query per 1000 uuids
+	 */
+	public List<OpenmrsObject> getItemsByUuids(Class<? extends OpenmrsObject> type, Collection<String> uuids);
+	
 	/**
 	 * Given a name and a class, fetch the OpenMRS object associated with that name
 	 */
@@ -88,5 +130,23 @@ public interface HtmlFormEntryDAO {
      * @see HtmlFormEntryService#getPersonIdsHavingAttributes(String attributeId, String attributeValue)
      */      
 	public List<Integer> getPersonIdHavingAttributes(String attributeId, String attributeValue);
+	
+	/**
+	 * @see HtmlFormEntryService#getPersonIdsHavingAttributesAndPrograms(List, List, List)
+	 */
+	public Set<Integer> getPersonIdsHavingAttributesAndPrograms(List<String> attributes, List<String> attributeValues,
+	        List<Program> programs);
+	
+	/**
+	 * @see HtmlFormEntryService#getPersonIdsByNameOrIdentifier(String, List, List, List, int, int)
+	 */
+	public List<Integer> getPersonIdsByNameOrIdentifier(String searchPhrase, List<String> attributes,
+	        List<String> attributeValues, List<Program> programs, int firstResult, int maxResults);
+	
+	/**
+	 * @see HtmlFormEntryService#getPersonCountByNameOrIdentifier(String, List, List, List)
+	 */
+	public int getPersonCountByNameOrIdentifier(String searchPhrase, List<String> attributes,
+	        List<String> attributeValues, List<Program> programs);
 
 }
@@ -1,19 +1,33 @@
 package org.openmrs.module.htmlformentry.db.hibernate;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
 import org.hibernate.SessionFactory;
 import org.hibernate.criterion.Expression;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.transform.Transformers;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
+import org.openmrs.Program;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.db.HtmlFormEntryDAO;
 import org.openmrs.module.htmlformentry.element.PersonStub;
@@ -25,6 +39,19 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
 
 	private static Log log = LogFactory.getLog(HibernateHtmlFormEntryDAO.class);
 	
+	// the queries below are constant, with their values bound as parameters, so that their statements can be cached
+	private static final String USERS_AS_PERSON_STUBS_SELECT = " select  u.person_id as id, pn.given_name as givenName, pn.family_name as familyName, pn.middle_name as middleName, pn.family_name2 as familyName2 from users u, person_name pn, user_role ur where u.retired = 0 and u.person_id = pn.person_id and pn.voided = 0 and u.user_id = ur.user_id  ";
+	
+	private static final String USERS_AS_PERSON_STUBS_QUERY = USERS_AS_PERSON_STUBS_SELECT + " order by familyName ";
+	
+	private static final String USERS_WITH_ROLE_AS_PERSON_STUBS_QUERY = USERS_AS_PERSON_STUBS_SELECT
+	        + " and ur.role = :role order by familyName ";
+	
+	private static final String PERSON_IDS_HAVING_ATTRIBUTE_QUERY = "select distinct(pa.person_id) from person_attribute pa, person_attribute_type pat where pa.person_attribute_type_id = pat.person_attribute_type_id and pat.name = :attribute";
+	
+	private static final String PERSON_IDS_HAVING_ATTRIBUTE_VALUE_QUERY = PERSON_IDS_HAVING_ATTRIBUTE_QUERY
+	        + " and value = :value";
+	
     private SessionFactory sessionFactory;
     
     public void setSessionFactory(SessionFactory sessionFactory) {
@@ -72,6 +99,33 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
         else
             return null;
     }
+    
+    @Override
+    public boolean hasEncounter(Integer patientId, Form form, Date encounterDatetime) {
+        // the patient's encounters are found through the index on encounter.patient_id, so this never scans the table
+        Query query = sessionFactory.getCurrentSession().createQuery(
+            "select e.encounterId from Encounter e where e.patient.patientId = :patientId and e.form = :form"
+                    + " and e.encounterDatetime = :encounterDatetime and e.voided = false");
+        query.setInteger("patientId", patientId);
+        query.setEntity("form", form);
+        query.setTimestamp("encounterDatetime", encounterDatetime);
+        query.setMaxResults(1);
+        return !query.list().isEmpty();
+    }
+    
+    @Override
+    public Encounter getLatestEncounter(Patient patient, EncounterType encounterType) {
+        Criteria crit = sessionFactory.getCurrentSession().createCriteria(Encounter.class);
+        crit.add(Restrictions.eq("patient", patient));
+        crit.add(Restrictions.eq("voided", false));
+        if (encounterType != null) {
+            crit.add(Restrictions.eq("encounterType", encounterType));
+        }
+        crit.addOrder(Order.desc("encounterDatetime"));
+        crit.addOrder(Order.desc("encounterId"));
+        crit.setMaxResults(1);
+        return (Encounter) crit.uniqueResult();
+    }
 
 	@Override
     public boolean needsNameAndDescriptionMigration() {
@@ -82,11 +136,11 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
 	@Override
     @SuppressWarnings("unchecked")
 	public List<PersonStub> getUsersAsPersonStubs(String roleName){
-	    String query = " select  u.person_id as id, pn.given_name as givenName, pn.family_name as familyName, pn.middle_name as middleName, pn.family_name2 as familyName2 from users u, person_name pn, user_role ur where u.retired = 0 and u.person_id = pn.person_id and pn.voided = 0 and u.user_id = ur.user_id  ";
+	    SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+	        roleName == null ? USERS_AS_PERSON_STUBS_QUERY : USERS_WITH_ROLE_AS_PERSON_STUBS_QUERY);
 	    if (roleName != null)
-	        query += " and ur.role = '" + roleName + "' ";
-	     query += " order by familyName ";
-	    return (List<PersonStub>) sessionFactory.getCurrentSession().createSQLQuery(query)
+	        query.setString("role", roleName);
+	    return (List<PersonStub>) query
 	    .addScalar("id")
 	    .addScalar("givenName")
 	    .addScalar("familyName")
@@ -94,6 +148,33 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
 	    .addScalar("familyName2")
 	    .setResultTransformer(Transformers.aliasToBean(PersonStub.class)).list();
 	}
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<PersonStub> getPeopleAsPersonStubs(Collection<Integer> personIds) {
+		String query = " select pn.person_id as id, pn.given_name as givenName, pn.family_name as familyName, pn.middle_name as middleName, pn.family_name2 as familyName2 from person_name pn where pn.voided = 0 and pn.person_id in (:personIds) "
+		        + " order by pn.person_id, pn.preferred desc, pn.person_name_id ";
+		// people may have several names, so only keep the first one of each person, which is the preferred one if any
+		Map<Integer, PersonStub> stubs = new LinkedHashMap<Integer, PersonStub>();
+		List<Integer> ids = new ArrayList<Integer>(personIds);
+		Collections.sort(ids);
+		for (int from = 0; from < ids.size(); from += 1000) {
+			List<PersonStub> names = sessionFactory.getCurrentSession().createSQLQuery(query)
+			.addScalar("id")
+			.addScalar("givenName")
+			.addScalar("familyName")
+			.addScalar("middleName")
+			.addScalar("familyName2")
+			.setParameterList("personIds", ids.subList(from, Math.min(from + 1000, ids.size())))
+			.setResultTransformer(Transformers.aliasToBean(PersonStub.class)).list();
+			for (PersonStub stub : names) {
+				if (!stubs.containsKey(stub.getId())) {
+					stubs.put(stub.getId(), stub);
+				}
+			}
+		}
+		return new ArrayList<PersonStub>(stubs.values());
+	}
 
 	 @Override
     public OpenmrsObject getItemByUuid(Class<? extends OpenmrsObject> type, String uuid) {
@@ -125,6 +206,40 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
      	}
 	 }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<OpenmrsObject> getItemsByIds(Class<? extends OpenmrsObject> type, Collection<Integer> ids) {
+    	if (ids == null || ids.isEmpty()) {
+    		return new ArrayList<OpenmrsObject>();
+    	}
+    	String idProperty = sessionFactory.getClassMetadata(type).getIdentifierPropertyName();
+    	List<Integer> list = new ArrayList<Integer>(ids);
+    	List<OpenmrsObject> ret = new ArrayList<OpenmrsObject>(list.size());
+    	// keep the in-lists within what databases accept
+    	for (int from = 0; from < list.size(); from += 1000) {
+    		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(type);
+    		criteria.add(Restrictions.in(idProperty, list.subList(from, Math.min(from + 1000, list.size()))));
+    		ret.addAll((List<OpenmrsObject>) criteria.list());
+    	}
+    	return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<OpenmrsObject> getItemsByUuids(Class<? extends OpenmrsObject> type, Collection<String> uuids) {
+    	if (uuids == null || uuids.isEmpty()) {
+    		return new ArrayList<OpenmrsObject>();
+    	}
+    	List<String> list = new ArrayList<String>(uuids);
+    	List<OpenmrsObject> ret = new ArrayList<OpenmrsObject>(list.size());
+    	for (int from = 0; from < list.size(); from += 1000) {
+    		Criteria criteria = sessionFactory.getCurrentSession().createCriteria(type);
+    		criteria.add(Restrictions.in("uuid", list.subList(from, Math.min(from + 1000, list.size()))));
+    		ret.addAll((List<OpenmrsObject>) criteria.list());
+    	}
+    	return ret;
+    }
+
     @Override
     public OpenmrsObject getItemByName(Class<? extends OpenmrsMetadata> type, String name) {
     	// we use a try/catch here to handle oddities like "Role" which don't have a directly-referenceable name property
@@ -143,11 +258,140 @@ public class HibernateHtmlFormEntryDAO implements HtmlFormEntryDAO {
     @Override
     @SuppressWarnings("unchecked")
 	public List<Integer> getPersonIdHavingAttributes(String attribute, String attributeValue) {
-	    String query =  "select distinct(pa.person_id) from person_attribute pa, person_attribute_type pat where pa.person_attribute_type_id = pat.person_attribute_type_id and pat.name='" + attribute + "'";
+		SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(
+		    attributeValue == null ? PERSON_IDS_HAVING_ATTRIBUTE_QUERY : PERSON_IDS_HAVING_ATTRIBUTE_VALUE_QUERY);
+		query.setString("attribute", attribute);
 		if(attributeValue != null)
 		{
-			query = query + " and value='" + attributeValue + "'";
+			query.setString("value", attributeValue);
 		}
-	    return (List<Integer>)sessionFactory.getCurrentSession().createSQLQuery(query).list();
+	    return (List<Integer>) query.list();
+    }
+    
+    @Override
+    public Set<Integer> getPersonIdsHavingAttributesAndPrograms(List<String> attributes, List<String> attributeValues,
+                                                              List<Program> programs) {
+    	StringBuilder sql = new StringBuilder("select p.person_id from person p where 1 = 1");
+    	Map<String, Object> params = new HashMap<String, Object>();
+    	appendAttributeAndProgramClauses(sql, params, attributes, attributeValues, programs);
+    	
+    	Set<Integer> ret = new HashSet<Integer>();
+    	for (Object id : createQuery(sql.toString(), params).list()) {
+    		ret.add(((Number) id).intValue());
+    	}
+    	return ret;
+    }
+    
+    @Override
+    public List<Integer> getPersonIdsByNameOrIdentifier(String searchPhrase, List<String> attributes,
+                                                        List<String> attributeValues, List<Program> programs,
+                                                        int firstResult, int maxResults) {
+    	List<Integer> ret = new ArrayList<Integer>();
+    	StringBuilder sql = new StringBuilder("select p.person_id");
+    	Map<String, Object> params = new HashMap<String, Object>();
+    	if (!appendNameOrIdentifierSearch(sql, params, searchPhrase, attributes, attributeValues, programs)) {
+    		return ret;
+    	}
+    	// each person is listed once, however many of their names match
+    	sql.append(" group by p.person_id order by min(pn.family_name), min(pn.given_name), p.person_id");
+    	
+    	SQLQuery query = createQuery(sql.toString(), params);
+    	query.setFirstResult(firstResult);
+    	query.setMaxResults(maxResults);
+    	for (Object id : query.list()) {
+    		ret.add(((Number) id).intValue());
+    	}
+    	return ret;
+    }
+    
+    @Override
+    public int getPersonCountByNameOrIdentifier(String searchPhrase, List<String> attributes,
+                                                List<String> attributeValues, List<Program> programs) {
+    	StringBuilder sql = new StringBuilder("select count(distinct p.person_id)");
+    	Map<String, Object> params = new HashMap<String, Object>();
+    	if (!appendNameOrIdentifierSearch(sql, params, searchPhrase, attributes, attributeValues, programs)) {
+    		return 0;
+    	}
+    	return ((Number) createQuery(sql.toString(), params).uniqueResult()).intValue();
+    }
+    
+    /**
+     * Appends the from and where clauses of a search of people by name or identifier, having attributes and in
+     * programs, to the select clause of a query. Each word of the search phrase has to start the given, middle or
+     * family name of the same name of the person, as in the core patient search, and a search phrase containing a
+     * digit also matches a patient identifier exactly.
+     * 
+     * @return false if the search phrase is blank, in which case nobody matches
+     */
+    private boolean appendNameOrIdentifierSearch(StringBuilder sql, Map<String, Object> params, String searchPhrase,
+                                                 List<String> attributes, List<String> attributeValues,
+                                                 List<Program> programs) {
+    	String[] words = searchPhrase == null ? new String[0] : searchPhrase.trim().split("\\s+");
+    	if (words.length == 0 || words[0].length() == 0) {
+    		return false;
+    	}
+    	
+    	sql.append(" from person p inner join person_name pn on pn.person_id = p.person_id and pn.voided = :voided")
+    	        .append(" where p.voided = :voided and ((1 = 1");
+    	params.put("voided", Boolean.FALSE);
+    	for (int i = 0; i < words.length; i++) {
+    		sql.append(" and (pn.given_name like :name").append(i).append(" or pn.middle_name like :name").append(i)
+    		        .append(" or pn.family_name like :name").append(i).append(" or pn.family_name2 like :name").append(i)
+    		        .append(")");
+    		params.put("name" + i, words[i] + "%");
+    	}
+    	sql.append(")");
+    	if (searchPhrase.matches(".*\\d+.*")) {
+    		sql.append(" or p.person_id in (select pi.patient_id from patient_identifier pi")
+    		        .append(" where pi.voided = :voided and pi.identifier = :identifier)");
+    		params.put("identifier", searchPhrase.trim());
+    	}
+    	sql.append(")");
+    	appendAttributeAndProgramClauses(sql, params, attributes, attributeValues, programs);
+    	return true;
+    }
+    
+    /**
+     * Appends one exists() clause on p.person_id per attribute and per program, so that the database does the
+     * intersection
+     */
+    private void appendAttributeAndProgramClauses(StringBuilder sql, Map<String, Object> params,
+                                                  List<String> attributes, List<String> attributeValues,
+                                                  List<Program> programs) {
+    	if (attributes != null) {
+    		for (int i = 0; i < attributes.size(); i++) {
+    			String attribute = attributes.get(i);
+    			if (attribute == null || attribute.trim().length() == 0) {
+    				continue;
+    			}
+    			sql.append(" and exists (select pa.person_attribute_id from person_attribute pa, person_attribute_type pat")
+    			        .append(" where pa.person_attribute_type_id = pat.person_attribute_type_id")
+    			        .append(" and pa.person_id = p.person_id and pat.name = :attribute").append(i);
+    			params.put("attribute" + i, attribute);
+    			String value = attributeValues != null && attributeValues.size() > i ? attributeValues.get(i) : null;
+    			if (value != null && value.trim().length() > 0) {
+    				sql.append(" and pa.value = :value").append(i);
+    				params.put("value" + i, value);
+    			}
+    			sql.append(")");
+    		}
+    	}
+    	if (programs != null) {
+    		for (int i = 0; i < programs.size(); i++) {
+    			sql.append(" and exists (select pp.patient_program_id from patient_program pp")
+    			        .append(" where pp.patient_id = p.person_id and pp.voided = :voided and pp.program_id = :program")
+    			        .append(i).append(")");
+    			params.put("voided", Boolean.FALSE);
+    			params.put("program" + i, programs.get(i).getProgramId());
+    		}
+    	}
+    }
+    
+    private SQLQuery createQuery(String sql, Map<String, Object> params) {
+    	SQLQuery query = sessionFactory.getCurrentSession().createSQLQuery(sql);
+    	for (Map.Entry<String, Object> param : params.entrySet()) {
+    		query.setParameter(param.getKey(), param.getValue());
+    	}
+    	return query;
     }
 }
@@ -14,6 +14,7 @@ import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.OptionListCache;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
 import org.openmrs.module.htmlformentry.comparator.OptionComparator;
 import org.openmrs.module.htmlformentry.widget.AutocompleteWidget;
@@ -23,10 +24,12 @@ import org.openmrs.module.htmlformentry.widget.DropdownWidget;
 import org.openmrs.module.htmlformentry.widget.EncounterTypeWidget;
 import org.openmrs.module.htmlformentry.widget.ErrorWidget;
 import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.OptionsFragment;
 import org.openmrs.module.htmlformentry.widget.SingleOptionWidget;
 import org.openmrs.module.htmlformentry.widget.TimeWidget;
 import org.openmrs.module.htmlformentry.widget.ToggleWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
+import org.openmrs.module.htmlformentry.widget.WidgetFactory;
 import org.openmrs.util.OpenmrsConstants;
 import org.openmrs.util.OpenmrsUtil;
 import org.springframework.util.StringUtils;
@@ -152,73 +155,16 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
             }
 
             // Only if specific person ids are not passed in do we get by user Role
+            OptionsFragment providerFragment = null;
             if (providerOptions.isEmpty()) {
-
-                List<PersonStub> users = new ArrayList<PersonStub>();
-                List<Option> providerUsers = new ArrayList<Option>();
-
-                // If the "role" attribute is passed in, limit to users with this role
-                if (parameters.get("role") != null) {
-                    Role role = Context.getUserService().getRole((String) parameters.get("role"));
-                    if (role == null) {
-                        throw new RuntimeException("Cannot find role: " + parameters.get("role"));
-                    } else {
-                        users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(role.getRole());
-                    }
-                }
-
-                // Otherwise, use default options appropriate to the underlying OpenMRS version
-                else {
-                    if (openmrsVersionDoesNotSupportProviders()) {
-                        // limit to users with the default OpenMRS PROVIDER role,
-                        String defaultRole = OpenmrsConstants.PROVIDER_ROLE;
-                        Role role = Context.getUserService().getRole(defaultRole);
-                        if (role != null) {
-                            users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(role.getRole());
-                        }
-                        // If this role isn't used, default to all Users
-                        if (users.isEmpty()) {
-                            users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(null);
-                        }
-                    } else {
-                        // in OpenMRS 1.9+, get all suitable providers
-                        users = getAllProvidersThatArePersonsAsPersonStubs();
-                    }
-                }
-
-                for (PersonStub personStub : users) {
-
-                    Option option = new Option(personStub.toString(), personStub.getId().toString(), false);
-                    providerUsers.add(option);
-                }
-                providerOptions.addAll(providerUsers);
-
+                providerFragment = getProviderOptions((String) parameters.get("role"));
             }
 
             // Set default values as appropriate
             Person defaultProvider = null;
-            Option defProviderOption;
             if (context.getExistingEncounter() != null) {
+                // in EDIT mode the existing provider is only marked as selected if it is one of the options
                 defaultProvider = context.getExistingEncounter().getProvider();
-                // this is done to avoid default provider being added twice due to that it can be added from the
-                // users = getAllProvidersThatArePersonsAsPersonStubs(); section with selected="false", therefore this can't be caught when
-                // searching whether the options list contains the 'defaultProvider'
-            boolean defaultOptionPresent = false;
-              if(defaultProvider != null){
-                for(Option option: providerOptions){
-                  if(option.getValue().equals(defaultProvider.getId().toString())){
-                      defaultOptionPresent = true;
-                      providerOptions.remove(option);
-                      break;
-                  }
-                }
-              }
-              if(defaultOptionPresent)  {
-                  defProviderOption
-                     = new Option(defaultProvider.getPersonName().getFullName(), defaultProvider.getId().toString(), true);
-                   providerOptions.add(defProviderOption);
-              }
-
             } else {
                 String defParam = (String) parameters.get("default");
                 if (StringUtils.hasText(defParam)) {
@@ -229,24 +175,26 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                     }
                     if (defaultProvider == null) {
                         throw new IllegalArgumentException("Invalid default provider specified for encounter: " + defParam);
-                    } else {
-                        defProviderOption
-                                = new Option(defaultProvider.getPersonName().getFullName(), defaultProvider.getId().toString(), true);
-                        for (Option option : providerOptions) {
-                            if (option.getValue().equals(defProviderOption.getValue())) {
-                                providerOptions.remove(option);
-                                break;
-                            }
-                        }
-                        providerOptions.add(defProviderOption);
                     }
-
                 }
             }
             if (defaultProvider != null) {
                 providerWidget.setInitialValue(new PersonStub(defaultProvider));
             }
-            Collections.sort(providerOptions,new OptionComparator());
+
+            // the options (for the shared list, the cached sorted options as they are), with just the default provider
+            // marked as selected; they only need sorting if they are not the shared list or a default is added to it
+            String defaultValue = defaultProvider == null ? null : defaultProvider.getId().toString();
+            List<Option> baseOptions = providerFragment != null ? providerFragment.getOptions() : providerOptions;
+            boolean addDefault = defaultValue != null && context.getExistingEncounter() == null
+                    && !OptionListCache.containsValue(baseOptions, defaultValue);
+            providerOptions = OptionListCache.select(baseOptions, defaultValue);
+            if (addDefault) {
+                providerOptions.add(new Option(defaultProvider.getPersonName().getFullName(), defaultValue, true));
+            }
+            if (providerFragment == null || addDefault) {
+                Collections.sort(providerOptions, new OptionComparator());
+            }
 
             if (("autocomplete").equals(parameters.get("type"))) {
                 providerWidget.addOption(new Option());
@@ -260,7 +208,9 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                 providerWidget.addOption(new Option
                         (Context.getMessageSourceService().getMessage("htmlformentry.chooseAProvider"), "", !initialValueIsSet)); // if no initial or default value
 
-                if (!providerOptions.isEmpty()) {
+                if (providerFragment != null) {
+                    ((DropdownWidget) providerWidget).addOptions(providerOptions, providerFragment);
+                } else if (!providerOptions.isEmpty()) {
                     for (Option option : providerOptions) {
                         providerWidget.addOption(option);
                     }
@@ -321,23 +271,8 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                 throw new RuntimeException("Using both \"order\" and \"tags\" attribute in an encounterLocation tag is not currently supported");
             }
 
-            // if the "tags" attribute has been specified, load all the locations referenced by tag
-            if (parameters.get("tags") != null) {
-
-                List<LocationTag> tags = new ArrayList<LocationTag>();
-                String temp[] = ((String) parameters.get("tags")).split(",");
-                for (String s : temp) {
-
-                    LocationTag tag = HtmlFormEntryUtil.getLocationTag(s);
-                    if (tag == null) {
-                        throw new RuntimeException("Cannot find tag: " + tag);
-                    }
-                    tags.add(tag);
-                }
-                locations.addAll(Context.getLocationService().getLocationsHavingAnyTag(tags));
-            }
-            // If the "order" attribute is passed in, limit to the specified locations in order
-            else if (parameters.get("order") != null) {
+            // If the "order" attribute is passed in (without tags), limit to the specified locations in order
+            if (parameters.get("tags") == null && parameters.get("order") != null) {
 
                 String[] temp = ((String) parameters.get("order")).split(",");
                 for (String s : temp) {
@@ -350,10 +285,6 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
 
             }
 
-            // if no locations have been specified by the order attribute, use all non-retired locations
-            if (locations.isEmpty()) {
-                locations = Context.getLocationService().getAllLocations(false);
-            }
 
             // Set default values
             Location defaultLocation = null;
@@ -368,23 +299,31 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
             defaultLocation = defaultLocation == null ? context.getDefaultLocation() : defaultLocation;
             locationWidget.setInitialValue(defaultLocation);
 
-            // if in EDIT mode, make sure that the default/selected location is one of the location options, so we don't accidentally lose it
-            if (defaultLocation != null && context.getMode().equals(Mode.EDIT)) {
-               if (!locations.contains(defaultLocation)) {
-                   locations.add(defaultLocation);
-               }
-            }
-
-            // now create the actual location options
-            for (Location location : locations) {
-                String label = HtmlFormEntryUtil.format(location);
-                Option option = new Option(label, location.getId().toString(), location.equals(defaultLocation));
-                locationOptions.add(option);
-            }
+            boolean keepDefaultLocation = defaultLocation != null && context.getMode().equals(Mode.EDIT);
+            OptionsFragment locationFragment = null;
+            if (!locations.isEmpty()) {
+                // if in EDIT mode, make sure that the default/selected location is one of the location options, so we don't accidentally lose it
+                if (keepDefaultLocation && !locations.contains(defaultLocation)) {
+                    locations.add(defaultLocation);
+                }
 
-            // sort options (if a specific order hasn't been specified
-            if (parameters.get("order") == null) {
-                Collections.sort(locationOptions, new OptionComparator());
+                // now create the actual location options, in the specified order
+                for (Location location : locations) {
+                    String label = HtmlFormEntryUtil.format(location);
+                    Option option = new Option(label, location.getId().toString(), location.equals(defaultLocation));
+                    locationOptions.add(option);
+                }
+            } else {
+                // the shared, sorted options, with just the default location marked as selected
+                locationFragment = getLocationOptions((String) parameters.get("tags"));
+                List<Option> sharedOptions = locationFragment.getOptions();
+                locationOptions = OptionListCache.select(sharedOptions, defaultLocation == null ? null : defaultLocation
+                        .getId().toString());
+                if (keepDefaultLocation && !OptionListCache.containsValue(sharedOptions, defaultLocation.getId().toString())) {
+                    locationOptions.add(new Option(HtmlFormEntryUtil.format(defaultLocation), defaultLocation.getId()
+                            .toString(), true));
+                    Collections.sort(locationOptions, new OptionComparator());
+                }
             }
 
             if ("autocomplete".equals(parameters.get("type"))) {
@@ -396,7 +335,9 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                 boolean initialValueIsSet = !(locationWidget.getInitialValue() == null);
                 locationWidget.addOption(new Option
                         (Context.getMessageSourceService().getMessage("htmlformentry.chooseALocation"), "", !initialValueIsSet));
-                if (!locationOptions.isEmpty()) {
+                if (locationFragment != null) {
+                    ((DropdownWidget) locationWidget).addOptions(locationOptions, locationFragment);
+                } else if (!locationOptions.isEmpty()) {
                     for (Option option : locationOptions)
                         locationWidget.addOption(option);
                 }
@@ -441,6 +382,112 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
                 || OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.8");
     }
 
+    /**
+     * Gets the (cached) options for the provider dropdown when specific persons are not given
+     *
+     * @param roleName the role that providers are limited to, or null for the default options appropriate to the
+     *            underlying OpenMRS version
+     * @return the sorted options, shared between sessions, so they must not be modified
+     */
+    private OptionsFragment getProviderOptions(final String roleName) {
+        // If the "role" attribute is passed in, limit to users with this role
+        if (roleName != null) {
+            final Role role = Context.getUserService().getRole(roleName);
+            if (role == null) {
+                throw new RuntimeException("Cannot find role: " + roleName);
+            }
+            return OptionListCache.getFragment(OptionListCache.PROVIDERS, "role:" + role.getRole(), Context.getLocale(), true,
+                new OptionListCache.Loader() {
+
+                    @Override
+                    public List<Option> load() {
+                        return toOptions(Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(
+                            role.getRole()));
+                    }
+                });
+        }
+
+        // Otherwise, use default options appropriate to the underlying OpenMRS version
+        if (openmrsVersionDoesNotSupportProviders()) {
+            return OptionListCache.getFragment(OptionListCache.PROVIDERS, "defaultRole", Context.getLocale(), true,
+                new OptionListCache.Loader() {
+
+                    @Override
+                    public List<Option> load() {
+                        // limit to users with the default OpenMRS PROVIDER role,
+                        List<PersonStub> users = new ArrayList<PersonStub>();
+                        Role role = Context.getUserService().getRole(OpenmrsConstants.PROVIDER_ROLE);
+                        if (role != null) {
+                            users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(role.getRole());
+                        }
+                        // If this role isn't used, default to all Users
+                        if (users.isEmpty()) {
+                            users = Context.getService(HtmlFormEntryService.class).getUsersAsPersonStubs(null);
+                        }
+                        return toOptions(users);
+                    }
+                });
+        } else {
+            // in OpenMRS 1.9+, get all suitable providers
+            return OptionListCache.getFragment(OptionListCache.PROVIDERS, "allProviders", Context.getLocale(), true,
+                new OptionListCache.Loader() {
+
+                    @Override
+                    public List<Option> load() {
+                        return toOptions(getAllProvidersThatArePersonsAsPersonStubs());
+                    }
+                });
+        }
+    }
+
+    private static List<Option> toOptions(List<PersonStub> personStubs) {
+        List<Option> ret = new ArrayList<Option>();
+        for (PersonStub personStub : personStubs) {
+            ret.add(new Option(personStub.toString(), personStub.getId().toString(), false));
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the (cached) options for the location dropdown, for all non-retired locations or for those having any
+     * of the given tags
+     *
+     * @param tagsParam the comma-separated tags attribute, or null
+     * @return the sorted options, shared between sessions, so they must not be modified
+     */
+    private OptionsFragment getLocationOptions(final String tagsParam) {
+        String key = tagsParam == null ? "encounter" : "encounter:tags=" + tagsParam;
+        return OptionListCache.getFragment(OptionListCache.LOCATIONS, key, Context.getLocale(), true,
+            new OptionListCache.Loader() {
+
+                @Override
+                public List<Option> load() {
+                    List<Location> locations = new ArrayList<Location>();
+                    // if the "tags" attribute has been specified, load all the locations referenced by tag
+                    if (tagsParam != null) {
+                        List<LocationTag> tags = new ArrayList<LocationTag>();
+                        for (String s : tagsParam.split(",")) {
+                            LocationTag tag = HtmlFormEntryUtil.getLocationTag(s);
+                            if (tag == null) {
+                                throw new RuntimeException("Cannot find tag: " + tag);
+                            }
+                            tags.add(tag);
+                        }
+                        locations.addAll(Context.getLocationService().getLocationsHavingAnyTag(tags));
+                    }
+                    // if no locations have been specified, use all non-retired locations
+                    if (locations.isEmpty()) {
+                        locations = Context.getLocationService().getAllLocations(false);
+                    }
+                    List<Option> ret = new ArrayList<Option>();
+                    for (Location location : locations) {
+                        ret.add(new Option(HtmlFormEntryUtil.format(location), location.getId().toString(), false));
+                    }
+                    return ret;
+                }
+            });
+    }
+
     /**
      * This method exists to allow us to quickly support providers as introduce in OpenMRS 1.9.x,
      * without having to branch the module. We should remove this method when do a proper
@@ -567,36 +614,36 @@ public class EncounterDetailSubmissionElement implements HtmlGeneratorElement, F
         }
 
         if (dateWidget != null) {
-            ret.append(dateWidget.generateHtml(context));
+            WidgetFactory.appendHtml(dateWidget, context, ret);
             if (context.getMode() != Mode.VIEW)
-                ret.append(dateErrorWidget.generateHtml(context));
+                WidgetFactory.appendHtml(dateErrorWidget, context, ret);
         }
         if (timeWidget != null) {
             if (!timeWidget.isHidden() || (context.getMode() == Mode.VIEW)) {
                 ret.append("&#160;");
             }
-            ret.append(timeWidget.generateHtml(context));
+            WidgetFactory.appendHtml(timeWidget, context, ret);
             if (context.getMode() != Mode.VIEW)
-                ret.append(timeErrorWidget.generateHtml(context));
+                WidgetFactory.appendHtml(timeErrorWidget, context, ret);
         }
         if (providerWidget != null) {
-            ret.append(providerWidget.generateHtml(context));
+            WidgetFactory.appendHtml(providerWidget, context, ret);
             if (context.getMode() != Mode.VIEW)
-                ret.append(providerErrorWidget.generateHtml(context));
+                WidgetFactory.appendHtml(providerErrorWidget, context, ret);
         }
         if (locationWidget != null) {
-            ret.append(locationWidget.generateHtml(context));
+            WidgetFactory.appendHtml(locationWidget, context, ret);
             if (context.getMode() != Mode.VIEW)
-                ret.append(locationErrorWidget.generateHtml(context));
+                WidgetFactory.appendHtml(locationErrorWidget, context, ret);
         }
         if (encounterTypeWidget != null) {
-            ret.append(encounterTypeWidget.generateHtml(context));
+            WidgetFactory.appendHtml(encounterTypeWidget, context, ret);
             if (context.getMode() != Mode.VIEW)
-                ret.append(encounterTypeErrorWidget.generateHtml(context));
+                WidgetFactory.appendHtml(encounterTypeErrorWidget, context, ret);
         }
         if (voidWidget != null) {
             if (context.getMode() == Mode.EDIT) //only show void option if the encounter already exists.
-                ret.append(voidWidget.generateHtml(context));
+                WidgetFactory.appendHtml(voidWidget, context, ret);
         }
 
         // close out the span if we have an id tag
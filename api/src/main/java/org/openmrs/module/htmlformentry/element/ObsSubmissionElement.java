@@ -12,6 +12,7 @@ import org.openmrs.Obs;
 import org.openmrs.Person;
 import org.openmrs.Role;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.ConceptAnswerCache;
 import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
@@ -19,8 +20,8 @@ import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlFormEntryConstants;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.OptionListCache;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
-import org.openmrs.module.htmlformentry.comparator.OptionComparator;
 import org.openmrs.module.htmlformentry.schema.ObsField;
 import org.openmrs.module.htmlformentry.schema.ObsFieldAnswer;
 import org.openmrs.module.htmlformentry.widget.CheckboxWidget;
@@ -32,6 +33,7 @@ import org.openmrs.module.htmlformentry.widget.DynamicAutocompleteWidget;
 import org.openmrs.module.htmlformentry.widget.ErrorWidget;
 import org.openmrs.module.htmlformentry.widget.NumberFieldWidget;
 import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.OptionsFragment;
 import org.openmrs.module.htmlformentry.widget.PersonStubWidget;
 import org.openmrs.module.htmlformentry.widget.RadioButtonsWidget;
 import org.openmrs.module.htmlformentry.widget.RemoteJsonAutocompleteWidget;
@@ -41,6 +43,7 @@ import org.openmrs.module.htmlformentry.widget.TimeWidget;
 import org.openmrs.module.htmlformentry.widget.ToggleWidget;
 import org.openmrs.module.htmlformentry.widget.UploadWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
+import org.openmrs.module.htmlformentry.widget.WidgetFactory;
 import org.openmrs.obs.ComplexData;
 import org.openmrs.util.LocaleUtility;
 import org.openmrs.util.OpenmrsConstants;
@@ -107,6 +110,10 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 	
 	private List<Concept> conceptAnswers = new ArrayList<Concept>();
 	
+	// the answers from answerClasses, shared by all sessions: only their ids and pre-rendered options are used, and
+	// their concepts are only loaded if getConceptAnswers() is called
+	private ConceptAnswerCache.Answers classAnswers;
+	
 	private List<Number> numericAnswers = new ArrayList<Number>();
 	
 	private List<String> textAnswers = new ArrayList<String>();
@@ -457,28 +464,36 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 				if (isLocationObs) {
 
                     valueWidget = new DropdownWidget();
-                    // if "answerLocationTags" attribute is present try to get locations by tags
-                    List<Location> locationList = HtmlFormEntryUtil.getLocationsByTags(HtmlFormEntryConstants.ANSWER_LOCATION_TAGS, parameters);
-                    if ((locationList == null) ||
-                            (locationList != null && locationList.size()<1)){
-                        // if no locations by tags are found then get all locations
-                        locationList = Context.getLocationService().getAllLocations();
-                    }
-
-                    for (Location location : locationList) {
-                            String label = HtmlFormEntryUtil.format(location);
-                            Option option = new Option(label, location.getId().toString(), location.getId().toString().equals(initialValue));
-                            locationOptions.add(option);
-                       }
-                    Collections.sort(locationOptions, new OptionComparator());
+                    // the sorted location options are shared between sessions, so only the selected one is copied
+                    final Map<String, String> locationParameters = parameters;
+                    String tagsParam = parameters.get(HtmlFormEntryConstants.ANSWER_LOCATION_TAGS);
+                    OptionsFragment locationFragment = OptionListCache.getFragment(OptionListCache.LOCATIONS,
+                        tagsParam == null ? "obs" : "obs:tags=" + tagsParam, Context.getLocale(), true,
+                        new OptionListCache.Loader() {
+
+                            @Override
+                            public List<Option> load() {
+                                // if "answerLocationTags" attribute is present try to get locations by tags
+                                List<Location> locationList = HtmlFormEntryUtil.getLocationsByTags(
+                                    HtmlFormEntryConstants.ANSWER_LOCATION_TAGS, locationParameters);
+                                if ((locationList == null) || (locationList != null && locationList.size() < 1)) {
+                                    // if no locations by tags are found then get all locations
+                                    locationList = Context.getLocationService().getAllLocations();
+                                }
+                                List<Option> ret = new ArrayList<Option>();
+                                for (Location location : locationList) {
+                                    ret.add(new Option(HtmlFormEntryUtil.format(location), location.getId().toString(),
+                                            false));
+                                }
+                                return ret;
+                            }
+                        });
+                    locationOptions = OptionListCache.select(locationFragment.getOptions(), initialValue);
 
                     // if initialValueIsSet=false, no initial/default location, hence this shows the 'select input' field as first option
                     boolean initialValueIsSet = !(initialValue == null);
                     ((DropdownWidget)valueWidget).addOption(new Option(Context.getMessageSourceService().getMessage("htmlformentry.chooseALocation"),"",!initialValueIsSet));
-                    if (!locationOptions.isEmpty()) {
-                        for(Option option: locationOptions)
-                            ((DropdownWidget)valueWidget).addOption(option);
-                    }
+                    ((DropdownWidget)valueWidget).addOptions(locationOptions, locationFragment);
 
 				} else if ("person".equals(parameters.get("style"))) {
 					
@@ -617,16 +632,12 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 					}
 				} else if (parameters.get("answerClasses") != null && !"autocomplete".equals(parameters.get("style"))) {
 					try {
+						List<String> classNames = new ArrayList<String>();
 						for (StringTokenizer st = new StringTokenizer(parameters.get("answerClasses"), ","); st
 						        .hasMoreTokens();) {
-							String className = st.nextToken().trim();
-							ConceptClass cc = Context.getConceptService().getConceptClassByName(className);
-							if (cc == null) {
-								throw new RuntimeException("Cannot find concept class " + className);
-							}
-							conceptAnswers.addAll(Context.getConceptService().getConceptsByClass(cc));
+							classNames.add(st.nextToken().trim());
 						}
-						Collections.sort(conceptAnswers, conceptNameComparator);
+						classAnswers = ConceptAnswerCache.getAnswersByClass(classNames, locale);
 					}
 					catch (Exception ex) {
 						throw new RuntimeException("Error in answer class list for concept " + concept.getConceptId() + " ("
@@ -727,16 +738,34 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 						} else {
 							valueWidget = buildDropdownWidget(size);
 						}
-						for (int i = 0; i < conceptAnswers.size(); ++i) {
-							Concept c = conceptAnswers.get(i);
-							String label = null;
-							if (answerLabels != null && i < answerLabels.size()) {
-								label = answerLabels.get(i);
+						if (classAnswers != null && answerLabels.isEmpty()) {
+							OptionsFragment options = classAnswers.getOptions();
+							if (valueWidget instanceof DropdownWidget) {
+								((DropdownWidget) valueWidget).addOptions(options.getOptions(), options);
 							} else {
-								label = c.getBestName(locale).getName();
+								for (Option option : options.getOptions()) {
+									((SingleOptionWidget) valueWidget).addOption(option);
+								}
+							}
+						} else if (classAnswers != null) {
+							List<Option> options = classAnswers.getOptions().getOptions();
+							for (int i = 0; i < options.size(); ++i) {
+								String label = i < answerLabels.size() ? answerLabels.get(i) : options.get(i).getLabel();
+								((SingleOptionWidget) valueWidget).addOption(new Option(label, options.get(i).getValue(),
+								        false));
+							}
+						} else {
+							for (int i = 0; i < conceptAnswers.size(); ++i) {
+								Concept c = conceptAnswers.get(i);
+								String label = null;
+								if (answerLabels != null && i < answerLabels.size()) {
+									label = answerLabels.get(i);
+								} else {
+									label = c.getBestName(locale).getName();
+								}
+								((SingleOptionWidget) valueWidget).addOption(new Option(label, c.getConceptId()
+								        .toString(), false));
 							}
-							((SingleOptionWidget) valueWidget).addOption(new Option(label, c.getConceptId().toString(),
-							        false));
 						}
 					}
 					if (existingObsList != null && !existingObsList.isEmpty()) {
@@ -756,8 +785,15 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 							throw new IllegalArgumentException("Invalid default value. Cannot find concept: " + defaultValue);
 						}
 						
-						if (!conceptAnswers.contains(initialValue)) {
+						boolean allowed = classAnswers != null ? classAnswers.getConceptIds().contains(
+						    initialValue.getConceptId()) : conceptAnswers.contains(initialValue);
+						if (!allowed) {
 							String allowedIds = "";
+							if (classAnswers != null) {
+								for (Integer conceptId : classAnswers.getConceptIds()) {
+									allowedIds += conceptId + ", ";
+								}
+							}
 							for (Concept conceptAnswer : conceptAnswers) {
 								allowedIds += conceptAnswer.getId() + ", ";
 							}
@@ -953,6 +989,17 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 			ans.setDisplayName(getAnswerLabel());
 			ans.setConcept(answerConcept);
 			field.setAnswers(Arrays.asList(ans));
+		} else if (classAnswers != null) {
+			// the concepts are only loaded if the schema's answers are looked at
+			List<Integer> conceptIds = classAnswers.getConceptIds();
+			for (int i = 0; i < conceptIds.size(); i++) {
+				ObsFieldAnswer ans = new ObsFieldAnswer();
+				ans.setConceptId(conceptIds.get(i));
+				if (i < answerLabels.size()) {
+					ans.setDisplayName(answerLabels.get(i));
+				}
+				field.getAnswers().add(ans);
+			}
 		} else if (conceptAnswers != null) {
 			for (int i = 0; i < conceptAnswers.size(); i++) {
 				ObsFieldAnswer ans = new ObsFieldAnswer();
@@ -993,7 +1040,7 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 		ret.append(valueLabel);
 		if (!"".equals(valueLabel))
 			ret.append(" ");
-		ret.append(valueWidget.generateHtml(context));
+		WidgetFactory.appendHtml(valueWidget, context, ret);
 		if (showUnits) {
 			if (concept == null || !concept.getDatatype().isNumeric()) {
 				throw new IllegalArgumentException("Can only show units when the concept is numeric");
@@ -1021,14 +1068,14 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 			if (dateLabel != null) {
 				ret.append(dateLabel);
 			}
-			ret.append(dateWidget.generateHtml(context));
+			WidgetFactory.appendHtml(dateWidget, context, ret);
 		}
 		if (accessionNumberWidget != null) {
 			ret.append(" ");
 			if (accessionNumberLabel != null) {
 				ret.append("<br/>" + accessionNumberLabel);
 			}
-			ret.append(accessionNumberWidget.generateHtml(context));
+			WidgetFactory.appendHtml(accessionNumberWidget, context, ret);
 		}
 		if (commentFieldWidget != null) {
 			ret.append(" ");
@@ -1038,7 +1085,7 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
                ret.append(Context.getMessageSourceService().getMessage("htmlformentry.comment")+":");
             }
 			ret.append(" ");
-			ret.append(commentFieldWidget.generateHtml(context));
+			WidgetFactory.appendHtml(commentFieldWidget, context, ret);
 		}
 
 		if (context.getMode() != Mode.VIEW) {
@@ -1047,7 +1094,7 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
                 ret.append("<span class='required'>*</span>");
             }
             ret.append(" ");
-			ret.append(errorWidget.generateHtml(context));
+			WidgetFactory.appendHtml(errorWidget, context, ret);
 		}
 		if (id != null || clazz != null) {
 			ret.append("</span>");
@@ -1292,9 +1339,13 @@ public class ObsSubmissionElement implements HtmlGeneratorElement, FormSubmissio
 	}
 	
 	/**
-	 * Returns the concepts that are potential answers to this Observation
+	 * Returns the concepts that are potential answers to this Observation. Answers that come from answerClasses are
+	 * loaded the first time this is called.
 	 */
 	public List<Concept> getConceptAnswers() {
+		if (classAnswers != null && conceptAnswers.isEmpty()) {
+			conceptAnswers.addAll(classAnswers.loadConcepts());
+		}
 		return conceptAnswers;
 	}
 	
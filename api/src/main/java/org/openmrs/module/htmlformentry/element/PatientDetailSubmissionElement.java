@@ -28,9 +28,9 @@ import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.OptionListCache;
 import org.openmrs.module.htmlformentry.ValidationException;
 import org.openmrs.module.htmlformentry.action.FormSubmissionControllerAction;
-import org.openmrs.module.htmlformentry.comparator.OptionComparator;
 import org.openmrs.module.htmlformentry.widget.AddressWidget;
 import org.openmrs.module.htmlformentry.widget.DateWidget;
 import org.openmrs.module.htmlformentry.widget.DropdownWidget;
@@ -39,6 +39,7 @@ import org.openmrs.module.htmlformentry.widget.HiddenFieldWidget;
 import org.openmrs.module.htmlformentry.widget.NameWidget;
 import org.openmrs.module.htmlformentry.widget.NumberFieldWidget;
 import org.openmrs.module.htmlformentry.widget.Option;
+import org.openmrs.module.htmlformentry.widget.OptionsFragment;
 import org.openmrs.module.htmlformentry.widget.TextFieldWidget;
 import org.openmrs.module.htmlformentry.widget.Widget;
 import org.openmrs.util.OpenmrsUtil;
@@ -50,7 +51,6 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -188,21 +188,26 @@ public class PatientDetailSubmissionElement implements HtmlGeneratorElement, For
 			defaultLocation = defaultLocation == null ? context.getDefaultLocation() : defaultLocation;
             identifierLocationWidget.setInitialValue(defaultLocation);
 
-            List<Option> locationOptions = new ArrayList<Option>();
-            for(Location location:Context.getLocationService().getAllLocations()) {
-                Option option = new Option(location.getName(), location.getId().toString(), location.equals(defaultLocation));
-                locationOptions.add(option);
-            }
-            Collections.sort(locationOptions, new OptionComparator());
+            // the sorted location options are shared between sessions, so only the selected one is copied
+            OptionsFragment locationFragment = OptionListCache.getFragment(OptionListCache.LOCATIONS, "identifier", Context.getLocale(),
+                true, new OptionListCache.Loader() {
+
+                    @Override
+                    public List<Option> load() {
+                        List<Option> ret = new ArrayList<Option>();
+                        for (Location location : Context.getLocationService().getAllLocations()) {
+                            ret.add(new Option(location.getName(), location.getId().toString(), false));
+                        }
+                        return ret;
+                    }
+                });
+            List<Option> locationOptions = OptionListCache.select(locationFragment.getOptions(),
+                defaultLocation == null ? null : defaultLocation.getId().toString());
 
             // if initialValueIsSet=false, no initial/default location, hence this shows the 'select input' field as first option
             boolean initialValueIsSet = !(defaultLocation == null);
             ((DropdownWidget) identifierLocationWidget).addOption(new Option(Context.getMessageSourceService().getMessage("htmlformentry.chooseALocation"), "", !initialValueIsSet));
-            if (!locationOptions.isEmpty()) {
-                    for(Option option: locationOptions){
-                    ((DropdownWidget) identifierLocationWidget).addOption(option);
-                    }
-            }
+            ((DropdownWidget) identifierLocationWidget).addOptions(locationOptions, locationFragment);
 			createWidgets(context, identifierLocationWidget, identifierLocationErrorWidget, defaultLocation);
 		}
 
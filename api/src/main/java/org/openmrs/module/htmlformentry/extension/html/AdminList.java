@@ -56,6 +56,7 @@ public class AdminList extends AdministrationSectionExt {
 		
 			map.put("module/htmlformentry/htmlForms.list", "htmlformentry.manage");
 			map.put("module/htmlformentry/htmlFormFromFile.form", "htmlformentry.preview");
+			map.put("module/htmlformentry/formSessionStore.list", "htmlformentry.formSessionStore");
 			if (HtmlFormEntryUtil.getService().needsNameAndDescriptionMigration()) {
 				map.put("module/htmlformentry/migrateNamesAndDescriptions.form", "htmlformentry.migrateNamesAndDescriptions");
 			}
@@ -1,10 +1,9 @@
 package org.openmrs.module.htmlformentry.handler;
 
-import org.openmrs.api.context.Context;
 import org.openmrs.logic.LogicCriteria;
-import org.openmrs.logic.LogicService;
 import org.openmrs.module.htmlformentry.BadFormDesignException;
 import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.htmlformentry.LogicCriteriaCache;
 import org.w3c.dom.Node;
 
 public abstract class LogicConditionalIncludeTagHandler extends SimpleConditionalIncludeTagHandler {
@@ -37,10 +36,9 @@ public abstract class LogicConditionalIncludeTagHandler extends SimpleConditiona
      */
     protected boolean processLogicIncludeLogic(FormEntrySession session, String testStr) throws BadFormDesignException {
 
-        LogicService ls = Context.getLogicService();
         LogicCriteria logicCriteria = null;
         try {
-            logicCriteria = ls.parse(testStr);
+            logicCriteria = LogicCriteriaCache.parse(testStr);
         } catch (Exception ex) {
             throw new BadFormDesignException(ex.getMessage());
         }
@@ -50,7 +48,7 @@ public abstract class LogicConditionalIncludeTagHandler extends SimpleConditiona
                 return false;
             else {
                 try {
-                    return ls.eval(session.getPatient(), logicCriteria).toBoolean();
+                    return session.evaluateLogicExpression(testStr, logicCriteria).toBoolean();
                 } catch (Exception ex) {
                     throw new BadFormDesignException(ex.getMessage());
                 }
@@ -3,20 +3,37 @@ package org.openmrs.module.htmlformentry.handler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.Translator;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 import java.io.PrintWriter;
 
 /**
  * Handles the {@code <section>} tag
+ * <p/>
+ * If the context is set to defer sections, the contents of every top-level section but the first are left out,
+ * and an empty placeholder div (with class {@link #DEFERRED_SECTION_CLASS} and the section index as its
+ * data-section-index attribute) is written instead, to be filled in with
+ * {@link FormEntrySession#renderSection(int)}.
  */
 public class SectionTagHandler extends AbstractTagHandler {
 
 	/** The logger to use with this class */
     protected final Log log = LogFactory.getLog(getClass());
     
+    public static final String DEFERRED_SECTION_CLASS = "htmlformentry-deferredSection";
+    
+    /**
+     * The request parameter that a section with section-scoped field names submits its index in, so that a
+     * submission missing a section that never arrived on the page can be told apart from one with blank fields
+     */
+    public static final String RENDERED_SECTION_PARAMETER = "htmlformentry-renderedSection";
+    
     @Override
     public boolean doStartTag(FormEntrySession session, PrintWriter out, Node parent, Node node) {
         String sectionTag = getAttribute(node, "sectionTag", "div");
@@ -43,8 +60,23 @@ public class SectionTagHandler extends AbstractTagHandler {
         	out.print("<" + headerTag + " class=\""+headerStyleClass+"\">"+headerLabel+"</" + headerTag + ">");
         }
         
-        session.getContext().getSchema().startNewSection();
-        session.getContext().getSchema().getCurrentSection().setName(headerLabel);
+        FormEntryContext context = session.getContext();
+        context.getSchema().startNewSection();
+        context.getSchema().getCurrentSection().setName(headerLabel);
+        
+        context.beginSection();
+        if (context.isInTopLevelSection() && (context.isSectionScopedFieldNames() || context.isDeferSections())) {
+            int sectionIndex = getSectionIndex(node);
+            context.beginFieldNameScope(getFieldNamePrefix(sectionIndex));
+            if (sectionIndex > 0) {
+                context.addScopedSection(sectionIndex);
+                if (context.isDeferSections()) {
+                    out.print("<div class=\"" + DEFERRED_SECTION_CLASS + "\" data-section-index=\"" + sectionIndex + "\"></div>");
+                    return false;
+                }
+                out.print(getRenderedSectionMarker(sectionIndex));
+            }
+        }
         
         return true;
     }
@@ -53,7 +85,59 @@ public class SectionTagHandler extends AbstractTagHandler {
     public void doEndTag(FormEntrySession session, PrintWriter out, Node parent, Node node) {
         String sectionTag = getAttribute(node, "sectionTag", "div");
     	out.print("</" + sectionTag + ">");
-    	session.getContext().getSchema().endSection();
+    	
+    	FormEntryContext context = session.getContext();
+    	if (context.isInTopLevelSection() && (context.isSectionScopedFieldNames() || context.isDeferSections())) {
+    		context.endFieldNameScope();
+    	}
+    	context.endSection();
+    	context.getSchema().endSection();
+    }
+    
+    /**
+     * @param sectionIndex
+     * @return the prefix of the names of the fields within the given top-level section, when they are scoped by
+     *         section
+     */
+    public static String getFieldNamePrefix(int sectionIndex) {
+        return "s" + sectionIndex + "w";
+    }
+    
+    /**
+     * @param sectionIndex
+     * @return a hidden input that submits the index of a section with section-scoped field names, to show that
+     *         its fields were on the page
+     */
+    public static String getRenderedSectionMarker(int sectionIndex) {
+        return "<input type=\"hidden\" name=\"" + RENDERED_SECTION_PARAMETER + "\" value=\"" + sectionIndex + "\"/>";
+    }
+    
+    /**
+     * @param node a {@code <section>} element
+     * @return the index of the section among all sections of its document, in document order (consistent with
+     *         {@link org.openmrs.module.htmlformentry.export.HtmlFormEntryExportUtil#getSectionIndex})
+     */
+    public static int getSectionIndex(Node node) {
+        NodeList sections = node.getOwnerDocument().getElementsByTagName("section");
+        for (int i = 0; i < sections.getLength(); i++) {
+            if (sections.item(i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * @param document
+     * @param sectionIndex
+     * @return the section with the given index (see {@link #getSectionIndex(Node)}), or null if there is none
+     */
+    public static Element getSection(Document document, int sectionIndex) {
+        NodeList sections = document.getElementsByTagName("section");
+        if (sectionIndex < 0 || sectionIndex >= sections.getLength()) {
+            return null;
+        }
+        return (Element) sections.item(sectionIndex);
     }
 
 }
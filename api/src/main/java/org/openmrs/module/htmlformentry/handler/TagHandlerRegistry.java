@@ -0,0 +1,134 @@
+package org.openmrs.module.htmlformentry.handler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The module-wide table of {@link TagHandler}s by tag name.
+ * <p/>
+ * Handlers are registered rarely (when the service is configured, or when another module adds its own tags), but
+ * looked up for every element of every form that is rendered. So each registration builds a new immutable table
+ * and publishes it through a volatile field, and lookups just read the current table without locking or going
+ * through the (transactional) service proxy.
+ * <p/>
+ * Along with the map, the table keeps a bit mask of the lengths of the registered tag names for each first
+ * character. Most plain html elements ({@code div}, {@code td}, {@code span}...) and all text nodes fail this check,
+ * so {@link #getHandler(String)} returns null for them without a map lookup.
+ */
+public class TagHandlerRegistry {
+
+	private static final Object lock = new Object();
+
+	private static volatile Table table = new Table(new LinkedHashMap<String, TagHandler>());
+
+	/**
+	 * Registers a handler, replacing any handler already registered for the same tag name
+	 *
+	 * @param tagName
+	 * @param handler
+	 */
+	public static void register(String tagName, TagHandler handler) {
+		synchronized (lock) {
+			LinkedHashMap<String, TagHandler> handlers = new LinkedHashMap<String, TagHandler>(table.handlers);
+			handlers.put(tagName, handler);
+			table = new Table(handlers);
+		}
+	}
+
+	/**
+	 * Registers all the given handlers, replacing any handlers already registered for the same tag names
+	 *
+	 * @param handlersToRegister
+	 */
+	public static void registerAll(Map<String, TagHandler> handlersToRegister) {
+		synchronized (lock) {
+			LinkedHashMap<String, TagHandler> handlers = new LinkedHashMap<String, TagHandler>(table.handlers);
+			handlers.putAll(handlersToRegister);
+			table = new Table(handlers);
+		}
+	}
+
+	/**
+	 * Removes the handler registered for the given tag name, if any
+	 *
+	 * @param tagName
+	 */
+	public static void unregister(String tagName) {
+		synchronized (lock) {
+			if (!table.handlers.containsKey(tagName)) {
+				return;
+			}
+			LinkedHashMap<String, TagHandler> handlers = new LinkedHashMap<String, TagHandler>(table.handlers);
+			handlers.remove(tagName);
+			table = new Table(handlers);
+		}
+	}
+
+	/**
+	 * @param tagName
+	 * @return the handler registered for the given tag name, or null if there is none
+	 */
+	public static TagHandler getHandler(String tagName) {
+		return table.get(tagName);
+	}
+
+	/**
+	 * @return an unmodifiable map of all registered handlers, in the order they were registered
+	 */
+	public static Map<String, TagHandler> getHandlers() {
+		return table.handlers;
+	}
+
+	private static class Table {
+
+		private final Map<String, TagHandler> handlers;
+
+		private final HashMap<String, TagHandler> lookup;
+
+		// for each (ascii) first character, bit n is set if a tag name of length n starts with it (lengths of 63
+		// and over share bit 63)
+		private final long[] lengthsByFirstChar = new long[128];
+
+		// set if a tag name starts with a non-ascii character, which the masks above don't cover
+		private final boolean nonAsciiNames;
+
+		private Table(LinkedHashMap<String, TagHandler> handlers) {
+			this.handlers = Collections.unmodifiableMap(handlers);
+			this.lookup = new HashMap<String, TagHandler>(handlers);
+			boolean nonAscii = false;
+			for (String tagName : handlers.keySet()) {
+				if (tagName == null || tagName.length() == 0) {
+					continue;
+				}
+				char c = tagName.charAt(0);
+				if (c < lengthsByFirstChar.length) {
+					lengthsByFirstChar[c] |= lengthBit(tagName.length());
+				} else {
+					nonAscii = true;
+				}
+			}
+			this.nonAsciiNames = nonAscii;
+		}
+
+		private TagHandler get(String tagName) {
+			if (tagName == null || tagName.length() == 0) {
+				return null;
+			}
+			char c = tagName.charAt(0);
+			if (c < lengthsByFirstChar.length) {
+				if ((lengthsByFirstChar[c] & lengthBit(tagName.length())) == 0) {
+					return null;
+				}
+			} else if (!nonAsciiNames) {
+				return null;
+			}
+			return lookup.get(tagName);
+		}
+
+		private static long lengthBit(int length) {
+			return 1L << Math.min(length, 63);
+		}
+	}
+}
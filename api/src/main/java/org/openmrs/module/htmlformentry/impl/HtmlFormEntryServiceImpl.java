@@ -2,9 +2,8 @@ package org.openmrs.module.htmlformentry.impl;
 
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,10 +14,12 @@ import org.apache.velocity.VelocityContext;
 import org.apache.velocity.app.VelocityEngine;
 import org.apache.velocity.runtime.RuntimeConstants;
 import org.apache.velocity.runtime.log.CommonsLogLogChute;
-import org.openmrs.Cohort;
+import org.openmrs.Encounter;
+import org.openmrs.EncounterType;
 import org.openmrs.Form;
 import org.openmrs.OpenmrsMetadata;
 import org.openmrs.OpenmrsObject;
+import org.openmrs.Patient;
 import org.openmrs.Person;
 import org.openmrs.Program;
 import org.openmrs.api.context.Context;
@@ -28,9 +29,11 @@ import org.openmrs.module.htmlformentry.FormEntrySession;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
+import org.openmrs.module.htmlformentry.OptionListCache;
 import org.openmrs.module.htmlformentry.db.HtmlFormEntryDAO;
 import org.openmrs.module.htmlformentry.element.PersonStub;
 import org.openmrs.module.htmlformentry.handler.TagHandler;
+import org.openmrs.module.htmlformentry.handler.TagHandlerRegistry;
 
 /**
  * Standard implementation of the HtmlFormEntryService
@@ -40,7 +43,6 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
     protected final Log log = LogFactory.getLog(getClass());
     
     private HtmlFormEntryDAO dao;
-    private static Map<String, TagHandler> handlers = new LinkedHashMap<String, TagHandler>();
     private String basicFormXmlTemplate;
 
 	/*
@@ -54,17 +56,17 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
     
     @Override
     public void addHandler(String tagName, TagHandler handler) {
-        handlers.put(tagName, handler);
+        TagHandlerRegistry.register(tagName, handler);
     }
     
     @Override
     public TagHandler getHandlerByTagName(String tagName){
-        return handlers.get(tagName);
+        return TagHandlerRegistry.getHandler(tagName);
     }
     
     @Override
     public Map<String, TagHandler> getHandlers(){
-        return handlers;
+        return TagHandlerRegistry.getHandlers();
     }
     
     /**
@@ -73,7 +75,7 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
      * @param handlersToSet
      */
     public void setHandlers(Map<String, TagHandler> handlersToSet) {
-        handlers.putAll(handlersToSet);
+        TagHandlerRegistry.registerAll(handlersToSet);
     }
     
     /**
@@ -138,6 +140,21 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
         return dao.getHtmlFormByForm(form);
     }
     
+    @Override
+    public boolean hasEncounterForHtmlForm(Integer patientId, HtmlForm htmlForm, Date encounterDatetime) {
+        Form form = htmlForm.getForm();
+        // encounters of a form only count for the form's current HtmlForm
+        if (form == null || !htmlForm.equals(dao.getHtmlFormByForm(form))) {
+            return false;
+        }
+        return dao.hasEncounter(patientId, form, encounterDatetime);
+    }
+    
+    @Override
+    public Encounter getLatestEncounter(Patient patient, EncounterType encounterType) {
+        return dao.getLatestEncounter(patient, encounterType);
+    }
+    
 	@Override
     public boolean needsNameAndDescriptionMigration() {
 		if (nameAndDescriptionMigrationDone) {
@@ -184,8 +201,14 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
     }
 	
     @Override
-	public List<PersonStub> getUsersAsPersonStubs(String roleName){
-	    return  dao.getUsersAsPersonStubs(roleName);
+	public List<PersonStub> getUsersAsPersonStubs(final String roleName){
+	    return OptionListCache.getPersonStubs("users:" + roleName, new OptionListCache.PersonStubLoader() {
+	    	
+	    	@Override
+	    	public List<PersonStub> load() {
+	    		return dao.getUsersAsPersonStubs(roleName);
+	    	}
+	    });
 	}
 
     @Override
@@ -198,6 +221,16 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
 	    return dao.getItemById(type, id);
     }
 
+    @Override
+    public List<OpenmrsObject> getItemsByIds(Class<? extends OpenmrsObject> type, Collection<Integer> ids) {
+	    return dao.getItemsByIds(type, ids);
+    }
+
+    @Override
+    public List<OpenmrsObject> getItemsByUuids(Class<? extends OpenmrsObject> type, Collection<String> uuids) {
+	    return dao.getItemsByUuids(type, uuids);
+    }
+
     @Override
     public OpenmrsObject getItemByName(Class<? extends OpenmrsMetadata> type, String name) {
 	    return dao.getItemByName(type, name);
@@ -208,100 +241,57 @@ public class HtmlFormEntryServiceImpl extends BaseOpenmrsService implements Html
     		    
     	return dao.getPersonIdHavingAttributes(attribute, attributeValue);
     }
+    
+    @Override
+    public Set<Integer> getPersonIdsHavingAttributesAndPrograms(List<String> attributes, List<String> attributeValues,
+                                                              List<Program> programs) {
+    	return dao.getPersonIdsHavingAttributesAndPrograms(attributes, attributeValues, programs);
+    }
+    
+    @Override
+    public List<Integer> getPersonIdsByNameOrIdentifier(String searchPhrase, List<String> attributes,
+                                                        List<String> attributeValues, List<Program> programs,
+                                                        int firstResult, int maxResults) {
+    	return dao.getPersonIdsByNameOrIdentifier(searchPhrase, attributes, attributeValues, programs, firstResult,
+    	    maxResults);
+    }
+    
+    @Override
+    public int getPersonCountByNameOrIdentifier(String searchPhrase, List<String> attributes,
+                                                List<String> attributeValues, List<Program> programs) {
+    	return dao.getPersonCountByNameOrIdentifier(searchPhrase, attributes, attributeValues, programs);
+    }
 	 	
 	@Override
     public List<PersonStub> getPeopleAsPersonStubs(List<String> attributes, List<String> attributeValues, List<String> programIds, List<Person> personsToExclude){
-		List<PersonStub> stubs = new ArrayList<PersonStub>();
-		
-		Set<Integer> attributeMatches = null;
-		Set<Integer> programMatches = null;
-		
-		if(attributes != null)
-		{
-			for(int i = 0; i < attributes.size(); i++)
-			{
-				String attr = attributes.get(i);
-				String val = null;
-				if(attributeValues != null && attributeValues.size() > i)
-				{
-					val = attributeValues.get(i);
-				}
-				
-				Set<Integer> setOfIds = new HashSet<Integer>();
-				setOfIds.addAll(getPersonIdsHavingAttributes(attr, val));
-					
-				if(attributeMatches != null)
-				{
-					attributeMatches.retainAll(setOfIds);
-				}
-				else
-				{
-					attributeMatches = setOfIds;
-				}
-			}
-		}
-		
-		if(programIds != null)
-		{
-			for(String prog: programIds)
-		{
-				if(prog != null && prog.trim().length() > 0)
-				{
+		boolean hasAttributes = attributes != null && !attributes.isEmpty();
+		boolean hasPrograms = programIds != null && !programIds.isEmpty();
+		List<Program> programs = new ArrayList<Program>();
+		if (hasPrograms) {
+			for (String prog : programIds) {
+				if (prog != null && prog.trim().length() > 0) {
 					Program personProgram = HtmlFormEntryUtil.getProgram(prog);
-					
-					if(personProgram != null)
-					{
-						Cohort pp = Context.getPatientSetService().getPatientsInProgram(personProgram, null, null);
-						if(programMatches != null)
-						{
-							programMatches.retainAll(pp.getMemberIds());
-						}
-						else 
-						{
-							programMatches = pp.getMemberIds();
-						}
+					if (personProgram != null) {
+						programs.add(personProgram);
 					}
 				}
 			}
 		}
-		
-		Set<Integer> results;
-		
-		// if no attributes specified, just use to the program matches
-		if (attributes == null || attributes.isEmpty()) {
-			results = programMatches;
+		// with no attributes, or with programs none of which exist, nobody matches
+		if ((!hasAttributes && !hasPrograms) || (hasPrograms && programs.isEmpty())) {
+			return new ArrayList<PersonStub>();
 		}
-		// if no programs specified, just use the attribute matches
-		else if (programIds == null || programIds.isEmpty()) {
-			results = attributeMatches;
-		}
-		// otherwise, intersect the results
-		else {
-			results = programMatches;
-			if (results != null) {
-				results.retainAll(attributeMatches);
-			}
-		}
-		
 		
-		if(results != null)
-		{
-			//now iterate through the results, returning person stubs
-			for(Integer id : results)
-			{
-				Person person = Context.getPersonService().getPerson(id);
-				if(person != null && !personsToExclude.contains(person))
-				{
-					PersonStub pStub = new PersonStub();
-					pStub.setGivenName(person.getGivenName());
-					pStub.setFamilyName(person.getFamilyName());
-					pStub.setMiddleName(person.getMiddleName());
-				pStub.setId(id);
-					stubs.add(pStub);
+		Set<Integer> results = getPersonIdsHavingAttributesAndPrograms(hasAttributes ? attributes : null,
+		    attributeValues, programs);
+		if (personsToExclude != null) {
+			for (Person person : personsToExclude) {
+				if (person != null) {
+					results.remove(person.getPersonId());
 				}
 			}
 		}
-		return stubs;
+		return dao.getPeopleAsPersonStubs(results);
 	}
 	
 	@Override
@@ -1,6 +1,7 @@
 package org.openmrs.module.htmlformentry.schema;
 
 import org.openmrs.Concept;
+import org.openmrs.api.context.Context;
 
 /**
  * Represents an Obs field answer in the HTML Form Schema
@@ -9,6 +10,7 @@ public class ObsFieldAnswer {
 
 	private String displayName;
 	private Concept concept;
+	private Integer conceptId;
     
     public ObsFieldAnswer() { }
     
@@ -36,11 +38,14 @@ public class ObsFieldAnswer {
 	}
 
 	/**
-	 * Gets the concept associated with this answer
+	 * Gets the concept associated with this answer, loading it if only its id was set
 	 * 
 	 * @return the concept
 	 */
 	public Concept getConcept() {
+		if (concept == null && conceptId != null) {
+			concept = Context.getConceptService().getConcept(conceptId);
+		}
 		return concept;
 	}
 
@@ -52,4 +57,14 @@ public class ObsFieldAnswer {
 	public void setConcept(Concept concept) {
 		this.concept = concept;
 	}
+
+	/**
+	 * Sets the id of the concept associated with this answer, so that the concept is only loaded if it is asked for
+	 * 
+	 * @param conceptId the id of the concept
+	 */
+	public void setConceptId(Integer conceptId) {
+		this.conceptId = conceptId;
+		this.concept = null;
+	}
 }
@@ -0,0 +1,167 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.htmlformentry.velocity;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.velocity.VelocityContext;
+
+/**
+ * A {@link VelocityContext} whose more expensive variables are only computed when a template first uses them, so
+ * that forms without velocity expressions don't pay for them.
+ * <p/>
+ * Values put with {@link #putLazy(String, LazyValue)} are computed on first lookup. The populator set with
+ * {@link #setPopulator(Populator)} (which runs the {@link VelocityContextContentProvider}s) is run the first time a
+ * variable is looked up that has no value yet, or a variable that was put before it was set. Its values take
+ * precedence over the ones put before it was set, and the ones put after it was set take precedence over its values,
+ * just as if it had been run when it was set.
+ */
+public class LazyVelocityContext extends VelocityContext {
+
+	/**
+	 * Computes the value of a variable
+	 */
+	public static abstract class LazyValue {
+
+		public abstract Object compute();
+	}
+
+	/**
+	 * Puts variables into a context
+	 */
+	public static abstract class Populator {
+
+		public abstract void populate(VelocityContext context);
+	}
+
+	private final Map<String, LazyValue> lazyValues = new HashMap<String, LazyValue>();
+
+	private Populator populator;
+
+	// the variables put before the populator was set, which it may overwrite, so it is run before they are looked up
+	private Set<String> putBeforePopulator;
+
+	// the variables put after the populator was set, which it must not overwrite
+	private Set<String> putAfterPopulator;
+
+	/**
+	 * Adds a variable whose value is computed the first time it is looked up
+	 *
+	 * @param key
+	 * @param value
+	 */
+	public void putLazy(String key, LazyValue value) {
+		super.internalRemove(key);
+		lazyValues.put(key, value);
+	}
+
+	/**
+	 * Sets the populator, to be run the first time a variable without a value is looked up
+	 *
+	 * @param populator
+	 */
+	public void setPopulator(Populator populator) {
+		this.putBeforePopulator = new HashSet<String>();
+		for (Object key : super.internalGetKeys()) {
+			putBeforePopulator.add((String) key);
+		}
+		this.populator = populator;
+		this.putAfterPopulator = new HashSet<String>();
+	}
+
+	@Override
+	public Object internalGet(String key) {
+		if (populator != null && putBeforePopulator.contains(key)) {
+			populate();
+		}
+		Object ret = super.internalGet(key);
+		if (ret == null && (populator != null || lazyValues.containsKey(key))) {
+			populate();
+			ret = super.internalGet(key);
+			if (ret == null) {
+				ret = compute(key);
+			}
+		}
+		return ret;
+	}
+
+	@Override
+	public Object internalPut(String key, Object value) {
+		lazyValues.remove(key);
+		if (populator != null) {
+			putBeforePopulator.remove(key);
+			putAfterPopulator.add(key);
+		}
+		return super.internalPut(key, value);
+	}
+
+	@Override
+	public boolean internalContainsKey(Object key) {
+		populate();
+		return lazyValues.containsKey(key) || super.internalContainsKey(key);
+	}
+
+	@Override
+	public Object[] internalGetKeys() {
+		populate();
+		for (String key : new HashSet<String>(lazyValues.keySet())) {
+			compute(key);
+		}
+		return super.internalGetKeys();
+	}
+
+	@Override
+	public Object internalRemove(Object key) {
+		lazyValues.remove(key);
+		return super.internalRemove(key);
+	}
+
+	private Object compute(String key) {
+		LazyValue lazy = lazyValues.remove(key);
+		if (lazy == null) {
+			return null;
+		}
+		Object value = lazy.compute();
+		if (value != null) {
+			super.internalPut(key, value);
+		}
+		return value;
+	}
+
+	private void populate() {
+		if (populator == null) {
+			return;
+		}
+		// cleared first, so that lookups made by the populator don't run it again
+		Populator toRun = populator;
+		populator = null;
+		Map<String, Object> later = new HashMap<String, Object>();
+		for (String key : putAfterPopulator) {
+			later.put(key, super.internalGet(key));
+		}
+		putBeforePopulator = null;
+		putAfterPopulator = null;
+
+		toRun.populate(this);
+
+		for (Map.Entry<String, Object> entry : later.entrySet()) {
+			if (entry.getValue() != null) {
+				internalPut(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import java.io.IOException;
+
+import org.openmrs.module.htmlformentry.FormEntryContext;
+
+/**
+ * A widget that can write its html straight to an output, rather than building a String that the caller then has
+ * to copy. Implementations usually implement {@link Widget#generateHtml(FormEntryContext)} with
+ * {@link WidgetFactory#generateHtml(AppendableWidget, FormEntryContext)}, and callers that have an output at hand
+ * should render widgets with {@link WidgetFactory#appendHtml(Widget, FormEntryContext, Appendable)}.
+ */
+public interface AppendableWidget extends Widget {
+
+	/**
+	 * Called by the framework to draw this widget on a page, writing the same html as
+	 * {@link Widget#generateHtml(FormEntryContext)} returns
+	 * 
+	 * @param context
+	 * @param out where to write the html
+	 * @throws IOException if writing to the output fails
+	 */
+	public void generateHtml(FormEntryContext context, Appendable out) throws IOException;
+
+}
@@ -1,5 +1,6 @@
 package org.openmrs.module.htmlformentry.widget;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 
@@ -12,7 +13,7 @@ import org.springframework.web.util.HtmlUtils;
  *   list of  predefined options
  */
 
-public class AutocompleteWidget extends  SingleOptionWidget{
+public class AutocompleteWidget extends  SingleOptionWidget implements AppendableWidget {
 
     private Option initialOption;
     private Class optionClass;
@@ -31,9 +32,14 @@ public class AutocompleteWidget extends  SingleOptionWidget{
      */
     @Override
     public String generateHtml(FormEntryContext context) {
+        return WidgetFactory.generateHtml(this, context);
+    }
 
-         String optionNames = null;
-         String optionValues = null;
+    /**
+     * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+     */
+    @Override
+    public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
 
          if (context.getMode() == FormEntryContext.Mode.VIEW) {
             String toPrint = "";
@@ -50,20 +56,14 @@ public class AutocompleteWidget extends  SingleOptionWidget{
                 if(!found){
                     toPrint = getInitialValue();
                 }
-                return WidgetFactory.displayValue(toPrint);
+                out.append(WidgetFactory.displayValue(toPrint));
             } else {
                 toPrint = "____";
-                return WidgetFactory.displayEmptyValue(toPrint);
+                out.append(WidgetFactory.displayEmptyValue(toPrint));
             }
         }else {
-            StringBuilder sb = new StringBuilder();
             String id = context.getFieldName(this);
 
-            if(!getOptions().isEmpty()){
-            optionNames = getNamesAsString(getOptions());
-            optionValues = getValuesAsString(getOptions());
-            }
-
             // set the previously given option into widget, when editing the form
             if (context.getMode() == FormEntryContext.Mode.EDIT) {
              for (Option o : getOptions()) {
@@ -83,44 +83,54 @@ public class AutocompleteWidget extends  SingleOptionWidget{
             }
 
 
-            sb.append("<input type=\"text\" id=\"" + id + "\" value=\""
-			        + ((initialOption != null) ? HtmlUtils.htmlEscape(initialOption.getLabel()) : "")
-			        + "\" onblur=\"onBlurAutocomplete(this)\" class=\"optionAutoComplete\""
-                    + " onfocus=\"setupOptionAutocomplete(this,'" +optionNames +"','"
-                    + optionValues + "')\" onchange=\"setValWhenAutocompleteFieldBlanked(this)\" placeholder=\""
-			        + Context.getMessageSourceService().getMessage("htmlformentry.form.value.placeholder") + "\" />");
-
-			sb.append("\n<input type=\"hidden\" class=\"optionAutoCompleteHidden\" id=\"" + id + "_hid" + "\" name=\""
-			        + id + "\" value=\"" + ((initialOption != null) ? initialOption.getValue() : "")
-			        + "\" />");
-            return sb.toString();
+            out.append("<input type=\"text\" id=\"").append(id).append("\" value=\"")
+                    .append((initialOption != null) ? HtmlUtils.htmlEscape(initialOption.getLabel()) : "")
+                    .append("\" onblur=\"onBlurAutocomplete(this)\" class=\"optionAutoComplete\"")
+                    .append(" onfocus=\"setupOptionAutocomplete(this,'");
+            appendNames(out, getOptions());
+            out.append("','");
+            appendValues(out, getOptions());
+            out.append("')\" onchange=\"setValWhenAutocompleteFieldBlanked(this)\" placeholder=\"")
+                    .append(Context.getMessageSourceService().getMessage("htmlformentry.form.value.placeholder"))
+                    .append("\" />");
+
+            out.append("\n<input type=\"hidden\" class=\"optionAutoCompleteHidden\" id=\"").append(id)
+                    .append("_hid").append("\" name=\"").append(id).append("\" value=\"")
+                    .append((initialOption != null) ? initialOption.getValue() : "").append("\" />");
         }
     }
 
     /**
+     * Appends all the option values, separated by commas, or "null" if there are no options (which is what
+     * the javascript has always been given)
      *
+     * @param  out
      * @param  options
-     * @return a single string with all the option values appended into it
      */
-    private String getValuesAsString(List<Option> options) {
-
-       StringBuilder valueSb = new StringBuilder();
+    private void appendValues(Appendable out, List<Option> options) throws IOException {
+            if (options.isEmpty()) {
+                out.append("null");
+                return;
+            }
             for (Iterator<Option> it = options.iterator(); it.hasNext();) {
-                valueSb.append(it.next().getValue());
+                out.append(it.next().getValue());
 				if (it.hasNext()){
-                   valueSb.append(",");
+                   out.append(",");
                 }
 			}
-       return valueSb.toString();
     }
 
     /*
+     * Appends all the option names, escaped and separated by commas ("null" if there are no options)
+     *
+     * @param  out
      * @param  options
-     * @return a single string with all the option names appended into it
      */
-    private String getNamesAsString(List<Option> options) {
-
-            StringBuilder nameSb = new StringBuilder();
+    private void appendNames(Appendable out, List<Option> options) throws IOException {
+            if (options.isEmpty()) {
+                out.append("null");
+                return;
+            }
             for (Iterator<Option> it = options.iterator(); it.hasNext();) {
                 String originalOption = it.next().getLabel();
 
@@ -130,12 +140,11 @@ public class AutocompleteWidget extends  SingleOptionWidget{
                 originalOption = originalOption.replace("'", "\\" +"'");
                 originalOption = originalOption.replace("\"", "\\" +"'" );
 
-				nameSb.append(originalOption);
+				out.append(originalOption);
 				if (it.hasNext()){
-                   nameSb.append(",");
+                   out.append(",");
                 }
 			}
-        return nameSb.toString();
     }
 
     public Option getInitialOption() {
@@ -4,11 +4,12 @@ import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 
 /**
  * A checkbox widget, like {@code <input type="checkbox"/>}
  */
-public class CheckboxWidget implements Widget {
+public class CheckboxWidget implements AppendableWidget {
 
     private Object initialValue;
     private String value = "true";
@@ -80,29 +81,36 @@ public class CheckboxWidget implements Widget {
      */
     @Override
     public String generateHtml(FormEntryContext context) {
-        StringBuilder sb = new StringBuilder();
+        return WidgetFactory.generateHtml(this, context);
+    }
+
+    /**
+     * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+     */
+    @Override
+    public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
         if (context.getMode() == Mode.VIEW) {
             String labelString = "";
             if  (label != null)
                 labelString = "&#160;" + label;
             if (initialValue != null) {
-                sb.append(WidgetFactory.displayValue("[X]" + labelString));
+                out.append(WidgetFactory.displayValue("[X]" + labelString));
             } else {
-                sb.append(WidgetFactory.displayEmptyValue("[&#160;&#160;]" + labelString));
+                out.append(WidgetFactory.displayEmptyValue("[&#160;&#160;]" + labelString));
             }    
         } else {
-            sb.append("<input type=\"checkbox\" id=\"").append(context.getFieldName(this)).append("\" name=\"").append(context.getFieldName(this))
+            String fieldName = context.getFieldName(this);
+            out.append("<input type=\"checkbox\" id=\"").append(fieldName).append("\" name=\"").append(fieldName)
                 .append("\" value=\"").append(value).append("\"");
             if (initialValue != null && !"".equals(initialValue))
-                sb.append(" checked=\"true\"");
+                out.append(" checked=\"true\"");
             if (toggleTarget != null && toggleTarget.trim().length() > 0) 
-            	sb.append(" toggle" + (toggleDimInd ? "Dim" : "Hide") + "=\"" + toggleTarget + "\"");
-            sb.append("/>");
+            	out.append(toggleDimInd ? " toggleDim=\"" : " toggleHide=\"").append(toggleTarget).append("\"");
+            out.append("/>");
             if (label != null)
-                sb.append("<label for=\"").append(context.getFieldName(this)).append("\">").append(label).append("</label>");
-            sb.append("<input type=\"hidden\" name=\"_").append(context.getFieldName(this)).append("\"/>");
+                out.append("<label for=\"").append(fieldName).append("\">").append(label).append("</label>");
+            out.append("<input type=\"hidden\" name=\"_").append(fieldName).append("\"/>");
         }
-        return sb.toString();
     }
 
     /**
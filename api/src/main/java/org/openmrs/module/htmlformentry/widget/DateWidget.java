@@ -4,10 +4,12 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.HtmlFormEntryConstants;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGlobalProperties;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.springframework.util.StringUtils;
 
 import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -16,7 +18,7 @@ import java.util.Locale;
  * A widget that allows the selection of a specific day, month, and year. To handle both
  * a date and time, see {@see DateTimeWidget}.
  */
-public class DateWidget implements Widget {
+public class DateWidget implements AppendableWidget {
     
     private Date initialValue;
     private String onChangeFunction;
@@ -26,7 +28,7 @@ public class DateWidget implements Widget {
     public DateWidget() { }
 
     private SimpleDateFormat dateFormat() {
-    	String df = dateFormat != null ? dateFormat : Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_DATE_FORMAT); 
+    	String df = dateFormat != null ? dateFormat : HtmlFormEntryGlobalProperties.getGlobalProperty(HtmlFormEntryConstants.GP_DATE_FORMAT); 
     	if (StringUtils.hasText(df)) {
     		return new SimpleDateFormat(df, Context.getLocale());
     	} else {
@@ -35,7 +37,7 @@ public class DateWidget implements Widget {
     }
     public String getYearsRange()
     {
-    	 return Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_YEARS_RANGE, "110,20");
+    	 return HtmlFormEntryGlobalProperties.getGlobalProperty(HtmlFormEntryConstants.GP_YEARS_RANGE, "110,20");
     }
     private String jsDateFormat() {
     	String ret = dateFormat().toPattern();
@@ -65,42 +67,50 @@ public class DateWidget implements Widget {
     
     @Override
     public String generateHtml(FormEntryContext context) {
+        return WidgetFactory.generateHtml(this, context);
+    }
+
+    /**
+     * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+     */
+    @Override
+    public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
         if (context.getMode() == Mode.VIEW) {
             String toPrint = "";
             if (initialValue != null) {
                 toPrint = dateFormat().format(initialValue);
-                return WidgetFactory.displayValue(toPrint);
+                out.append(WidgetFactory.displayValue(toPrint));
             } else {
                 toPrint = "________";
-                return WidgetFactory.displayEmptyValue(toPrint);
+                out.append(WidgetFactory.displayEmptyValue(toPrint));
             }
         } else {
-            StringBuilder sb = new StringBuilder();
             String fieldName = context.getFieldName(this);
             if (!hidden) {
-                sb.append("<input type=\"text\" size=\"10\" id=\"").append(fieldName).append("-display\"/>");
+                out.append("<input type=\"text\" size=\"10\" id=\"").append(fieldName).append("-display\"/>");
             }
-            sb.append("<input type=\"hidden\" name=\"").append(fieldName).append("\" id=\"").append(fieldName).append("\"");
+            out.append("<input type=\"hidden\" name=\"").append(fieldName).append("\" id=\"").append(fieldName).append("\"");
             if (onChangeFunction != null) {
-                sb.append(" onChange=\"" + onChangeFunction + "\" ");
+                out.append(" onChange=\"").append(onChangeFunction).append("\" ");
             }
             if (hidden && initialValue != null) {
                 // set the value here, since it won't be set by the ui widget
-                sb.append(" value=\"" + new SimpleDateFormat("yyyy-MM-dd").format(initialValue) + "\"");
+                out.append(" value=\"").append(new SimpleDateFormat("yyyy-MM-dd").format(initialValue)).append("\"");
             }
-            sb.append(" />");
+            out.append(" />");
 
             if (!hidden) {
-                if ("true".equals(Context.getAdministrationService().getGlobalProperty(HtmlFormEntryConstants.GP_SHOW_DATE_FORMAT))) {
-                    sb.append(" (" + dateFormat().toPattern().toLowerCase() + ")");
+                if ("true".equals(HtmlFormEntryGlobalProperties.getGlobalProperty(HtmlFormEntryConstants.GP_SHOW_DATE_FORMAT))) {
+                    out.append(" (").append(dateFormat().toPattern().toLowerCase()).append(")");
                 }
 
-                sb.append("<script>setupDatePicker('" + jsDateFormat() + "', '" + getYearsRange() + "','" + getLocaleForJquery() + "', '#" + fieldName + "-display', '#" + fieldName + "'");
+                out.append("<script>setupDatePicker('").append(jsDateFormat()).append("', '").append(getYearsRange())
+                        .append("','").append(getLocaleForJquery()).append("', '#").append(fieldName)
+                        .append("-display', '#").append(fieldName).append("'");
                 if (initialValue != null)
-                    sb.append(", '" + new SimpleDateFormat("yyyy-MM-dd").format(initialValue) + "'");
-                sb.append(")</script>");
+                    out.append(", '").append(new SimpleDateFormat("yyyy-MM-dd").format(initialValue)).append("'");
+                out.append(")</script>");
             }
-            return sb.toString();
         }
     }
 
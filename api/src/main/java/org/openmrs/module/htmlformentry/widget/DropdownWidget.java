@@ -1,14 +1,22 @@
 package org.openmrs.module.htmlformentry.widget;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 
 /**
  * A dropdown widget, like {@code <select name="..."><option value="...">...</option></select>}
  */
-public class DropdownWidget extends SingleOptionWidget {
+public class DropdownWidget extends SingleOptionWidget implements AppendableWidget {
 
     private Integer size;
+
+    // pre-rendered fragments for ranges of the options, keyed by the index of the first option of the range
+    private Map<Integer, OptionsFragment> fragments = new TreeMap<Integer, OptionsFragment>();
 	/**
 	 * Default Constructor
 	 */
@@ -18,13 +26,44 @@ public class DropdownWidget extends SingleOptionWidget {
            this.size = size;
     }
 
+    /**
+     * Adds options that are the options of a pre-rendered fragment, except for a few that may differ (typically a
+     * selected copy of one of them). Options that are the same instances as the fragment's and are not selected
+     * are rendered by copying the fragment's html, rather than option by option.
+     * 
+     * @param options the options to add, e.g. from {@link org.openmrs.module.htmlformentry.OptionListCache#select}
+     * @param fragment the fragment the options (mostly) come from
+     */
+    public void addOptions(List<Option> options, OptionsFragment fragment) {
+        fragments.put(getOptions() == null ? 0 : getOptions().size(), fragment);
+        for (Option option : options) {
+            addOption(option);
+        }
+    }
+
+    /**
+     * @see SingleOptionWidget#setOptions(List)
+     */
+    @Override
+    public void setOptions(List<Option> options) {
+        fragments.clear();
+        super.setOptions(options);
+    }
+
     /**
      * 
      * @see Widget#generateHtml(FormEntryContext)
      */
     @Override
     public String generateHtml(FormEntryContext context) {
-        StringBuilder sb = new StringBuilder();
+        return WidgetFactory.generateHtml(this, context);
+    }
+
+    /**
+     * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+     */
+    @Override
+    public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
         if (context.getMode() == Mode.VIEW) {
             String toPrint = "";
             if (getInitialValue() != null) {
@@ -39,32 +78,64 @@ public class DropdownWidget extends SingleOptionWidget {
                 }
                 if (!found)
                     toPrint = getInitialValue();
-                return WidgetFactory.displayValue(toPrint);
+                out.append(WidgetFactory.displayValue(toPrint));
             } else {
                 toPrint = "____";
-                return WidgetFactory.displayEmptyValue(toPrint);
+                out.append(WidgetFactory.displayEmptyValue(toPrint));
             }
         } else {
             String id = context.getFieldName(this);
-            sb.append("<select id=\"" + id + "\" name=\"" + id +"\"");
+            out.append("<select id=\"").append(id).append("\" name=\"").append(id).append("\"");
             if(size !=null){
-                sb.append(" size=").append("\"" + size.intValue() + "\"");
+                out.append(" size=\"").append(size.toString()).append("\"");
             }
-            sb.append(">");
-            for (int i = 0; i < getOptions().size(); ++i) {
-                Option option = getOptions().get(i);
-                boolean selected = option.isSelected();
-                if (!selected)
-                    selected = getInitialValue() == null ? option.getValue().equals("") : getInitialValue().equals(option.getValue());
-                sb.append("<option value=\"").append(option.getValue()).append("\"");
-                if (selected)
-                    sb.append(" selected=\"true\"");
-                sb.append(">");
-                sb.append(option.getLabel());
-                sb.append("</option>");
+            out.append(">");
+            List<Option> options = getOptions();
+            int i = 0;
+            while (options != null && i < options.size()) {
+                OptionsFragment fragment = fragments.get(i);
+                if (fragment == null || fragment.getOptions().isEmpty()) {
+                    appendOption(out, options.get(i));
+                    i++;
+                    continue;
+                }
+                // copy runs of unselected options from the fragment, and render the others one by one
+                List<Option> fragmentOptions = fragment.getOptions();
+                int runStart = 0;
+                int j = 0;
+                for (; j < fragmentOptions.size() && i + j < options.size(); j++) {
+                    Option option = options.get(i + j);
+                    boolean same = option == fragmentOptions.get(j);
+                    if (same && !isSelected(option)) {
+                        continue;
+                    }
+                    fragment.appendTo(out, runStart, j);
+                    if (same) {
+                        fragment.appendSelected(out, j);
+                    } else {
+                        appendOption(out, option);
+                    }
+                    runStart = j + 1;
+                }
+                fragment.appendTo(out, runStart, j);
+                i += j;
             }
-            sb.append("</select>");
-            return sb.toString();
+            out.append("</select>");
         }
     }
+
+    private boolean isSelected(Option option) {
+        if (option.isSelected())
+            return true;
+        return getInitialValue() == null ? option.getValue().equals("") : getInitialValue().equals(option.getValue());
+    }
+
+    private void appendOption(Appendable out, Option option) throws IOException {
+        out.append("<option value=\"").append(option.getValue()).append("\"");
+        if (isSelected(option))
+            out.append(" selected=\"true\"");
+        out.append(">");
+        out.append(option.getLabel());
+        out.append("</option>");
+    }
 }
@@ -4,16 +4,14 @@ import org.openmrs.ConceptNumeric;
 import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
-import org.openmrs.util.OpenmrsUtil;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
 
 /**
  * A widget that implements an input field that takes a numeric answer.
  */
-public class NumberFieldWidget implements Widget {
+public class NumberFieldWidget implements AppendableWidget {
 
     private Number initialValue;
     private boolean floatingPoint = true;
@@ -116,45 +114,52 @@ public class NumberFieldWidget implements Widget {
 
     @Override
     public String generateHtml(FormEntryContext context) {
-        StringBuilder sb = new StringBuilder();
+        return WidgetFactory.generateHtml(this, context);
+    }
+
+    /**
+     * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+     */
+    @Override
+    public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
         if (context.getMode() == Mode.VIEW) {
             String toPrint = "";
             if (initialValue != null) {
                 toPrint = userFriendlyDisplay(initialValue);
-                return WidgetFactory.displayValue(toPrint);
+                out.append(WidgetFactory.displayValue(toPrint));
             } else {
                 toPrint = "____";
-                return WidgetFactory.displayEmptyValue(toPrint);
+                out.append(WidgetFactory.displayEmptyValue(toPrint));
             }
         } else {
             String id = context.getFieldName(this);
             String errorId = context.getErrorFieldId(this);
-            sb.append("<input type=\"text\" size=\"" + numberFieldSize + "\" id=\"" + id + "\" name=\"" + id + "\"");
+            out.append("<input type=\"text\" size=\"").append(String.valueOf(numberFieldSize)).append("\" id=\"").append(id)
+                    .append("\" name=\"").append(id).append("\"");
             if (initialValue != null) {
-                sb.append(" value=\"" + userFriendlyDisplay(initialValue) + "\"");
+                out.append(" value=\"").append(userFriendlyDisplay(initialValue)).append("\"");
             }
             if (context.isAutomaticClientSideValidation()) {
-                sb.append(" onBlur=\"checkNumber(this,'" + errorId + "'," + floatingPoint + ",");
-                sb.append(absoluteMinimum + ",");
-                sb.append(absoluteMaximum + ")\"");
+                out.append(" onBlur=\"checkNumber(this,'").append(errorId).append("',").append(String.valueOf(floatingPoint))
+                        .append(",");
+                out.append(String.valueOf(absoluteMinimum)).append(",");
+                out.append(String.valueOf(absoluteMaximum)).append(")\"");
             }
             if (context.isClientSideValidationHints()) {
                 if (absoluteMinimum != null) {
-                    sb.append(" min=\"" + absoluteMinimum + "\"");
+                    out.append(" min=\"").append(absoluteMinimum.toString()).append("\"");
                 }
                 if (absoluteMaximum != null) {
-                    sb.append(" max=\"" + absoluteMaximum + "\"");
+                    out.append(" max=\"").append(absoluteMaximum.toString()).append("\"");
                 }
-                List<String> classes = new ArrayList<String>();
-                classes.add(floatingPoint ? "number" : "integer");
+                out.append(" class=\"").append(floatingPoint ? "number" : "integer");
                 if (absoluteMinimum != null || absoluteMaximum != null) {
-                    classes.add("numeric-range");
+                    out.append(" numeric-range");
                 }
-                sb.append(" class=\"" + OpenmrsUtil.join(classes, " ") + "\"");
+                out.append("\"");
             }
-            sb.append("/>");
+            out.append("/>");
         }
-        return sb.toString();
     }
 
     private String userFriendlyDisplay(Number number) {
@@ -0,0 +1,69 @@
+package org.openmrs.module.htmlformentry.widget;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of options together with their {@code <option>} html, rendered once, so that a dropdown with a long list
+ * shared between sessions (see {@link org.openmrs.module.htmlformentry.OptionListCache}) can copy the html of its
+ * unselected options in bulk and only render the selected one on each request.
+ */
+public class OptionsFragment {
+
+	private static final String SELECTED = " selected=\"true\"";
+
+	private final List<Option> options;
+
+	private final String html;
+
+	// start[i] is where the html of option i starts (start[size] is the end of the html); insertAt[i] is where
+	// SELECTED goes if option i is selected
+	private final int[] start;
+
+	private final int[] insertAt;
+
+	/**
+	 * @param options the options, none of which should be selected (they are rendered as unselected)
+	 */
+	public OptionsFragment(List<Option> options) {
+		this.options = Collections.unmodifiableList(options);
+		this.start = new int[options.size() + 1];
+		this.insertAt = new int[options.size()];
+		StringBuilder sb = new StringBuilder(options.size() * 48);
+		for (int i = 0; i < options.size(); i++) {
+			Option option = options.get(i);
+			start[i] = sb.length();
+			sb.append("<option value=\"").append(option.getValue()).append("\"");
+			insertAt[i] = sb.length();
+			sb.append(">").append(option.getLabel()).append("</option>");
+		}
+		start[options.size()] = sb.length();
+		this.html = sb.toString();
+	}
+
+	/**
+	 * @return the unmodifiable list of options
+	 */
+	public List<Option> getOptions() {
+		return options;
+	}
+
+	/**
+	 * Appends the html of the options from index {@code from} (inclusive) to {@code to} (exclusive), unselected
+	 */
+	public void appendTo(Appendable out, int from, int to) throws IOException {
+		if (from < to) {
+			out.append(html, start[from], start[to]);
+		}
+	}
+
+	/**
+	 * Appends the html of the option at the given index, selected
+	 */
+	public void appendSelected(Appendable out, int index) throws IOException {
+		out.append(html, start[index], insertAt[index]);
+		out.append(SELECTED);
+		out.append(html, insertAt[index], start[index + 1]);
+	}
+}
@@ -1,12 +1,14 @@
 package org.openmrs.module.htmlformentry.widget;
 
+import java.io.IOException;
+
 import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 
 /**
  * A widget that implements radio buttons, like a bunch of {@code <input type="radio"/>}.
  */
-public class RadioButtonsWidget extends SingleOptionWidget {
+public class RadioButtonsWidget extends SingleOptionWidget implements AppendableWidget {
 	
 	private String answerSeparator = null;
 	
@@ -22,20 +24,27 @@ public class RadioButtonsWidget extends SingleOptionWidget {
 	 */
 	@Override
 	public String generateHtml(FormEntryContext context) {
+		return WidgetFactory.generateHtml(this, context);
+	}
+	
+	/**
+	 * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+	 */
+	@Override
+	public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
 		String id = context.getFieldName(this);
-		StringBuilder sb = new StringBuilder();
 		if (context.getMode() == Mode.VIEW) {
             for (int i = 0; i < getOptions().size(); ++i) {
                 Option opt = getOptions().get(i);
 				boolean selected = getInitialValue() == null ? "".equals(opt.getValue()) : getInitialValue().equals(
 				    opt.getValue());
 				if (selected) {
-					sb.append(WidgetFactory.displayValue("[X]&#160;" + opt.getLabel()));
+					out.append(WidgetFactory.displayValue("[X]&#160;" + opt.getLabel()));
 				} else {
-					sb.append(WidgetFactory.displayEmptyValue("[&#160;&#160;]&#160;" + opt.getLabel()));
+					out.append(WidgetFactory.displayEmptyValue("[&#160;&#160;]&#160;" + opt.getLabel()));
 				}
                 if (i < getOptions().size() - 1) {
-                    sb.append(getAnswerSeparator());
+                    out.append(getAnswerSeparator());
                 }
 			}
 		} else {
@@ -45,19 +54,18 @@ public class RadioButtonsWidget extends SingleOptionWidget {
 				if (!selected)
 					selected = getInitialValue() == null ? option.getValue().equals("") : getInitialValue().equals(
 					    option.getValue());
-				sb.append("<input type=\"radio\" id=\"").append(id + "_" + i).append("\" name=\"")
+				out.append("<input type=\"radio\" id=\"").append(id).append("_").append(String.valueOf(i)).append("\" name=\"")
 				        .append(id).append("\" value=\"").append(option.getValue()).append("\"");
 				if (selected)
-					sb.append(" checked=\"true\"");
-				sb.append(" onMouseDown=\"radioDown(this)\" onClick=\"radioClicked(this)\"");
-				sb.append("/>");
-				sb.append("<label for=\"").append(id + "_" + i).append("\">").append(option.getLabel()).append("</label>");
+					out.append(" checked=\"true\"");
+				out.append(" onMouseDown=\"radioDown(this)\" onClick=\"radioClicked(this)\"");
+				out.append("/>");
+				out.append("<label for=\"").append(id).append("_").append(String.valueOf(i)).append("\">").append(option.getLabel()).append("</label>");
 				if (i < getOptions().size() - 1) {
-					sb.append(getAnswerSeparator());
+					out.append(getAnswerSeparator());
                 }
 			}
 		}
-		return sb.toString();
 	}
 	
 	/**
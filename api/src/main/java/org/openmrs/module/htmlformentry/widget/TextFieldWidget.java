@@ -1,5 +1,7 @@
 package org.openmrs.module.htmlformentry.widget;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpServletRequest;
 
 import org.openmrs.module.htmlformentry.FormEntryContext;
@@ -9,7 +11,7 @@ import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
  * A widget that implements a text input field, either as a simple input field, like {@code <input type="text"/>},
  * or as a {@code <textarea>}.
  */
-public class TextFieldWidget implements Widget {
+public class TextFieldWidget implements AppendableWidget {
     
     private Boolean textArea = false;
     private Integer textFieldSize;
@@ -75,55 +77,62 @@ public class TextFieldWidget implements Widget {
 
     @Override
     public String generateHtml(FormEntryContext context) {
-        StringBuilder sb = new StringBuilder();
+        return WidgetFactory.generateHtml(this, context);
+    }
+
+    /**
+     * @see AppendableWidget#generateHtml(FormEntryContext, Appendable)
+     */
+    @Override
+    public void generateHtml(FormEntryContext context, Appendable out) throws IOException {
         if (context.getMode().equals(Mode.VIEW)) {
             String toPrint = "";
             if (initialValue != null) {
                 toPrint = initialValue.toString();
-                return WidgetFactory.displayValue(toPrint);
+                out.append(WidgetFactory.displayValue(toPrint));
             } else {
                 if (textAreaRows != null) {
                     toPrint = "";
                     for (int i = 0; i < textAreaRows; i += 2)
                         toPrint += "\n";
-                    return WidgetFactory.displayValue(toPrint);
+                    out.append(WidgetFactory.displayValue(toPrint));
                 } else {
                     toPrint = "_______________";
-                    return WidgetFactory.displayEmptyValue(toPrint);
+                    out.append(WidgetFactory.displayEmptyValue(toPrint));
                 }
             }
         } else {
+            String fieldName = context.getFieldName(this);
             if (textArea) {
-                sb.append("<textarea name=\"" + context.getFieldName(this) + "\" id=\"" + context.getFieldName(this) + "\"");
+                out.append("<textarea name=\"").append(fieldName).append("\" id=\"").append(fieldName).append("\"");
                 if (textAreaRows != null)
-                    sb.append(" rows=\"" + textAreaRows + "\"");
+                    out.append(" rows=\"").append(textAreaRows.toString()).append("\"");
                 if (textAreaColumns != null)
-                    sb.append(" cols=\"" + textAreaColumns + "\"");
+                    out.append(" cols=\"").append(textAreaColumns.toString()).append("\"");
                 if (placeholder != null) {
                     // TODO escape
-                    sb.append(" placeholder=\"").append(placeholder).append("\"");
+                    out.append(" placeholder=\"").append(placeholder).append("\"");
                 }
-                sb.append(">");
+                out.append(">");
                 if (initialValue != null)
-                    sb.append(initialValue);
-                sb.append("</textarea>");
+                    out.append(initialValue);
+                out.append("</textarea>");
             } else {
-                sb.append("<input type=\"text\" name=\"" + context.getFieldName(this) + "\" id=\"" + context.getFieldName(this) + "\"");
+                out.append("<input type=\"text\" name=\"").append(fieldName).append("\" id=\"").append(fieldName).append("\"");
                 if (textFieldSize != null)
-                    sb.append(" size=\"" + textFieldSize + "\"");
+                    out.append(" size=\"").append(textFieldSize.toString()).append("\"");
                 if (initialValue != null)
-                    sb.append(" value=\"" + initialValue + "\"");
+                    out.append(" value=\"").append(initialValue).append("\"");
                 if (textFieldMaxLength != null && textFieldMaxLength.intValue() > 0){
-                	sb.append(" maxlength=\"" + textFieldMaxLength.intValue() + "\"");
+                	out.append(" maxlength=\"").append(textFieldMaxLength.toString()).append("\"");
                 }
                 if (placeholder != null) {
                     // TODO escape
-                    sb.append(" placeholder=\"").append(placeholder).append("\"");
+                    out.append(" placeholder=\"").append(placeholder).append("\"");
                 }
-                sb.append("/>");
+                out.append("/>");
             }
         }
-        return sb.toString(); 
     }
 
     @Override
@@ -1,12 +1,16 @@
 package org.openmrs.module.htmlformentry.widget;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openmrs.ConceptComplex;
 import org.openmrs.ConceptDatatype;
 import org.openmrs.FormField;
 import org.openmrs.Obs;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntryContext;
 import org.openmrs.module.htmlformentry.HtmlFormEntryConstants;
 import org.openmrs.obs.handler.AbstractHandler;
 import org.openmrs.obs.handler.ImageHandler;
@@ -34,6 +38,69 @@ public class WidgetFactory {
         DATE_TIME
     }
 
+    // whether each widget class can be rendered with its Appendable method (see appendHtml)
+    private static final Map<Class<?>, Boolean> appendableClasses = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /**
+     * Renders a widget to a String through its Appendable method. This is the usual implementation of
+     * {@link Widget#generateHtml(FormEntryContext)} for an {@link AppendableWidget}.
+     */
+    public static String generateHtml(AppendableWidget widget, FormEntryContext context) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            widget.generateHtml(context, sb);
+        }
+        catch (IOException ex) {
+            // a StringBuilder doesn't throw IOExceptions
+            throw new IllegalStateException(ex);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the html of any widget to the given output: straight from the widget if it is an
+     * {@link AppendableWidget}, otherwise by appending the String it generates. A subclass of an AppendableWidget
+     * that only overrides {@link Widget#generateHtml(FormEntryContext)} is rendered through that method, so that its
+     * override is not bypassed.
+     */
+    public static void appendHtml(Widget widget, FormEntryContext context, Appendable out) throws IOException {
+        if (widget instanceof AppendableWidget && isAppendable(widget.getClass())) {
+            ((AppendableWidget) widget).generateHtml(context, out);
+        } else {
+            out.append(widget.generateHtml(context));
+        }
+    }
+
+    /**
+     * Like {@link #appendHtml(Widget, FormEntryContext, Appendable)}, for a StringBuilder
+     */
+    public static void appendHtml(Widget widget, FormEntryContext context, StringBuilder sb) {
+        try {
+            appendHtml(widget, context, (Appendable) sb);
+        }
+        catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static boolean isAppendable(Class<?> widgetClass) {
+        Boolean ret = appendableClasses.get(widgetClass);
+        if (ret == null) {
+            try {
+                Class<?> stringMethodClass = widgetClass.getMethod("generateHtml", FormEntryContext.class)
+                        .getDeclaringClass();
+                Class<?> appendableMethodClass = widgetClass.getMethod("generateHtml", FormEntryContext.class,
+                    Appendable.class).getDeclaringClass();
+                ret = stringMethodClass.isAssignableFrom(appendableMethodClass);
+            }
+            catch (NoSuchMethodException ex) {
+                ret = false;
+            }
+            appendableClasses.put(widgetClass, ret);
+        }
+        return ret;
+    }
+
     /**
      * Given a FormField, infers the related widget from the ConceptDatatype associated with that FormField.
      */
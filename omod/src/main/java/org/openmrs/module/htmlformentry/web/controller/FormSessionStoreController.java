@@ -0,0 +1,19 @@
+package org.openmrs.module.htmlformentry.web.controller;
+
+import org.openmrs.module.htmlformentry.FormEntrySessionStore;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+@Controller
+public class FormSessionStoreController {
+	
+	/**
+	 * Shows the bounds and counters of this server's store of forms in progress
+	 */
+	@RequestMapping("/module/htmlformentry/formSessionStore")
+	public void showFormSessionStore(Model model) {
+		model.addAttribute("store", FormEntrySessionStore.getInstance());
+	}
+	
+}
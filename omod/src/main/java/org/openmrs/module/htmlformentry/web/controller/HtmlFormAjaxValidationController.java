@@ -3,16 +3,11 @@ package org.openmrs.module.htmlformentry.web.controller;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
-import java.util.Locale;
-import java.util.Vector;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.openmrs.Encounter;
-import org.openmrs.Form;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
@@ -52,10 +47,6 @@ public class HtmlFormAjaxValidationController {
 
 		response.setContentType("text/html");
 		ServletOutputStream out = response.getOutputStream();
-		List<Locale> l = new Vector<Locale>();
-		l.add(Context.getLocale());
-
-		List<Encounter> encounters = Context.getEncounterService().getEncountersByPatientId(patientId);
 		
 		// if the AJAX call has passed a date format, use that, otherwise use the standard date format to parse the date
 		SimpleDateFormat dateFormatter;
@@ -67,20 +58,10 @@ public class HtmlFormAjaxValidationController {
 		}
 		Date dateToCheck = dateFormatter.parse(date);
 		
-		boolean duplicate = false;
-		
-		for(Encounter enc: encounters)
-		{
-			if(enc.getForm() != null)
-			{
-				Form encForm = enc.getForm();
-				HtmlForm htmlForm = HtmlFormEntryUtil.getService().getHtmlFormByForm(encForm);
-				if(htmlForm != null && htmlForm.getId().equals(formId) && dateToCheck.compareTo(enc.getEncounterDatetime()) == 0)
-				{
-					duplicate = true;
-				}
-			}
-		}
+		// this is called every time the encounter date changes, so ask the database rather than loading every encounter
+		HtmlForm htmlForm = HtmlFormEntryUtil.getService().getHtmlForm(formId);
+		boolean duplicate = htmlForm != null
+		        && HtmlFormEntryUtil.getService().hasEncounterForHtmlForm(patientId, htmlForm, dateToCheck);
 		
 		if(duplicate)
 		{
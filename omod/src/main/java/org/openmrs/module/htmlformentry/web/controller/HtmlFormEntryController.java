@@ -5,10 +5,13 @@ import org.apache.commons.logging.LogFactory;
 import org.openmrs.Encounter;
 import org.openmrs.Form;
 import org.openmrs.Patient;
+import org.openmrs.User;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.BadFormDesignException;
 import org.openmrs.module.htmlformentry.FormEntryContext.Mode;
 import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.htmlformentry.FormEntrySessionState;
+import org.openmrs.module.htmlformentry.FormEntrySessionStore;
 import org.openmrs.module.htmlformentry.FormSubmissionError;
 import org.openmrs.module.htmlformentry.HtmlForm;
 import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
@@ -30,6 +33,8 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
 
 /**
  * The controller for entering/viewing a form.
@@ -45,6 +50,7 @@ public class HtmlFormEntryController {
     public final static String closeDialogView = "/module/htmlformentry/closeDialog";
     public final static String FORM_IN_PROGRESS_KEY = "HTML_FORM_IN_PROGRESS_KEY";
     public final static String FORM_IN_PROGRESS_VALUE = "HTML_FORM_IN_PROGRESS_VALUE";
+    public final static String FORM_SESSION_TOKEN = "formSessionToken";
     public final static String FORM_PATH = "/module/htmlformentry/htmlFormEntry";
    
     @RequestMapping(method=RequestMethod.GET, value=FORM_PATH)
@@ -65,7 +71,8 @@ public class HtmlFormEntryController {
                                                 @RequestParam(value="returnUrl", required=false) String returnUrl,
                                                 @RequestParam(value="formModifiedTimestamp", required=false) Long formModifiedTimestamp,
                                                 @RequestParam(value="encounterModifiedTimestamp", required=false) Long encounterModifiedTimestamp,
-                                                @RequestParam(value="hasChangedInd", required=false) String hasChangedInd) throws Exception {
+                                                @RequestParam(value="hasChangedInd", required=false) String hasChangedInd,
+                                                @RequestParam(value="lazySections", required=false) Boolean lazySections) throws Exception {
 
     	long ts = System.currentTimeMillis();
 
@@ -183,10 +190,28 @@ public class HtmlFormEntryController {
         
         if (hasChangedInd != null) session.setHasChangedInd(hasChangedInd);
 
+        // with lazy sections, only the first section is rendered up front and the others are fetched by the page
+        // afterwards; a submission of such a form has to name its fields the same way
+        if (Boolean.TRUE.equals(lazySections)) {
+            if ("POST".equalsIgnoreCase(request.getMethod())) {
+                session.setSectionScopedFieldNames(true);
+            } else {
+                session.setLazySections(true);
+            }
+        }
+
         // ensure we've generated the form's HTML (and thus set up the submission actions, etc) before we do anything
         session.getHtmlToDisplay();
 
-        Context.setVolatileUserData(FORM_IN_PROGRESS_KEY, session);
+        // keep a compact snapshot of the form that is displayed, under a token of its own so that several forms
+        // can be open at once; a submission is processed by the session built from its own request, so there is
+        // nothing to store for it, and a page shown again after a failed submission keeps the token it was sent
+        String formSessionToken = request.getParameter(FORM_SESSION_TOKEN);
+        if (!"POST".equalsIgnoreCase(request.getMethod())) {
+            formSessionToken = UUID.randomUUID().toString();
+            FormEntrySessionStore.getInstance().put(getFormInProgressKey(formSessionToken), session);
+        }
+        request.setAttribute(FORM_SESSION_TOKEN, formSessionToken);
        
         log.info("Took " + (System.currentTimeMillis() - ts) + " ms");
         
@@ -212,6 +237,36 @@ public class HtmlFormEntryController {
             errors.reject("Exception during form validation, see log for more details: " + ex);
         }
         
+        String formInProgressKey = getFormInProgressKey(request.getParameter(FORM_SESSION_TOKEN));
+        
+        // with lazy sections, a section that never arrived on the page submits no fields at all, which must not be
+        // taken as the user having left them blank
+        if (session.getContext().isSectionScopedFieldNames()) {
+            Set<Integer> missingSections = session.getMissingSections(request);
+            if (!missingSections.isEmpty()) {
+                log.warn("Rejecting a submission missing sections " + missingSections);
+                // the form is shown again with every section in place, so the snapshot of the page no longer applies
+                FormEntrySessionStore.getInstance().remove(formInProgressKey);
+                errors.reject(Context.getMessageSourceService().getMessage("htmlformentry.error.sectionsNotLoaded"));
+            }
+        }
+        
+        // the session built from this request must match the snapshot of the form that was displayed, or the
+        // submitted fields may not line up with the form's widgets and existing obs
+        FormEntrySessionState displayed = FormEntrySessionStore.getInstance().getState(formInProgressKey);
+        if (displayed == null) {
+            // snapshots are local to the node that displayed the form, and are dropped when they expire or are
+            // evicted; the form and encounter timestamps posted by the page have already been checked, so the
+            // submission goes ahead without comparing widgets
+            log.warn("No snapshot of the displayed form for " + formInProgressKey
+                    + ", processing the submission without checking it against the displayed form");
+            FormEntrySessionStore.getInstance().recordMissingSnapshot();
+        } else if (!displayed.matches(session)) {
+            // the form is shown again as it is now, so the snapshot of the old one no longer applies
+            FormEntrySessionStore.getInstance().remove(formInProgressKey);
+            errors.reject(Context.getMessageSourceService().getMessage("htmlformentry.error.formModifiedBeforeSubmission"));
+        }
+        
         if (errors.hasErrors()) {
         	return new ModelAndView(FORM_PATH, "command", session);
         }
@@ -230,6 +285,7 @@ public class HtmlFormEntryController {
     	try {
             session.getSubmissionController().handleFormSubmission(session, request);
             HtmlFormEntryUtil.getService().applyActions(session);
+            FormEntrySessionStore.getInstance().remove(formInProgressKey);
             String successView = session.getAfterSaveUrlTemplate();
             if (successView != null) {
                 successView = successView.replaceAll("\\{\\{patient.id\\}\\}", session.getPatient().getId().toString());
@@ -262,6 +318,23 @@ public class HtmlFormEntryController {
         return new ModelAndView(FORM_PATH, "command", session);
     }
 
+	/**
+	 * @param formSessionToken the token the page of the form was rendered with
+	 * @return the key of the current user's form in progress in the {@link FormEntrySessionStore}
+	 */
+	protected String getFormInProgressKey(String formSessionToken) {
+		return getFormInProgressKey(Context.getAuthenticatedUser(), formSessionToken);
+	}
+
+	/**
+	 * @param user
+	 * @param formSessionToken the token the page of the form was rendered with
+	 * @return the key of the given user's form in progress in the {@link FormEntrySessionStore}
+	 */
+	public static String getFormInProgressKey(User user, String formSessionToken) {
+		return FORM_IN_PROGRESS_KEY + ":" + (user == null ? null : user.getUserId()) + ":" + formSessionToken;
+	}
+
 	protected String getQueryPrameters(HttpServletRequest request, FormEntrySession formEntrySession) {
 		return "?patientId=" + formEntrySession.getPatient().getPersonId();
 	}
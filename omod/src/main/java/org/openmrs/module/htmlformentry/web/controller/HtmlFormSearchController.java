@@ -7,6 +7,9 @@ import org.openmrs.ConceptWord;
 import org.openmrs.Drug;
 import org.openmrs.api.ConceptService;
 import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.ConceptSearchIndex;
+import org.openmrs.module.htmlformentry.DrugSearchIndex;
+import org.openmrs.module.htmlformentry.HtmlFormEntryGlobalProperties;
 import org.openmrs.propertyeditor.ConceptClassEditor;
 import org.openmrs.propertyeditor.ConceptEditor;
 import org.openmrs.util.OpenmrsConstants;
@@ -27,7 +30,6 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -37,6 +39,20 @@ import java.util.Vector;
 @Controller
 public class HtmlFormSearchController {
 
+	/**
+	 * The maximum number of concepts returned by a concept search that uses a {@link ConceptSearchIndex}
+	 */
+	public static final int MAX_CONCEPT_SEARCH_RESULTS = 100;
+
+	/**
+	 * The maximum number of drugs returned by a drug search
+	 */
+	public static final int MAX_DRUG_SEARCH_RESULTS = 100;
+
+	// ConceptService.getDrugs(String, Concept, boolean, boolean, boolean, Integer, Integer), looked up once since it
+	// only exists in OpenMRS 1.8+
+	private static volatile Method getDrugsMethod;
+
     @Autowired
     private ConceptService conceptService;
 
@@ -68,6 +84,7 @@ public class HtmlFormSearchController {
 		l.add(Context.getLocale());
 
 		List<ConceptClass> cptClassList = new ArrayList<ConceptClass>();
+		List<String> cptClassNames = new ArrayList<String>();
 		HashSet<Integer> set = new HashSet<Integer>();
 		if ( !"null".equals(allowedconceptids) && !"".equals(allowedconceptids)) {
 			// we filter this by conceptids
@@ -78,13 +95,36 @@ public class HtmlFormSearchController {
 		} else if (!"null".equals(answerclasses)&& !"".equals(answerclasses)) {
 			for (StringTokenizer st = new StringTokenizer(answerclasses, ","); st
 					.hasMoreTokens();) {
-				cptClassList.add(conceptService
-						.getConceptClassByName(st.nextToken()));
+				cptClassNames.add(st.nextToken());
 			}
 		} else {
 			throw new Exception(
 					"answerconceptids set and answerclasses are both empty.");
 		}
+
+		if (ConceptSearchIndex.isEnabled()) {
+			// the possible answers are known, so search them in memory rather than searching the whole dictionary
+			ConceptSearchIndex index = set.isEmpty() ? ConceptSearchIndex.getIndexForClasses(cptClassNames, l.get(0))
+					: ConceptSearchIndex.getIndexForConcepts(set, l.get(0));
+			out.print("[");
+			boolean first = true;
+			for (ConceptSearchIndex.Match match : index.search(query, MAX_CONCEPT_SEARCH_RESULTS)) {
+				if (!first)
+					out.print(",");
+				out.print("{ \"value\":\"");
+				out.print(WebUtil.escapeQuotes(match.getLabel()));
+				out.print("\",\"id\":\"");
+				out.print(match.getConceptId());
+				out.print("\"}");
+				first = false;
+			}
+			out.print("]");
+			return;
+		}
+
+		for (String className : cptClassNames) {
+			cptClassList.add(conceptService.getConceptClassByName(className));
+		}
 		List<ConceptWord> words = conceptService.getConceptWords(
                 query, l, false, cptClassList, null, null, null, null, null,
                 null);
@@ -122,28 +162,27 @@ public class HtmlFormSearchController {
     public void localizedMessage(@RequestParam("term") String query,
                                  HttpServletResponse response) throws IOException {
 
-        List<Drug> drugs;
+        List<Map<String, Object>> simplified;
 
+        if (DrugSearchIndex.isEnabled() && HtmlFormEntryGlobalProperties.DRUG_SEARCH_INDEX()) {
+            simplified = DrugSearchIndex.getIndex(Context.getLocale()).search(query, MAX_DRUG_SEARCH_RESULTS);
+        }
         // we want to use a later API method from 1.8+ if it is available, so we need to access it via reflection
-        if (OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.6")
+        else if (OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.6")
                 || OpenmrsConstants.OPENMRS_VERSION_SHORT.startsWith("1.7")) {
-                drugs = conceptService.getDrugs(query);      // this method returns retired drugs, so it is not ideal
+                simplified = simplify(conceptService.getDrugs(query));      // this method returns retired drugs, so it is not ideal
         }
         else {
             try {
-                Object conceptService = Context.getService(Context.loadClass("org.openmrs.api.ConceptService"));
-                Method getDrugsMethod = conceptService.getClass().getMethod("getDrugs", String.class, Concept.class,
-                        boolean.class, boolean.class, boolean.class, Integer.class, Integer.class);
-
-                drugs = (List<Drug>) getDrugsMethod.invoke(conceptService, query, null, true, false, false, 0, 100);  // this method excludes retired drugs
-
+                // this method excludes retired drugs
+                List<Drug> drugs = (List<Drug>) getGetDrugsMethod().invoke(conceptService, query, null, true, false,
+                        false, 0, MAX_DRUG_SEARCH_RESULTS);
+                simplified = simplify(drugs);
             } catch (Exception ex) {
                 throw new RuntimeException("Unable to access ConceptService getDrugs method via reflection", ex);
             }
         }
 
-        List<Map<String, Object>> simplified = simplify(drugs);
-
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
         PrintWriter out = response.getWriter();
@@ -151,26 +190,19 @@ public class HtmlFormSearchController {
         new ObjectMapper().writeValue(out, simplified);
     }
 
+    private static Method getGetDrugsMethod() throws NoSuchMethodException {
+        if (getDrugsMethod == null) {
+            getDrugsMethod = ConceptService.class.getMethod("getDrugs", String.class, Concept.class, boolean.class,
+                    boolean.class, boolean.class, Integer.class, Integer.class);
+        }
+        return getDrugsMethod;
+    }
+
     private List<Map<String, Object>> simplify(List<Drug> drugs) {
         List<Map<String, Object>> simplified = new ArrayList<Map<String, Object>>();
         Locale locale = Context.getLocale();
         for (Drug drug : drugs) {
-            Map<String, Object> item = new LinkedHashMap<String, Object>();
-            item.put("id", drug.getId());
-            item.put("name", drug.getName());
-            if (drug.getDosageForm() != null) {
-                item.put("dosageForm", drug.getDosageForm().getName(locale).getName());
-            }
-            if (drug.getRoute() != null) {
-                item.put("route", drug.getRoute().getName(locale).getName());
-            }
-            item.put("doseStrength", drug.getDoseStrength());
-            item.put("units", drug.getUnits());
-            item.put("combination", drug.getCombination());
-            if (drug.getConcept() != null) {
-                item.put("concept", drug.getConcept().getName(locale).getName());
-            }
-            simplified.add(item);
+            simplified.add(DrugSearchIndex.simplify(drug, locale));
         }
         return simplified;
     }
@@ -0,0 +1,66 @@
+package org.openmrs.module.htmlformentry.web.controller;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.htmlformentry.FormEntrySession;
+import org.openmrs.module.htmlformentry.FormEntrySessionState;
+import org.openmrs.module.htmlformentry.FormEntrySessionStore;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Renders the sections of a form in progress that were deferred when the form was displayed with lazy sections (see
+ * {@link FormEntrySession#setLazySections(boolean)}). The form is identified by the token its page was rendered
+ * with, so that a user can have several forms open at once.
+ * <p/>
+ * The session is rebuilt from its snapshot in every request, so that the patient and encounter the section is
+ * rendered with are loaded in the current Hibernate session. Only the requested section is processed, using the
+ * form prepared once per form version by the {@link org.openmrs.module.htmlformentry.PreparedFormCache}. The page
+ * requests a section when the user scrolls near it, or when the form is submitted. This is kept apart from
+ * {@link HtmlFormEntryController}, whose model attribute method would otherwise build a new form in progress.
+ */
+@Controller
+public class HtmlFormSectionController {
+
+	protected final Log log = LogFactory.getLog(getClass());
+
+	@RequestMapping("/module/htmlformentry/renderSection")
+	public void renderSection(@RequestParam("sectionIndex") Integer sectionIndex,
+	        @RequestParam(HtmlFormEntryController.FORM_SESSION_TOKEN) String formSessionToken,
+	        HttpServletRequest request, HttpServletResponse response) throws Exception {
+		String key = HtmlFormEntryController.getFormInProgressKey(Context.getAuthenticatedUser(), formSessionToken);
+		FormEntrySessionState state = FormEntrySessionStore.getInstance().getState(key);
+		if (state == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No form in progress");
+			return;
+		}
+		String html;
+		try {
+			FormEntrySession session = state.restoreSection(request.getSession(), sectionIndex);
+			html = session.renderSection(sectionIndex);
+			FormEntrySessionStore.getInstance().addRenderedSections(key, session);
+		}
+		catch (IllegalStateException ex) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+			return;
+		}
+		catch (IllegalArgumentException ex) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+			return;
+		}
+		writeHtml(response, html);
+	}
+
+	private void writeHtml(HttpServletResponse response, String html) throws IOException {
+		response.setContentType("text/html");
+		response.setCharacterEncoding("UTF-8");
+		response.getWriter().print(html);
+	}
+}
@@ -1,18 +1,17 @@
 package org.openmrs.module.htmlformentry.web.controller;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
-import org.openmrs.Cohort;
-import org.openmrs.Patient;
+import org.openmrs.OpenmrsObject;
 import org.openmrs.Person;
 import org.openmrs.Program;
-import org.openmrs.api.PatientService;
-import org.openmrs.api.PersonService;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.htmlformentry.HtmlFormEntryService;
+import org.openmrs.module.htmlformentry.HtmlFormEntryUtil;
 import org.openmrs.web.dwr.PersonListItem;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.ModelMap;
@@ -28,133 +27,64 @@ public class PopupWidgetController {
 		
 	}
 	
-	@SuppressWarnings("unchecked")
-    @RequestMapping("/module/htmlformentry/personResultTable")
+	/**
+	 * The number of people shown on each page of results
+	 */
+	public static final int RESULTS_PER_PAGE = 100;
+	
+	@RequestMapping("/module/htmlformentry/personResultTable")
 	public void personSearch(ModelMap model, @RequestParam(value="pSearch",required=false) String searchPhrase, 
 	                                 @RequestParam(value="pAttribute",required=false) String searchAttribute,
 	                                 @RequestParam(value="pAttributeValue",required=false) String attributeValue,
-	                                 @RequestParam(value="pProgram",required=false) String searchProgram) throws Exception {
-		
-		List<Integer> personId = new ArrayList<Integer>();
-		List<Object> personList = new ArrayList<Object>();
-		
-		//first we are going to search by name for patients
-		PatientService patientService = Context.getPatientService();
-		for (Patient p : patientService.getPatients(searchPhrase, null, null, false)) {
-			personList.add(PersonListItem.createBestMatch(p));
-			personId.add(p.getId());
-		}
+	                                 @RequestParam(value="pProgram",required=false) String searchProgram,
+	                                 @RequestParam(value="pPage",required=false) Integer page) throws Exception {
 		
-		// now we check for persons (that won't be brought back by the patient search)
-		PersonService ps = Context.getPersonService();
-		for (Person p : ps.getPeople(searchPhrase, null)) {
-			
-			if(!personId.contains(p.getId()))
-			{
-				personList.add(PersonListItem.createBestMatch(p));
+		List<String> attributes = null;
+		List<String> attrValues = null;
+		if (searchAttribute != null) {
+			attributes = Arrays.asList(searchAttribute.split(","));
+			if (attributeValue != null) {
+				attrValues = Arrays.asList(attributeValue.split(","));
 			}
 		}
 		
-		// also search on patient identifier if the query contains a number
-		if (searchPhrase.matches(".*\\d+.*")) {
-			patientService = Context.getPatientService();
-			for (Patient p : patientService.getPatients(null, searchPhrase, null, false)) {
-				if(!personId.contains(p.getId()))
-				{
-					personList.add(PersonListItem.createBestMatch(p));
+		List<Program> programs = new ArrayList<Program>();
+		if (searchProgram != null) {
+			for (String prog : searchProgram.split(",")) {
+				Program personProgram = HtmlFormEntryUtil.getProgram(prog);
+				if (personProgram != null) {
+					programs.add(personProgram);
 				}
 			}
 		}
 		
-		Cohort cohort = null;
-		if(searchAttribute != null)
-		{
-			String[] attributes = searchAttribute.split(",");
-			String[] attrValues = null;
-			if(attributeValue != null)
-			{
-				attrValues = searchAttribute.split(",");
-			}
-			
-			for(int i = 0; i < attributes.length; i++)
-			{
-				String attr = attributes[i];
-				String val = null;
-				if(attrValues != null && attrValues[i].trim().length() > 0)
-				{
-					val = attrValues[i];
-				}
-				if(attr != null && attr.trim().length() > 0)
-				{
-					List<Integer> ids = Context.getService(HtmlFormEntryService.class).getPersonIdsHavingAttributes(attr, val);
-					Set<Integer> setOfIds = new HashSet<Integer>();
-					setOfIds.addAll(ids);
-					
-					Cohort pp = new Cohort();
-					pp.setMemberIds(setOfIds);
-				
-					if(cohort != null)
-					{
-						cohort = Cohort.intersect(cohort, pp);
-					}
-					else
-					{
-						cohort = pp;
-					}
-				}
-			}
+		// the database searches and pages the people by name or identifier, attributes and programs, and only the
+		// people of the requested page are loaded, in a single query
+		HtmlFormEntryService service = Context.getService(HtmlFormEntryService.class);
+		int first = page == null || page < 0 ? 0 : page * RESULTS_PER_PAGE;
+		List<Integer> pageIds = service.getPersonIdsByNameOrIdentifier(searchPhrase, attributes, attrValues, programs,
+		    first, RESULTS_PER_PAGE);
+		// a first page that isn't full holds all of the results, so they only need counting otherwise
+		int count = pageIds.size();
+		if (first > 0 || count == RESULTS_PER_PAGE) {
+			count = service.getPersonCountByNameOrIdentifier(searchPhrase, attributes, attrValues, programs);
 		}
-		
-		if(searchProgram != null)
-		{
-			String[] programs = searchProgram.split(",");
-			
-			for(int i = 0; i < programs.length; i++)
-			{
-				String prog = programs[i];
-				if(prog != null && prog.trim().length() > 0)
-				{
-					Program personProgram = Context.getProgramWorkflowService().getProgramByUuid(prog);
-					if(personProgram == null)
-					{
-						personProgram = Context.getProgramWorkflowService().getProgram(Integer.parseInt(prog));
-					}
-					if(personProgram != null)
-					{
-						Cohort pp = Context.getPatientSetService().getPatientsInProgram(personProgram, null, null);
-						if(cohort != null)
-						{
-							cohort = Cohort.intersect(cohort, pp);
-						}
-						else
-						{
-							cohort = pp;
-						}
-					}
-				}
-			}
+		Map<Integer, Person> people = new HashMap<Integer, Person>();
+		for (OpenmrsObject o : service.getItemsByIds(Person.class, pageIds)) {
+			people.put(o.getId(), (Person) o);
 		}
-		//not iterate through the person list and filter based on the cohort
-		if(cohort != null)
-		{
-			List<Object> filteredList = new ArrayList<Object>();
-			for(Object o: personList)
-			{
-				PersonListItem pli = (PersonListItem)o;
-				
-				if(cohort.getMemberIds().contains(pli.getPersonId()))
-				{
-					filteredList.add(o);
-				}
+		List<Object> personList = new ArrayList<Object>();
+		for (Integer personId : pageIds) {
+			Person p = people.get(personId);
+			if (p != null) {
+				personList.add(PersonListItem.createBestMatch(p));
 			}
-			personList = filteredList;
-		}	
+		}
 		
 		model.put("people", personList);
+		model.put("page", first / RESULTS_PER_PAGE);
+		model.put("pageCount", (count + RESULTS_PER_PAGE - 1) / RESULTS_PER_PAGE);
 		
 	}
 	
-	
-	
-	
 }
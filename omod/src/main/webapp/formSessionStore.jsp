@@ -0,0 +1,43 @@
+<%@ include file="/WEB-INF/template/include.jsp" %>
+
+<openmrs:require privilege="Manage Forms" otherwise="/login.htm" redirect="/module/htmlformentry/formSessionStore.list" />
+
+<%@ include file="/WEB-INF/template/header.jsp" %>
+<%@ include file="localHeader.jsp" %>
+
+<h2><spring:message code="htmlformentry.formSessionStore" /></h2>
+
+<div class="boxHeader">
+	<b><spring:message code="htmlformentry.formSessionStore.header" /></b>
+</div>
+
+<div class="box">
+	<table cellpadding="2" cellspacing="0">
+		<tr class="evenRow">
+			<th align="left"><spring:message code="htmlformentry.formSessionStore.snapshotCount" /></th>
+			<td>${store.snapshotCount} / ${store.maxSessions}</td>
+		</tr>
+		<tr class="oddRow">
+			<th align="left"><spring:message code="htmlformentry.formSessionStore.retainedBytes" /></th>
+			<td>${store.retainedBytes} / ${store.maxRetainedBytes}</td>
+		</tr>
+		<tr class="evenRow">
+			<th align="left"><spring:message code="htmlformentry.formSessionStore.timeToLive" /></th>
+			<td><fmt:formatNumber value="${store.timeToLive / (60 * 1000)}" maxFractionDigits="0"/></td>
+		</tr>
+		<tr class="oddRow">
+			<th align="left"><spring:message code="htmlformentry.formSessionStore.evictionCount" /></th>
+			<td>${store.evictionCount}</td>
+		</tr>
+		<tr class="evenRow">
+			<th align="left"><spring:message code="htmlformentry.formSessionStore.expiryCount" /></th>
+			<td>${store.expiryCount}</td>
+		</tr>
+		<tr class="oddRow">
+			<th align="left"><spring:message code="htmlformentry.formSessionStore.missingSnapshotCount" /></th>
+			<td>${store.missingSnapshotCount}</td>
+		</tr>
+	</table>
+</div>
+
+<%@ include file="/WEB-INF/template/footer.jsp"%>
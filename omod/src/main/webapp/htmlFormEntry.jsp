@@ -194,8 +194,113 @@
 	}
 
 	var tryingToSubmit = false;
+
+	// sections whose contents are deferred (see the lazySections parameter) are fetched when they come near the
+	// visible part of the page, and the form is only validated and submitted once they have all arrived
+	var deferredSectionsPending = 0;
+	var afterDeferredSectionsLoaded = null;
+	var deferredSectionsCheckScheduled = false;
+
+	// how far below the bottom of the window (in pixels) a section starts being fetched
+	var deferredSectionsMargin = 600;
+
+	function loadVisibleDeferredSections() {
+		deferredSectionsCheckScheduled = false;
+		var bottom = $j(window).scrollTop() + $j(window).height() + deferredSectionsMargin;
+		$j('div.htmlformentry-deferredSection').not('.htmlformentry-deferredSectionRequested').each(function() {
+			if ($j(this).offset().top <= bottom) {
+				requestDeferredSection($j(this));
+			}
+		});
+	}
+
+	// scrolling fires many events, so only look for sections to fetch a little after the first of them
+	function scheduleDeferredSectionsCheck() {
+		if (!deferredSectionsCheckScheduled) {
+			deferredSectionsCheckScheduled = true;
+			setTimeout(loadVisibleDeferredSections, 100);
+		}
+	}
+
+	function loadAllDeferredSections() {
+		$j('div.htmlformentry-deferredSection').not('.htmlformentry-deferredSectionRequested').each(function() {
+			requestDeferredSection($j(this));
+		});
+	}
+
+	function requestDeferredSection(placeholder) {
+		placeholder.addClass('htmlformentry-deferredSectionRequested');
+		deferredSectionsPending++;
+		loadDeferredSection(placeholder);
+	}
+
+	function loadDeferredSection(placeholder) {
+		placeholder.removeClass('htmlformentry-deferredSectionFailed').empty();
+		$j.ajax({
+			url: '<c:url value="/module/htmlformentry/renderSection.form"/>',
+			data: {
+				sectionIndex: placeholder.attr('data-section-index'),
+				formSessionToken: $j('#htmlform input[name="formSessionToken"]').val()
+			},
+			dataType: 'html',
+			cache: false,
+			success: function(html) {
+				placeholder.replaceWith(html);
+				deferredSectionLoaded();
+				// the page has changed size, which may have brought other sections into view
+				scheduleDeferredSectionsCheck();
+			},
+			error: function() {
+				deferredSectionFailed(placeholder);
+			}
+		});
+	}
+
+	function deferredSectionLoaded() {
+		deferredSectionsPending--;
+		if (deferredSectionsPending == 0 && afterDeferredSectionsLoaded != null) {
+			var callback = afterDeferredSectionsLoaded;
+			afterDeferredSectionsLoaded = null;
+			callback();
+		}
+	}
+
+	// the section stays pending, so the form can't be submitted without it, until it is loaded again
+	function deferredSectionFailed(placeholder) {
+		placeholder.addClass('htmlformentry-deferredSectionFailed');
+		placeholder.html('<span class="error"><spring:message code="htmlformentry.error.sectionNotLoaded" javaScriptEscape="true"/></span> ');
+		$j('<a href="#"><spring:message code="htmlformentry.error.sectionNotLoaded.retry" javaScriptEscape="true"/></a>')
+			.click(function() {
+				loadDeferredSection(placeholder);
+				return false;
+			})
+			.appendTo(placeholder);
+		if (afterDeferredSectionsLoaded != null) {
+			afterDeferredSectionsLoaded = null;
+			alert('<spring:message code="htmlformentry.error.sectionNotLoaded" javaScriptEscape="true"/>');
+		}
+	}
+
+	$j(document).ready(function() {
+		if ($j('div.htmlformentry-deferredSection').length > 0) {
+			loadVisibleDeferredSections();
+			// clicks may show parts of the form that were hidden
+			$j(window).bind('scroll resize', scheduleDeferredSectionsCheck);
+			$j(document).bind('click', scheduleDeferredSectionsCheck);
+		}
+	});
 	
 	function submitHtmlForm() {
+		if ($j('div.htmlformentry-deferredSectionFailed').length > 0) {
+			alert('<spring:message code="htmlformentry.error.sectionNotLoaded" javaScriptEscape="true"/>');
+			return;
+		}
+		// the sections the user never scrolled to are submitted too, so fetch them first
+		loadAllDeferredSections();
+		if (deferredSectionsPending > 0) {
+			afterDeferredSectionsLoaded = submitHtmlForm;
+			return;
+		}
 	    if (!tryingToSubmit) {
 	        tryingToSubmit = true;
 	        DWRHtmlFormEntryService.checkIfLoggedIn(checkIfLoggedInAndErrorsCallback);
@@ -424,6 +529,10 @@
 		</c:if>
 		<input type="hidden" name="closeAfterSubmission" value="${param.closeAfterSubmission}"/>
 		<input type="hidden" name="hasChangedInd" class="has-changed-ind" value="${ command.hasChangedInd }" />
+		<input type="hidden" name="formSessionToken" value="<c:out value="${ formSessionToken }"/>"/>
+		<c:if test="${ command.context.sectionScopedFieldNames }">
+			<input type="hidden" name="lazySections" value="true"/>
+		</c:if>
 </c:if>
 
 <c:if test="${command.context.guessingInd == 'true'}">
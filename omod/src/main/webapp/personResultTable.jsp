@@ -72,3 +72,14 @@ $j('#personTable').load('load', function() {
 		</c:forEach>
 		</tbody>
 					</table>
+		<c:if test="${pageCount > 1}">
+			<div id="personResultPages">
+				<c:if test="${page > 0}">
+					<a href='javascript:void(0)' onClick='showResultPage(${page - 1})'><spring:message code="htmlformentry.personSearchPreviousPage"/></a>
+				</c:if>
+				<spring:message code="htmlformentry.personSearchPage" arguments="${page + 1},${pageCount}"/>
+				<c:if test="${page + 1 < pageCount}">
+					<a href='javascript:void(0)' onClick='showResultPage(${page + 1})'><spring:message code="htmlformentry.personSearchNextPage"/></a>
+				</c:if>
+			</div>
+		</c:if>
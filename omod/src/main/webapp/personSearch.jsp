@@ -16,10 +16,17 @@ function submitForm()
 {
 	if(document.getElementById("pSearch").value.length > 3)
 	{
+		document.getElementById("pPage").value = 0;
 		processAjax();
 	}
 }
 
+function showResultPage(page)
+{
+	document.getElementById("pPage").value = page;
+	processAjax();
+}
+
 function processAjax()
 {
 	if(ajaxCall != undefined)
@@ -74,6 +81,7 @@ $j(document).ready(function() {
 							<input id="pProgram" name="pProgram" type="hidden" value="${param.searchProgram}">
 						</c:if>		
 						<input id="prefix" name="prefix" type="hidden" value="${param.prefix}">
+						<input id="pPage" name="pPage" type="hidden" value="0">
 						<div class="loading" id="loading">loading...</div>
 						<br></br>
 						<div id="table">